@@ -0,0 +1,66 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tells running fetch that its result is not needed anymore.
+ *
+ * Loops check it cooperatively with throwIfCanceled(), blocking calls like socket reads
+ * register a listener which aborts them.
+ */
+public class CancellationToken {
+
+    // Members
+    private volatile boolean mCanceled;
+    private final List<Runnable> mListeners = new ArrayList<>();
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * Throws {@link CancellationException} if the token was canceled
+     */
+    public void throwIfCanceled() {
+        if (mCanceled) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Cancels the token and runs its listeners, only the first call has any effect
+     */
+    public void cancel() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Adds listener run on cancel, right away if the token is already canceled
+     */
+    public void addOnCancelListener(Runnable listener) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    public synchronized void removeOnCancelListener(Runnable listener) {
+        mListeners.remove(listener);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.android.quakereport;
+
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.NotificationManagerCompat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Runs {@link CatalogImporter} in background with its progress in a notification.
+ *
+ * Imports run one after another. Intent is redelivered when the process is killed during
+ * import, which then continues from its checkpoint.
+ */
+public class CatalogImportService extends IntentService {
+
+    private static final String LOG_TAG = CatalogImportService.class.getSimpleName();
+
+    private static final String EXTRA_SOURCE = "source";
+    private static final String ACTION_CANCEL = "com.example.android.quakereport.CANCEL_IMPORT";
+    private static final int NOTIFICATION_ID = 1;
+    /** Notification is not updated more often, every update is sent to the system */
+    private static final long PROGRESS_INTERVAL = 500; /* milliseconds */
+
+    // Members
+    /** Token of the running import, canceled from the main thread */
+    private volatile CancellationToken mCancellationToken;
+
+    // Constructors
+    public CatalogImportService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Starts import of source, a path of local file or an url of USGS CSV or GeoJSON export
+     */
+    public static void start(Context context, String source) {
+        Intent intent = new Intent(context, CatalogImportService.class);
+        intent.putExtra(EXTRA_SOURCE, source);
+        context.startService(intent);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        setIntentRedelivery(true);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_CANCEL.equals(intent.getAction())) {
+            // Queued imports still run, only the current one is stopped
+            CancellationToken cancellationToken = mCancellationToken;
+            if (cancellationToken != null) {
+                cancellationToken.cancel();
+            }
+        }
+        return super.onStartCommand(intent, flags, startId);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        String source = intent != null ? intent.getStringExtra(EXTRA_SOURCE) : null;
+        if (source == null) {
+            return;
+        }
+
+        Intent cancelIntent = new Intent(this, CatalogImportService.class);
+        cancelIntent.setAction(ACTION_CANCEL);
+        final NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.import_title))
+                .setOnlyAlertOnce(true)
+                .setOngoing(true)
+                .setProgress(0, 0, true)
+                .addAction(0, getString(R.string.import_cancel),
+                        PendingIntent.getService(this, 0, cancelIntent,
+                                PendingIntent.FLAG_UPDATE_CURRENT));
+        startForeground(NOTIFICATION_ID, builder.build());
+        final NotificationManagerCompat notificationManager = NotificationManagerCompat.from(this);
+
+        CatalogImporter importer = new CatalogImporter(EarthquakeDatabase.getInstance(this),
+                getFilesDir());
+        CatalogImporter.ProgressListener listener = new CatalogImporter.ProgressListener() {
+            private long mLastUpdate;
+
+            @Override
+            public void onProgress(long rows, long bytes, long total) {
+                long now = SystemClock.elapsedRealtime();
+                if (now - mLastUpdate < PROGRESS_INTERVAL) {
+                    return;
+                }
+                mLastUpdate = now;
+                builder.setContentText(getString(R.string.import_progress, rows));
+                if (total > 0) {
+                    // Progress in thousandths, sizes don't fit in int
+                    builder.setProgress(1000, (int) (bytes * 1000 / total), false);
+                }
+                notificationManager.notify(NOTIFICATION_ID, builder.build());
+            }
+        };
+
+        String result;
+        mCancellationToken = new CancellationToken();
+        try {
+            long rows = importer.importCatalog(source, listener, mCancellationToken);
+            result = getString(R.string.import_done, rows);
+        } catch (CancellationException e) {
+            Log.i(LOG_TAG, "Import canceled: " + source);
+            result = getString(R.string.import_paused);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error importing " + source, e);
+            result = mCancellationToken.isCanceled() ? getString(R.string.import_paused)
+                    : getString(R.string.import_failed);
+        } finally {
+            mCancellationToken = null;
+        }
+
+        stopForeground(true);
+        notificationManager.notify(NOTIFICATION_ID, new NotificationCompat.Builder(this)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.import_title))
+                .setContentText(result)
+                .setAutoCancel(true)
+                .build());
+    }
+}
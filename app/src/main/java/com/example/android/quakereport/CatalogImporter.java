@@ -0,0 +1,616 @@
+package com.example.android.quakereport;
+
+import android.database.sqlite.SQLiteException;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Imports whole USGS catalog exports, CSV or GeoJSON, from a local file or url into
+ * {@link EarthquakeDatabase}. Local {@link EarthquakeFile}s are imported too.
+ *
+ * The export is streamed and stored in batches, each in its own transaction, so memory used
+ * doesn't grow with its size. After every batch a checkpoint is written, import of the same
+ * source started again continues after the last stored batch.
+ */
+public class CatalogImporter {
+
+    /**
+     * Receives progress on the importing thread after every batch
+     */
+    public interface ProgressListener {
+        /**
+         * Total is the size of the source in bytes, or -1 if it is not known
+         */
+        void onProgress(long rows, long bytes, long total);
+    }
+
+    private static final String LOG_TAG = CatalogImporter.class.getSimpleName();
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int BUFFER_SIZE = 8192;
+    /** Longer CSV records are not from USGS, they are refused instead of being buffered */
+    private static final int MAX_RECORD_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /** CSV export doesn't have event urls, they are made from event id */
+    private static final String EVENT_PAGE_URL = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+
+    /**
+     * Where import of a source stopped, rows and bytes are counted up to the last stored batch
+     */
+    private static class Checkpoint {
+        final String mSource;
+        final long mRows;
+        final long mBytes;
+
+        Checkpoint(String source, long rows, long bytes) {
+            mSource = source;
+            mRows = rows;
+            mBytes = bytes;
+        }
+    }
+
+    // Members
+    private final EarthquakeDatabase mDatabase;
+    private final File mCheckpointFile;
+
+    // Constructors
+    public CatalogImporter(EarthquakeDatabase database, File directory) {
+        mDatabase = database;
+        mCheckpointFile = new File(directory, "import_checkpoint");
+    }
+
+    /**
+     * Imports source, which is an http(s) url or a path of local file, continuing where its
+     * previous import stopped. Returns number of rows read from the whole source.
+     */
+    public long importCatalog(String source, ProgressListener listener,
+                              CancellationToken cancellationToken) throws IOException {
+        Checkpoint checkpoint = readCheckpoint();
+        if (checkpoint != null && !checkpoint.mSource.equals(source)) {
+            checkpoint = null;
+        }
+        if (checkpoint != null) {
+            Log.i(LOG_TAG, "Resuming import of " + source + " after " + checkpoint.mRows + " rows");
+        }
+
+        long total = -1;
+        InputStream input;
+        HttpClient.Response response = null;
+        // Canceled also when import fails, so the rest of the export is not downloaded
+        final CancellationToken requestToken = new CancellationToken();
+        Runnable forwardCancel = new Runnable() {
+            @Override
+            public void run() {
+                requestToken.cancel();
+            }
+        };
+        if (source.startsWith("http://") || source.startsWith("https://")) {
+            if (cancellationToken != null) {
+                cancellationToken.addOnCancelListener(forwardCancel);
+            }
+            response = HttpClient.getDefault().get(new URL(source),
+                    Collections.<String, String>emptyMap(), requestToken);
+            if (response.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                response.close();
+                throw new IOException("Error response code: " + response.getResponseCode());
+            }
+            input = response.getBody();
+            if (input == null) {
+                response.close();
+                throw new IOException("Empty response from " + source);
+            }
+            if (response.getHeader("Content-Encoding") == null) {
+                String length = response.getHeader("Content-Length");
+                total = length != null ? parseLong(length) : -1;
+            }
+        } else {
+            File file = new File(source.startsWith("file://") ? source.substring(7) : source);
+            if (EarthquakeFile.isEarthquakeFile(file)) {
+                return importEarthquakeFile(source, file, checkpoint, listener,
+                        cancellationToken);
+            }
+            total = file.length();
+            input = new FileInputStream(file);
+        }
+
+        boolean completed = false;
+        try {
+            input = new BufferedInputStream(input, BUFFER_SIZE);
+            long rows;
+            if (isGeoJson(input)) {
+                rows = importGeoJson(source, input, checkpoint, total, listener, cancellationToken);
+            } else {
+                rows = importCsv(source, input, checkpoint, total, listener, cancellationToken);
+            }
+            // Nothing left to resume
+            mCheckpointFile.delete();
+            Log.i(LOG_TAG, "Imported " + rows + " rows from " + source);
+            completed = true;
+            return rows;
+        } finally {
+            if (response != null) {
+                if (!completed) {
+                    requestToken.cancel();
+                }
+                response.close();
+                if (cancellationToken != null) {
+                    cancellationToken.removeOnCancelListener(forwardCancel);
+                }
+            } else {
+                input.close();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the first character of input opens a JSON object, input is not consumed
+     */
+    private static boolean isGeoJson(InputStream input) throws IOException {
+        input.mark(BUFFER_SIZE);
+        try {
+            for (int i = 0; i < BUFFER_SIZE; i++) {
+                int c = input.read();
+                if (c != ' ' && c != '\t' && c != '\r' && c != '\n' && c != 0xEF && c != 0xBB
+                        && c != 0xBF) {
+                    return c == '{';
+                }
+            }
+            return false;
+        } finally {
+            input.reset();
+        }
+    }
+
+    private long importGeoJson(String source, InputStream input, Checkpoint checkpoint,
+                               long total, ProgressListener listener,
+                               CancellationToken cancellationToken) throws IOException {
+        EarthquakeStreamParser parser = new EarthquakeStreamParser(input);
+        // Features are not separated by lines, already stored ones are parsed again and dropped
+        long skip = checkpoint != null ? checkpoint.mRows : 0;
+        long rows = 0;
+        List<Earthquake> batch = new ArrayList<>(BATCH_SIZE);
+        Earthquake earthquake;
+        while ((earthquake = parser.next()) != null) {
+            rows++;
+            if (rows <= skip) {
+                continue;
+            }
+            batch.add(earthquake);
+            if (batch.size() == BATCH_SIZE) {
+                storeBatch(source, batch, rows, parser.getOffset(), total, listener,
+                        cancellationToken);
+            }
+        }
+        storeBatch(source, batch, rows, parser.getOffset(), total, listener, cancellationToken);
+        return rows;
+    }
+
+    /**
+     * Imports earthquakes of a memory mapped file, rows are read in place one batch at a time
+     */
+    private long importEarthquakeFile(String source, File file, Checkpoint checkpoint,
+                                      ProgressListener listener,
+                                      CancellationToken cancellationToken) throws IOException {
+        EarthquakeFile earthquakes = EarthquakeFile.open(file);
+        long total = file.length();
+        int size = earthquakes.size();
+        long rows = checkpoint != null ? Math.min(checkpoint.mRows, size) : 0;
+        List<Earthquake> batch = new ArrayList<>(BATCH_SIZE);
+        while (rows < size) {
+            batch.add(earthquakes.get((int) rows));
+            rows++;
+            if (batch.size() == BATCH_SIZE) {
+                // Rows are fixed width, bytes read are estimated from rows for progress
+                storeBatch(source, batch, rows, total * rows / size, total, listener,
+                        cancellationToken);
+            }
+        }
+        storeBatch(source, batch, rows, total, total, listener, cancellationToken);
+        mCheckpointFile.delete();
+        Log.i(LOG_TAG, "Imported " + rows + " rows from " + source);
+        return rows;
+    }
+
+    private long importCsv(String source, InputStream input, Checkpoint checkpoint, long total,
+                           ProgressListener listener, CancellationToken cancellationToken)
+            throws IOException {
+        CsvReader reader = new CsvReader(input);
+        String[] header = reader.readHeader();
+        if (header == null) {
+            return 0;
+        }
+        int time = indexOf(header, "time");
+        int latitude = indexOf(header, "latitude");
+        int longitude = indexOf(header, "longitude");
+        int depth = indexOf(header, "depth");
+        int magnitude = indexOf(header, "mag");
+        int id = indexOf(header, "id");
+        int updated = indexOf(header, "updated");
+        int place = indexOf(header, "place");
+        if (time == -1 || magnitude == -1 || id == -1) {
+            throw new IOException("Not a USGS catalog export, columns: "
+                    + TextUtils.join(",", header));
+        }
+        reader.select(time, latitude, longitude, depth, magnitude, id, updated, place);
+
+        long rows = 0;
+        if (checkpoint != null) {
+            // Records end on line breaks, so reading continues right after the stored ones
+            reader.skipTo(checkpoint.mBytes);
+            rows = checkpoint.mRows;
+        }
+        List<Earthquake> batch = new ArrayList<>(BATCH_SIZE);
+        String[] values = new String[header.length];
+        while (reader.readRecord(values)) {
+            rows++;
+            String eventId = values[id];
+            long milliseconds = parseTime(values[time]);
+            double eventMagnitude = parseDouble(values[magnitude]);
+            if (eventId == null || milliseconds == -1 || Double.isNaN(eventMagnitude)) {
+                // Events without magnitude can't be shown
+                continue;
+            }
+            long eventUpdated = updated != -1 ? parseTime(values[updated]) : -1;
+            batch.add(new Earthquake(eventId, eventMagnitude, place != -1 ? values[place] : null,
+                    milliseconds, EVENT_PAGE_URL + eventId,
+                    eventUpdated != -1 ? eventUpdated : milliseconds, false,
+                    getDouble(values, latitude), getDouble(values, longitude),
+                    getDouble(values, depth)));
+            if (batch.size() == BATCH_SIZE) {
+                storeBatch(source, batch, rows, reader.getOffset(), total, listener,
+                        cancellationToken);
+            }
+        }
+        storeBatch(source, batch, rows, reader.getOffset(), total, listener, cancellationToken);
+        return rows;
+    }
+
+    /**
+     * Stores batch in one transaction and remembers how far the source was read, then
+     * empties batch so it can be filled again
+     */
+    private void storeBatch(String source, List<Earthquake> batch, long rows, long bytes,
+                            long total, ProgressListener listener,
+                            CancellationToken cancellationToken) throws IOException {
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCanceled();
+        }
+        try {
+            mDatabase.importBatch(batch);
+        } catch (SQLiteException e) {
+            throw new IOException("Error storing imported earthquakes", e);
+        }
+        batch.clear();
+        writeCheckpoint(new Checkpoint(source, rows, bytes));
+        if (listener != null) {
+            listener.onProgress(rows, bytes, total);
+        }
+    }
+
+    private Checkpoint readCheckpoint() {
+        if (!mCheckpointFile.exists()) {
+            return null;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(mCheckpointFile));
+            return new Checkpoint(input.readUTF(), input.readLong(), input.readLong());
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading import checkpoint", e);
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Writes checkpoint to a temporary file first, so it is never found half written
+     */
+    private void writeCheckpoint(Checkpoint checkpoint) throws IOException {
+        File tempFile = new File(mCheckpointFile.getParentFile(), mCheckpointFile.getName() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(tempFile));
+        try {
+            output.writeUTF(checkpoint.mSource);
+            output.writeLong(checkpoint.mRows);
+            output.writeLong(checkpoint.mBytes);
+        } finally {
+            output.close();
+        }
+        if (!tempFile.renameTo(mCheckpointFile)) {
+            throw new IOException("Can't rename import checkpoint " + tempFile);
+        }
+    }
+
+    private static void closeQuietly(InputStream input) {
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing import checkpoint", e);
+            }
+        }
+    }
+
+    private static int indexOf(String[] header, String column) {
+        for (int i = 0; i < header.length; i++) {
+            if (column.equals(header[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static double getDouble(String[] values, int index) {
+        return index != -1 ? parseDouble(values[index]) : Double.NaN;
+    }
+
+    private static double parseDouble(String value) {
+        if (value == null || value.isEmpty()) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Parses UTC time as USGS writes it, i.e. 2017-03-11T10:23:45.120Z, without the cost of
+     * a date format for every row. Returns -1 if value has a different form.
+     */
+    static long parseTime(String value) {
+        if (value == null || value.length() < 19 || value.charAt(4) != '-'
+                || value.charAt(7) != '-' || value.charAt(10) != 'T' || value.charAt(13) != ':'
+                || value.charAt(16) != ':') {
+            return -1;
+        }
+        int year = digits(value, 0, 4);
+        int month = digits(value, 5, 7);
+        int day = digits(value, 8, 10);
+        int hour = digits(value, 11, 13);
+        int minute = digits(value, 14, 16);
+        int second = digits(value, 17, 19);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0
+                || minute < 0 || second < 0) {
+            return -1;
+        }
+        int millisecond = 0;
+        int position = 19;
+        if (position < value.length() && value.charAt(position) == '.') {
+            int end = position + 1;
+            while (end < value.length() && Character.isDigit(value.charAt(end))) {
+                end++;
+            }
+            // Only the first three fraction digits are milliseconds
+            int fractionEnd = Math.min(end, position + 4);
+            millisecond = digits(value, position + 1, fractionEnd);
+            for (int i = fractionEnd - position - 1; i < 3; i++) {
+                millisecond *= 10;
+            }
+            position = end;
+        }
+        if (position < value.length() && value.charAt(position) != 'Z') {
+            return -1;
+        }
+
+        // Days from 1970-01-01 of proleptic Gregorian date, years counted from March
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        return ((days * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millisecond;
+    }
+
+    private static int digits(String value, int start, int end) {
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + c - '0';
+        }
+        return result;
+    }
+
+    /**
+     * Reads CSV records byte by byte from a fixed buffer, only selected columns are decoded.
+     * Quoted values may contain separators, line breaks and doubled quotes.
+     */
+    private static class CsvReader {
+
+        // Members
+        private final InputStream mInputStream;
+        private final byte[] mBuffer = new byte[BUFFER_SIZE];
+        private int mPosition;
+        private int mLimit;
+        private long mBufferOffset;
+        private byte[] mValue = new byte[256];
+        private boolean[] mSelected;
+
+        CsvReader(InputStream inputStream) {
+            mInputStream = inputStream;
+        }
+
+        /**
+         * Returns number of bytes consumed so far, which is the end of the last record
+         */
+        long getOffset() {
+            return mBufferOffset + mPosition;
+        }
+
+        /**
+         * Reads the first record with all of its columns, or returns null if input is empty
+         */
+        String[] readHeader() throws IOException {
+            if (peek() == 0xEF) {
+                // UTF-8 byte order mark
+                mPosition += 3;
+            }
+            List<String> columns = new ArrayList<>();
+            mSelected = null;
+            if (!readRecord(columns, null)) {
+                return null;
+            }
+            return columns.toArray(new String[columns.size()]);
+        }
+
+        /**
+         * Makes following records decode only given columns, -1 is ignored
+         */
+        void select(int... columns) {
+            int count = 0;
+            for (int column : columns) {
+                count = Math.max(count, column + 1);
+            }
+            mSelected = new boolean[count];
+            for (int column : columns) {
+                if (column != -1) {
+                    mSelected[column] = true;
+                }
+            }
+        }
+
+        /**
+         * Skips input up to given offset from its start
+         */
+        void skipTo(long offset) throws IOException {
+            while (getOffset() < offset) {
+                if (mPosition == mLimit && !fill()) {
+                    throw new IOException("Import source is shorter than its checkpoint");
+                }
+                mPosition += (int) Math.min(mLimit - mPosition, offset - getOffset());
+            }
+        }
+
+        /**
+         * Reads next record into values, columns which are not selected or missing are null.
+         * Returns false at the end of input.
+         */
+        boolean readRecord(String[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                values[i] = null;
+            }
+            return readRecord(null, values);
+        }
+
+        private boolean readRecord(List<String> list, String[] values) throws IOException {
+            // Empty lines are not records
+            int c;
+            while ((c = peek()) == '\r' || c == '\n') {
+                mPosition++;
+            }
+            if (c == -1) {
+                return false;
+            }
+
+            long recordStart = getOffset();
+            int column = 0;
+            while (true) {
+                boolean decode = mSelected == null
+                        || (column < mSelected.length && mSelected[column]);
+                int length = 0;
+                boolean quoted = peek() == '"';
+                if (quoted) {
+                    mPosition++;
+                }
+                while (true) {
+                    c = read();
+                    if (quoted) {
+                        if (c == -1) {
+                            throw new IOException("Unterminated quoted CSV value");
+                        }
+                        if (c == '"') {
+                            if (peek() != '"') {
+                                quoted = false;
+                                continue;
+                            }
+                            mPosition++;
+                        }
+                    } else if (c == ',' || c == '\n' || c == '\r' || c == -1) {
+                        break;
+                    }
+                    if (getOffset() - recordStart > MAX_RECORD_SIZE) {
+                        throw new IOException("CSV record longer than " + MAX_RECORD_SIZE);
+                    }
+                    if (decode) {
+                        if (length == mValue.length) {
+                            byte[] value = new byte[length * 2];
+                            System.arraycopy(mValue, 0, value, 0, length);
+                            mValue = value;
+                        }
+                        mValue[length++] = (byte) c;
+                    }
+                }
+
+                if (decode) {
+                    String value = new String(mValue, 0, length, UTF_8);
+                    if (list != null) {
+                        list.add(value);
+                    } else if (column < values.length) {
+                        values[column] = value;
+                    }
+                }
+                if (c != ',') {
+                    if (c == '\r' && peek() == '\n') {
+                        mPosition++;
+                    }
+                    return true;
+                }
+                column++;
+            }
+        }
+
+        private int read() throws IOException {
+            if (mPosition == mLimit && !fill()) {
+                return -1;
+            }
+            return mBuffer[mPosition++] & 0xFF;
+        }
+
+        private int peek() throws IOException {
+            if (mPosition == mLimit && !fill()) {
+                return -1;
+            }
+            return mBuffer[mPosition] & 0xFF;
+        }
+
+        private boolean fill() throws IOException {
+            mBufferOffset += mLimit;
+            mPosition = 0;
+            mLimit = 0;
+            int count = mInputStream.read(mBuffer, 0, mBuffer.length);
+            if (count <= 0) {
+                return false;
+            }
+            mLimit = count;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops requests to a host which keeps failing, so the app doesn't wait for timeouts and
+ * the server isn't hammered while it is down.
+ *
+ * After enough failed requests in a row the circuit opens and requests are refused right
+ * away. Once the open time passes a single trial request is let through: if it succeeds
+ * the circuit closes, otherwise it opens again for twice as long.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_MIN_OPEN_TIME = TimeUnit.SECONDS.toMillis(30);
+    private static final long DEFAULT_MAX_OPEN_TIME = TimeUnit.MINUTES.toMillis(10);
+
+    /** Breakers of all hosts, sorted by host for the metrics dialog */
+    private static final Map<String, CircuitBreaker> sBreakers = new TreeMap<>();
+
+    // Members
+    private final int mFailureThreshold;
+    private final long mMinOpenTime;
+    private final long mMaxOpenTime;
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenTime;
+    private long mOpenUntil;
+    private boolean mTrialRunning;
+    private long mTotalFailures;
+    private long mTotalRefused;
+
+    // Constructors
+    public CircuitBreaker(int failureThreshold, long minOpenTime, long maxOpenTime) {
+        mFailureThreshold = failureThreshold;
+        mMinOpenTime = minOpenTime;
+        mMaxOpenTime = maxOpenTime;
+        mOpenTime = minOpenTime;
+    }
+
+    /**
+     * Returns breaker shared by all requests to host
+     */
+    public static CircuitBreaker forHost(String host) {
+        synchronized (sBreakers) {
+            CircuitBreaker breaker = sBreakers.get(host);
+            if (breaker == null) {
+                breaker = new CircuitBreaker(DEFAULT_FAILURE_THRESHOLD, DEFAULT_MIN_OPEN_TIME,
+                        DEFAULT_MAX_OPEN_TIME);
+                sBreakers.put(host, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * Forgets breakers of all hosts, i.e. between tests
+     */
+    static void resetAll() {
+        synchronized (sBreakers) {
+            sBreakers.clear();
+        }
+    }
+
+    /**
+     * Returns state and failure counts of every host, i.e. for the metrics dialog
+     */
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        synchronized (sBreakers) {
+            for (Map.Entry<String, CircuitBreaker> entry : sBreakers.entrySet()) {
+                builder.append(entry.getKey()).append(": ")
+                        .append(entry.getValue().describe()).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns true if request may be made now. Every allowed request must be followed by
+     * onSuccess(), onFailure() or onCanceled().
+     */
+    public synchronized boolean allowRequest() {
+        if (mState == State.OPEN && now() >= mOpenUntil) {
+            mState = State.HALF_OPEN;
+            mTrialRunning = false;
+        }
+        if (mState == State.CLOSED) {
+            return true;
+        }
+        if (mState == State.HALF_OPEN && !mTrialRunning) {
+            Log.i(LOG_TAG, "Letting trial request through");
+            mTrialRunning = true;
+            return true;
+        }
+        mTotalRefused++;
+        return false;
+    }
+
+    /**
+     * Host answered, even with an error which is not its failure (i.e. 404)
+     */
+    public synchronized void onSuccess() {
+        if (mState != State.CLOSED) {
+            Log.i(LOG_TAG, "Closing circuit");
+        }
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mOpenTime = mMinOpenTime;
+        mTrialRunning = false;
+    }
+
+    /**
+     * Request failed because of the host or the network
+     */
+    public synchronized void onFailure() {
+        mTotalFailures++;
+        mConsecutiveFailures++;
+        if (mState == State.HALF_OPEN) {
+            // Trial failed, host gets more time to recover
+            mOpenTime = Math.min(mMaxOpenTime, mOpenTime * 2);
+            open();
+        } else if (mState == State.CLOSED && mConsecutiveFailures >= mFailureThreshold) {
+            open();
+        }
+    }
+
+    /**
+     * Request was canceled before its result was known, the next one can be the trial
+     */
+    public synchronized void onCanceled() {
+        mTrialRunning = false;
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * Returns milliseconds until the next request is let through, 0 if it is right away
+     */
+    public synchronized long getRetryIn() {
+        return mState == State.OPEN ? Math.max(0, mOpenUntil - now()) : 0;
+    }
+
+    private void open() {
+        mState = State.OPEN;
+        mTrialRunning = false;
+        mOpenUntil = now() + mOpenTime;
+        Log.i(LOG_TAG, "Opening circuit for " + mOpenTime + " ms after "
+                + mConsecutiveFailures + " failures");
+    }
+
+    private synchronized String describe() {
+        String description = String.format(Locale.US, "%s, %d failures, %d refused",
+                mState, mTotalFailures, mTotalRefused);
+        long retryIn = getRetryIn();
+        return retryIn > 0 ? description + String.format(Locale.US, ", retry in %d s",
+                TimeUnit.MILLISECONDS.toSeconds(retryIn)) : description;
+    }
+
+    /**
+     * Monotonic clock, wall clock changes don't shorten or prolong the open time
+     */
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -13,13 +13,61 @@ public class Earthquake {
     private String mLocation;
     private long mMilliseconds;
     private String mUrl;
+    private String mId;
+    private long mUpdated;
+    private boolean mDeleted;
+    private double mLatitude;
+    private double mLongitude;
+    private double mDepth;
+    private EarthquakeRow mRow;
+    private EarthquakeDetails mDetails;
 
     // Constructors
     public Earthquake(double magnitude, String location, long date, String url) {
+        this(null, magnitude, location, date, url, 0, false);
+    }
+
+    public Earthquake(String id, double magnitude, String location, long date, String url,
+                      long updated, boolean deleted) {
+        this(id, magnitude, location, date, url, updated, deleted, Double.NaN, Double.NaN,
+                Double.NaN);
+    }
+
+    public Earthquake(String id, double magnitude, String location, long date, String url,
+                      long updated, boolean deleted, double latitude, double longitude,
+                      double depth) {
+        this(id, magnitude, location, date, url, updated, deleted, latitude, longitude, depth,
+                null);
+    }
+
+    /**
+     * @param row Texts of the list row, or null if they are made only when the row is shown
+     */
+    public Earthquake(String id, double magnitude, String location, long date, String url,
+                      long updated, boolean deleted, double latitude, double longitude,
+                      double depth, EarthquakeRow row) {
+        this(id, magnitude, location, date, url, updated, deleted, latitude, longitude, depth,
+                row, null);
+    }
+
+    /**
+     * @param details Raw properties of the USGS feature, or null if they were not kept
+     */
+    public Earthquake(String id, double magnitude, String location, long date, String url,
+                      long updated, boolean deleted, double latitude, double longitude,
+                      double depth, EarthquakeRow row, EarthquakeDetails details) {
+        mId = id;
         mMagnitude = magnitude;
         mLocation = location;
         mMilliseconds = date;
         mUrl = url;
+        mUpdated = updated;
+        mDeleted = deleted;
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mDepth = depth;
+        mRow = row;
+        mDetails = details;
     }
 
     // Getters
@@ -38,4 +86,68 @@ public class Earthquake {
     public String getUrl() {
         return mUrl;
     }
+
+    /**
+     * Returns USGS event id, or null if it is not known
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * Returns time of the last update of this event in milliseconds
+     */
+    public long getUpdated() {
+        return mUpdated;
+    }
+
+    /**
+     * Returns true if USGS reported this event as deleted
+     */
+    public boolean isDeleted() {
+        return mDeleted;
+    }
+
+    /**
+     * Returns latitude of the epicenter in degrees, or NaN if it is not known
+     */
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    /**
+     * Returns longitude of the epicenter in degrees, or NaN if it is not known
+     */
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    /**
+     * Returns depth of the hypocenter in km, or NaN if it is not known
+     */
+    public double getDepth() {
+        return mDepth;
+    }
+
+    /**
+     * Returns texts of the list row made in background, or null if there are none
+     */
+    public EarthquakeRow getRow() {
+        return mRow;
+    }
+
+    /**
+     * Returns all properties USGS sent for this event, or null if they were not kept,
+     * i.e. for events read from the database
+     */
+    public EarthquakeDetails getDetails() {
+        return mDetails;
+    }
+
+    /**
+     * Returns true if position of the epicenter is known
+     */
+    public boolean hasCoordinates() {
+        return !Double.isNaN(mLatitude) && !Double.isNaN(mLongitude);
+    }
 }
\ No newline at end of file
@@ -15,40 +15,109 @@
  */
 package com.example.android.quakereport;
 
-import android.app.LoaderManager;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.Loader;
 import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.EditText;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-public class EarthquakeActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<List<Earthquake>> {
+public class EarthquakeActivity extends AppCompatActivity {
 
     public static final String LOG_TAG = EarthquakeActivity.class.getName();
     private static final String USGS_URL =
             "http://earthquake.usgs.gov/fdsnws/event/1/query"; //?format=geojson&eventtype=earthquake&orderby=time&minmag=1.9&limit=10";
     private QuakeArrayAdapter mAdapter;
-    private static final int EARTHQUAKE_LOADER_ID = 0;
+    /** Number of earthquakes requested from USGS at once */
+    private static final int PAGE_SIZE = 50;
+    /** Next page is requested when list is scrolled this many rows from its end */
+    private static final int PREFETCH_DISTANCE = 10;
+    /** Days summarized in the header, as many as USGS returns by default */
+    private static final int SUMMARY_DAYS =
+            (int) TimeUnit.MILLISECONDS.toDays(EarthquakeDatabase.DEFAULT_WINDOW);
+    /** Days counted as this week in the header, today included */
+    private static final int WEEK_DAYS = 7;
+    private RecyclerView mEarthquakeListView;
+    private LinearLayoutManager mLayoutManager;
+    private int mLoadingPage = -1;
+    private boolean mLastPageReached;
     private TextView mEmptyStateTextView;
+    private TextView mSummaryTextView;
     private ProgressBar mLoadingSpinner;
-    private NetworkInfo mActiveNetwork;
-    private boolean mFirstLoad;
+    /** Identifies query of the first page being loaded, survives stop and rotation */
+    private String mLoadingKey;
+    /** Identifies query of the first page shown, it is loaded again only when this changes */
+    private String mShownKey;
+    private FetchEngine.Subscription mFirstPageSubscription;
+    private FetchEngine.Subscription mPageSubscription;
+    private EarthquakeSnapshot mSnapshot;
+    /** True while first page painted from the snapshot is being revalidated */
+    private boolean mShowingSnapshot;
+    private String mRefreshUrl;
+    /** Polled first page waiting until the list is scrolled back to its top */
+    private List<Earthquake> mPendingRefresh;
+    private final RefreshScheduler.Listener mRefreshListener = new RefreshScheduler.Listener() {
+        @Override
+        public void onEarthquakesUpdated(String url, List<Earthquake> earthquakes) {
+            Log.i(LOG_TAG, "onEarthquakesUpdated");
+            // First page being loaded is at least as fresh
+            if (mLoadingKey != null) {
+                return;
+            }
+            mSnapshot.writeAsync(new EarthquakeSnapshot.Content(url, false, earthquakes));
+            if (mAdapter.getFirstPage() != 0 || mAdapter.getLastPage() != 0) {
+                // Replacing the list would drop pages the user scrolled to
+                mPendingRefresh = earthquakes;
+                return;
+            }
+            showFirstPage(earthquakes, false);
+        }
+    };
+    private PushFeed mPushFeed;
+    private final PushFeed.Listener mPushListener = new PushFeed.Listener() {
+        @Override
+        public void onEarthquakesPushed(List<Earthquake> earthquakes) {
+            Log.i(LOG_TAG, "onEarthquakesPushed: " + earthquakes.size());
+            mergePushed(earthquakes);
+        }
+    };
+
+    /**
+     * What is shown and being loaded, handed over to the new activity on rotation
+     */
+    private static class RetainedState {
+        EarthquakeStore mEarthquakes;
+        int mFirstPage;
+        List<Integer> mPageSizes;
+        boolean mLastPageReached;
+        int mLoadingPage;
+        String mLoadingKey;
+        String mShownKey;
+        boolean mShowingSnapshot;
+        List<Earthquake> mPendingRefresh;
+    }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -56,78 +125,276 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         super.onCreate(savedInstanceState);
         setContentView(R.layout.earthquake_activity);
 
-        // Find a reference to the list ListView in the layout
-        ListView earthquakeListView = (ListView) findViewById(R.id.list);
+        // Find a reference to the list RecyclerView in the layout
+        RecyclerView earthquakeListView = (RecyclerView) findViewById(R.id.list);
+        mEarthquakeListView = earthquakeListView;
+        mLayoutManager = new LinearLayoutManager(this);
+        earthquakeListView.setLayoutManager(mLayoutManager);
 
-        // Create a new QuakeArrayAdapter
-        mAdapter = new QuakeArrayAdapter(this, new ArrayList<Earthquake>());
+        mLoadingSpinner = (ProgressBar) findViewById(R.id.loading_spinner);
+        mSummaryTextView = (TextView) findViewById(R.id.summary);
+        mSnapshot = new EarthquakeSnapshot(getFilesDir());
 
-        // Set empty view on list view
+        // Create a new QuakeArrayAdapter, with rows of the previous activity after rotation
+        RetainedState retained = (RetainedState) getLastCustomNonConfigurationInstance();
+        if (retained != null) {
+            mAdapter = new QuakeArrayAdapter(this, retained.mEarthquakes);
+            mAdapter.restorePages(retained.mFirstPage, retained.mPageSizes);
+            mLastPageReached = retained.mLastPageReached;
+            mLoadingPage = retained.mLoadingPage;
+            mLoadingKey = retained.mLoadingKey;
+            mShownKey = retained.mShownKey;
+            mShowingSnapshot = retained.mShowingSnapshot;
+            mPendingRefresh = retained.mPendingRefresh;
+            if (mLoadingKey == null || mAdapter.getItemCount() > 0) {
+                mLoadingSpinner.setVisibility(View.GONE);
+            }
+        } else {
+            mAdapter = new QuakeArrayAdapter(this, new EarthquakeStore());
+        }
+
+        // Empty view is shown whenever the adapter has no rows
         mEmptyStateTextView = (TextView) findViewById(R.id.empty);
-        earthquakeListView.setEmptyView(mEmptyStateTextView);
+        mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
 
         // Set the adapter on the list view so the list can be populated in the user interface
         earthquakeListView.setAdapter(mAdapter);
 
+        // Search filters rows already loaded as the user types, without asking USGS again.
+        // Text restored after rotation comes through the same listener.
+        EditText searchEditText = (EditText) findViewById(R.id.search);
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence text, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable text) {
+                mAdapter.setQuery(text.toString());
+            }
+        });
+
         // Setting on item click listener
-        earthquakeListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        mAdapter.setOnItemClickListener(new QuakeArrayAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onItemClick(int position) {
 
-                Earthquake currentEarthquake = (Earthquake) mAdapter.getItem(position);
-                Uri webpage = Uri.parse(currentEarthquake.getUrl());
+                Uri webpage = Uri.parse(mAdapter.getUrl(position));
                 Intent intent = new Intent(Intent.ACTION_VIEW, webpage);
                 if (intent.resolveActivity(getPackageManager()) != null) {
                     startActivity(intent);
                 }
             }
         });
-        mFirstLoad = true;
+
+        // Prefetch neighbouring page when list is scrolled close to either end of loaded pages
+        earthquakeListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Polled first page is shown once the user is back at the top
+                if (mPendingRefresh != null && mLoadingKey == null && mAdapter.getFirstPage() == 0
+                        && mLayoutManager.findFirstVisibleItemPosition() == 0) {
+                    showFirstPage(mPendingRefresh, false);
+                    return;
+                }
+
+                // Positions of filtered rows are not positions in pages, so searching pauses paging
+                int totalItemCount = mAdapter.getItemCount();
+                if (totalItemCount == 0 || mLoadingPage != -1 || mAdapter.isFiltered()) {
+                    return;
+                }
+                int firstVisibleItem = mLayoutManager.findFirstVisibleItemPosition();
+                int lastVisibleItem = mLayoutManager.findLastVisibleItemPosition();
+                if (!mLastPageReached
+                        && lastVisibleItem + 1 >= totalItemCount - PREFETCH_DISTANCE) {
+                    loadPage(mAdapter.getLastPage() + 1);
+                } else if (mAdapter.getFirstPage() > 0 && firstVisibleItem <= PREFETCH_DISTANCE) {
+                    loadPage(mAdapter.getFirstPage() - 1);
+                }
+            }
+        });
     }
 
     @Override
-    protected void onPostResume() {
-        Log.i(LOG_TAG, "onPostResume");
-        super.onPostResume();
+    public Object onRetainCustomNonConfigurationInstance() {
+        RetainedState state = new RetainedState();
+        state.mEarthquakes = mAdapter.getEarthquakes();
+        state.mFirstPage = mAdapter.getFirstPage();
+        state.mPageSizes = mAdapter.getPageSizes();
+        state.mLastPageReached = mLastPageReached;
+        state.mLoadingPage = mLoadingPage;
+        state.mLoadingKey = mLoadingKey;
+        state.mShownKey = mShownKey;
+        state.mShowingSnapshot = mShowingSnapshot;
+        state.mPendingRefresh = mPendingRefresh;
+        return state;
+    }
 
-        mLoadingSpinner = (ProgressBar) findViewById(R.id.loading_spinner);
-        // Depending on having internet connection initialize loader or show "No internet connection"
-        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        mActiveNetwork = connectivityManager.getActiveNetworkInfo();
-        boolean isConnected = mActiveNetwork != null && mActiveNetwork.isConnected();
-        //&& (activeNetwork.getType() == ConnectivityManager.TYPE_WIFI || activeNetwork.getType() == ConnectivityManager.TYPE_MOBILE);
-
-        if (isConnected && mFirstLoad) {
-            // Prepare the loader.  Either re-connect with an existing one, or start a new one.
-            Bundle args = new Bundle();
-            args.putString("url", USGS_URL);
-            Log.i(LOG_TAG, "onPostResume: Initializing loader with ID " + EARTHQUAKE_LOADER_ID);
-            getLoaderManager().initLoader(EARTHQUAKE_LOADER_ID, args, this);
-
-            mFirstLoad = false;
-            mLoadingSpinner.setVisibility(View.VISIBLE);
-            mAdapter.clear();
-            mEmptyStateTextView.setVisibility(View.GONE);
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        // Metrics can be turned on in settings, menu item to show them is visible only then
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
+        Metrics.setEnabled(sharedPref.getBoolean(getString(R.string.settings_metrics_key), false));
+        supportInvalidateOptionsMenu();
+
+        // Today and regions may have changed while the screen was stopped
+        mAdapter.setStats(new EarthquakeStats(System.currentTimeMillis(), SUMMARY_DAYS,
+                readRegions()));
+
+        String key = buildFirstPageKey();
+        if (key.equals(mLoadingKey)) {
+            // Join request which was running when the screen was stopped or rotated
+            loadFirstPage();
+        } else if (!key.equals(mShownKey)) {
+            // First start or settings changed, what is shown doesn't match them anymore.
+            // Last result for these settings is painted right away and revalidated in
+            // background, stored earthquakes are shown even without internet connection.
+            EarthquakeSnapshot.Content snapshot = mSnapshot.read();
+            if (snapshot != null && key.equals(snapshot.getKey())) {
+                Log.i(LOG_TAG, "onStart: showing snapshot");
+                showFirstPage(snapshot.getEarthquakes(), snapshot.isLastPage());
+                mShowingSnapshot = true;
+                mLoadingSpinner.setVisibility(View.GONE);
+            } else {
+                mAdapter.clear();
+                mShowingSnapshot = false;
+                mLoadingSpinner.setVisibility(View.VISIBLE);
+                mEmptyStateTextView.setVisibility(View.GONE);
+            }
+            loadFirstPage();
         }
-        else if (isConnected && !mFirstLoad){
-            mLoadingSpinner.setVisibility(View.VISIBLE);
-            mAdapter.clear();
-            mEmptyStateTextView.setVisibility(View.GONE);
+        updateSummaryView();
+        if (mLoadingPage != -1 && mPageSubscription == null) {
+            loadPage(mLoadingPage);
         }
-        else if (!isConnected) {
-            Log.i(LOG_TAG, "onPostResume: No internet connection");
-            // Hide progress bar since data is loaded
-            mLoadingSpinner.setVisibility(ProgressBar.GONE);
-            mAdapter.clear();
-            // Set empty state text to display "No internet connection."
-            mEmptyStateTextView.setText(R.string.no_internet_connection);
+
+        // Keep first page fresh while the screen is visible, merged lists are not polled.
+        // Push feed shows new earthquakes within seconds, polls still catch what it misses.
+        if (readRegions().isEmpty() && !isFederated(readSources())) {
+            mRefreshUrl = buildQueryUrl(0);
+            RefreshScheduler.getInstance(this).register(mRefreshUrl, mRefreshListener);
+
+            String pushUrl = sharedPref.getString(getString(R.string.settings_push_key), "").trim();
+            if (!pushUrl.isEmpty()) {
+                mPushFeed = new PushFeed(pushUrl, mPushListener);
+                mPushFeed.start();
+            }
         }
     }
 
     @Override
-    public Loader<List<Earthquake>> onCreateLoader(int id, Bundle args) {
-        Log.i(LOG_TAG, "onCreateLoader");
+    protected void onStop() {
+        // Running requests go on when the screen is only hidden or rotated, results are
+        // picked up in onStart. Leaving the screen for good cancels them.
+        boolean keepRequests = isChangingConfigurations() || !isFinishing();
+        if (mFirstPageSubscription != null) {
+            if (keepRequests) {
+                mFirstPageSubscription.detach();
+            } else {
+                mFirstPageSubscription.cancel();
+            }
+            mFirstPageSubscription = null;
+        }
+        if (mPageSubscription != null) {
+            if (keepRequests) {
+                mPageSubscription.detach();
+            } else {
+                mPageSubscription.cancel();
+            }
+            mPageSubscription = null;
+        }
+
+        if (mRefreshUrl != null) {
+            RefreshScheduler.getInstance(this).unregister(mRefreshUrl, mRefreshListener);
+            mRefreshUrl = null;
+        }
+        if (mPushFeed != null) {
+            mPushFeed.stop();
+            mPushFeed = null;
+        }
+        super.onStop();
+    }
+
+    /**
+     * Loads first page for current settings, replacing everything in the list when it arrives
+     */
+    private void loadFirstPage() {
+        final String key = buildFirstPageKey();
+        String url = buildQueryUrl(0);
+        List<MultiRegionQuery.Region> regions = readRegions();
+        List<EarthquakeSource> sources = readSources();
+        Log.i(LOG_TAG, "loadFirstPage: " + key);
+
+        // Several regions or sources are merged into one list, which is not paged. Otherwise
+        // the first page is kept in sync incrementally.
+        final boolean merged = !regions.isEmpty() || isFederated(sources);
+        EarthquakeRequest request;
+        if (!regions.isEmpty()) {
+            request = new EarthquakeRequest(getApplicationContext(), url, false, regions);
+        } else if (merged) {
+            request = new EarthquakeRequest(getApplicationContext(), url, false, null, sources);
+        } else {
+            request = new EarthquakeRequest(getApplicationContext(), url, true);
+        }
+
+        mLoadingKey = key;
+        mFirstPageSubscription = FetchEngine.getInstance().fetch(key, FetchEngine.PRIORITY_USER,
+                request, new FetchEngine.Callback() {
+                    @Override
+                    public void onFetchFinished(String fetchedKey, List<Earthquake> data) {
+                        onFirstPageLoaded(key, data, merged);
+                    }
+                });
+    }
 
+    /**
+     * Returns key of the first page query for current settings, regions and sources are
+     * part of it
+     */
+    private String buildFirstPageKey() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
+        String regions = sharedPref.getString(getString(R.string.settings_regions_key), "");
+        String url = buildQueryUrl(0);
+        if (!readRegions().isEmpty()) {
+            return url + "#regions=" + regions;
+        }
+        List<EarthquakeSource> sources = readSources();
+        if (!isFederated(sources)) {
+            return url;
+        }
+        StringBuilder key = new StringBuilder(url).append("#sources=");
+        for (EarthquakeSource source : sources) {
+            key.append(source.getName()).append(',');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Builds USGS query url for given page from preferences
+     */
+    private String buildQueryUrl(int page) {
         SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
         // Read minimal magnitude from preferences
         String minMagnitude = sharedPref.getString(getString(R.string.settings_min_magnitude_key),
@@ -136,45 +403,250 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         String orderBy = sharedPref.getString(getString(R.string.settings_order_by_key),
                 getString(R.string.settings_order_by_default));
 
-        Uri baseUri = Uri.parse(args.getString("url"));
+        Uri baseUri = Uri.parse(USGS_URL);
         Uri.Builder uriBuilder = baseUri.buildUpon();
         uriBuilder.appendQueryParameter("format", "geojson");
         uriBuilder.appendQueryParameter("minmag", minMagnitude);
-        uriBuilder.appendQueryParameter("limit", "10");
+        uriBuilder.appendQueryParameter("limit", String.valueOf(PAGE_SIZE));
+        if (page > 0) {
+            // USGS offsets start at 1
+            uriBuilder.appendQueryParameter("offset", String.valueOf(page * PAGE_SIZE + 1));
+        }
         uriBuilder.appendQueryParameter("orderby", orderBy);
         //?format=geojson&eventtype=earthquake&orderby=time&minmag=1.9&limit=10";
 
+        return uriBuilder.toString();
+    }
 
-        return new EarthquakeLoader(EarthquakeActivity.this, uriBuilder.toString());
+    /**
+     * Returns regions from preferences, empty list means the whole world
+     */
+    private List<MultiRegionQuery.Region> readRegions() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
+        return MultiRegionQuery.Region.parseList(
+                sharedPref.getString(getString(R.string.settings_regions_key), ""));
     }
 
-    @Override
-    public void onLoadFinished(Loader<List<Earthquake>> loader, List<Earthquake> data) {
-        Log.i(LOG_TAG, "onLoadFinished");
+    /**
+     * Returns sources from preferences in order of preference, USGS when none is chosen
+     */
+    private List<EarthquakeSource> readSources() {
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
+        Set<String> names = sharedPref.getStringSet(getString(R.string.settings_sources_key),
+                null);
+        List<EarthquakeSource> sources = names != null
+                ? FederatedQuery.getSources(names) : new ArrayList<EarthquakeSource>();
+        if (sources.isEmpty()) {
+            sources.add(UsgsSource.getDefault());
+        }
+        return sources;
+    }
+
+    /**
+     * Returns true if sources are not just USGS, whose queries can be paged and polled
+     */
+    private static boolean isFederated(List<EarthquakeSource> sources) {
+        return sources.size() != 1 || sources.get(0) != UsgsSource.getDefault();
+    }
+
+    /**
+     * Starts loading given page in background, result is added to adapter in onPageLoaded
+     */
+    private void loadPage(int page) {
+        Log.i(LOG_TAG, "loadPage: " + page);
+        mLoadingPage = page;
+        String url = buildQueryUrl(page);
+        mPageSubscription = FetchEngine.getInstance().fetch(url, FetchEngine.PRIORITY_PREFETCH,
+                new EarthquakeRequest(getApplicationContext(), url), new FetchEngine.Callback() {
+                    @Override
+                    public void onFetchFinished(String key, List<Earthquake> data) {
+                        mPageSubscription = null;
+                        onPageLoaded(data);
+                    }
+                });
+    }
+
+    /**
+     * Adds loaded page next to the pages adapter already holds, the list keeps visible rows
+     * in place while rows before them are added or removed
+     */
+    private void onPageLoaded(List<Earthquake> data) {
+        int page = mLoadingPage;
+        mLoadingPage = -1;
+        if (data == null) {
+            return;
+        }
+
+        if (page == mAdapter.getLastPage() + 1) {
+            mLastPageReached = data.size() < PAGE_SIZE;
+            if (!data.isEmpty()) {
+                mAdapter.appendPage(data);
+            }
+        } else if (page == mAdapter.getFirstPage() - 1) {
+            // Last page was dropped to make room, so there is again something after it
+            mLastPageReached = false;
+            mAdapter.prependPage(data);
+        }
+        updateSummaryView();
+    }
+
+    /**
+     * Shows first page which arrived for given key, merged list is the only page
+     */
+    private void onFirstPageLoaded(String key, List<Earthquake> data, boolean merged) {
+        Log.i(LOG_TAG, "onFirstPageLoaded");
+        mFirstPageSubscription = null;
+        mLoadingKey = null;
+        // Failed load is tried again on the next start
+        mShownKey = data != null ? key : null;
+        boolean revalidated = mShowingSnapshot;
+        mShowingSnapshot = false;
 
         // Hide progress bar since data is loaded
         mLoadingSpinner.setVisibility(ProgressBar.GONE);
 
-        if (mActiveNetwork != null && mActiveNetwork.isConnected()) {
+        if (isConnected()) {
             // Set empty state text to display "No earthquakes found."
             mEmptyStateTextView.setText(R.string.no_earthquakes);
+        } else {
+            mEmptyStateTextView.setText(R.string.no_internet_connection);
         }
 
-        // Clear adapter of previous data
-        mAdapter.clear();
+        if (revalidated && data == null) {
+            // Snapshot stays on screen when fresh data can't be loaded
+            return;
+        }
+        showFirstPage(data, merged);
+        if (data != null) {
+            mSnapshot.writeAsync(new EarthquakeSnapshot.Content(key, merged, data));
+        }
+    }
+
+    /**
+     * Merges pushed earthquakes into the first page by event id, the same way incremental
+     * sync merges its delta. Only earthquakes matching the query are taken.
+     */
+    private void mergePushed(List<Earthquake> pushed) {
+        // While first page loads it will include them, and once more pages are loaded
+        // the list is not replaced under the user, the next poll updates it
+        if (mLoadingKey != null || mAdapter.getFirstPage() != 0 || mAdapter.getLastPage() != 0) {
+            return;
+        }
 
-        // If valid data in earthquakes, add them to adapter's data set
-        // This will trigger list view to update
-        if (data != null && !data.isEmpty()) {
-            mAdapter.addAll(data);
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(this);
+        double minMagnitude;
+        try {
+            minMagnitude = Double.parseDouble(sharedPref.getString(
+                    getString(R.string.settings_min_magnitude_key),
+                    getString(R.string.settings_min_magnitude_default)));
+        } catch (NumberFormatException e) {
+            minMagnitude = 0;
+        }
+        String orderBy = sharedPref.getString(getString(R.string.settings_order_by_key),
+                getString(R.string.settings_order_by_default));
+
+        List<Earthquake> delta = new ArrayList<>(pushed.size());
+        for (Earthquake earthquake : pushed) {
+            // Deleted ones are removed whatever their magnitude was
+            if (earthquake.isDeleted() || earthquake.getMagnitude() >= minMagnitude) {
+                delta.add(earthquake);
+            }
+        }
+        if (delta.isEmpty()) {
+            return;
+        }
+
+        EarthquakeSync.MergeResult result = EarthquakeSync.merge(mAdapter.getEarthquakes(), delta,
+                orderBy, PAGE_SIZE);
+        showFirstPage(result.getEarthquakes(), false);
+        mSnapshot.writeAsync(new EarthquakeSnapshot.Content(buildFirstPageKey(), false,
+                result.getEarthquakes()));
+        if (!result.isComplete() && mRefreshUrl != null) {
+            // Deleted events left the page short, only a full fetch fills it again
+            RefreshScheduler.getInstance(this).refreshNow(mRefreshUrl);
         }
     }
 
-    @Override
-    public void onLoaderReset(Loader<List<Earthquake>> loader) {
-        Log.i(LOG_TAG, "onLoadReset");
-        // Loader reset, remove data from ui by clearing adapters data set
-        mAdapter.clear();
+    /**
+     * Replaces everything in the adapter with the first page. Earthquakes already shown keep
+     * their rows, only new and changed ones are bound.
+     */
+    private void showFirstPage(List<Earthquake> data, boolean lastPage) {
+        // Pages loaded after the first one are not valid anymore
+        mPendingRefresh = null;
+        if (mPageSubscription != null) {
+            mPageSubscription.cancel();
+            mPageSubscription = null;
+        }
+        mLoadingPage = -1;
+
+        if (data != null) {
+            mAdapter.replaceWithFirstPage(data);
+        } else {
+            mAdapter.clear();
+        }
+        mLastPageReached = lastPage || data == null || data.size() < PAGE_SIZE;
+        updateEmptyView();
+        updateSummaryView();
+    }
+
+    /**
+     * Shows summary of the earthquakes in the list above it, or hides it when there are none
+     */
+    private void updateSummaryView() {
+        EarthquakeStats.Summary summary = mAdapter.getSummary();
+        if (summary == null || summary.getCount() == 0) {
+            mSummaryTextView.setVisibility(View.GONE);
+            return;
+        }
+
+        int today = summary.getDayCount(0);
+        int week = 0;
+        for (int day = 0; day < Math.min(WEEK_DAYS, summary.getDays()); day++) {
+            week += summary.getDayCount(day);
+        }
+        StringBuilder text = new StringBuilder();
+        text.append(getString(R.string.summary_counts, summary.getCount(), today, week));
+        text.append('\n').append(getString(R.string.summary_magnitudes,
+                String.format(Locale.getDefault(), "%.1f", summary.getMaxMagnitude()),
+                String.format(Locale.getDefault(), "%.1f", summary.getMeanMagnitude())));
+
+        // Only magnitudes which occur, the strongest first
+        String separator = "\n";
+        for (int bucket = EarthquakeStats.MAGNITUDE_BUCKETS - 1; bucket >= 0; bucket--) {
+            int count = summary.getMagnitudeCount(bucket);
+            if (count > 0) {
+                String magnitude = bucket == EarthquakeStats.MAGNITUDE_BUCKETS - 1
+                        ? bucket + "+" : String.valueOf(bucket);
+                text.append(separator).append(getString(R.string.summary_magnitude_bucket,
+                        magnitude, count));
+                separator = ", ";
+            }
+        }
+        separator = "\n";
+        for (int region = 0; region < summary.getRegions(); region++) {
+            text.append(separator).append(getString(R.string.summary_region, region + 1,
+                    summary.getRegionCount(region)));
+            separator = ", ";
+        }
+
+        mSummaryTextView.setText(text);
+        mSummaryTextView.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Shows empty state text when there are no rows and nothing is loading
+     */
+    private void updateEmptyView() {
+        boolean empty = mAdapter.getItemCount() == 0
+                && mLoadingSpinner.getVisibility() != View.VISIBLE;
+        mEmptyStateTextView.setVisibility(empty ? View.VISIBLE : View.GONE);
+    }
+
+    private boolean isConnected() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = connectivityManager.getActiveNetworkInfo();
+        return activeNetwork != null && activeNetwork.isConnected();
     }
 
     @Override
@@ -183,6 +655,12 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_metrics).setVisible(Metrics.isEnabled());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
@@ -190,7 +668,30 @@ public class EarthquakeActivity extends AppCompatActivity implements LoaderManag
             Intent settingsIntent = new Intent(this, SettingsActivity.class);
             startActivity(settingsIntent);
             return true;
+        } else if (id == R.id.action_metrics) {
+            showMetrics();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
+
+    /**
+     * Shows collected metrics and state of circuit breakers in a dialog and writes them to
+     * the log
+     */
+    private void showMetrics() {
+        String metrics = Metrics.dump() + CircuitBreaker.dump();
+        Log.i(LOG_TAG, "Metrics:\n" + metrics);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.metrics_menu_item)
+                .setMessage(metrics)
+                .setPositiveButton(android.R.string.ok, null)
+                .setNeutralButton(R.string.metrics_reset, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Metrics.reset();
+                    }
+                })
+                .show();
+    }
 }
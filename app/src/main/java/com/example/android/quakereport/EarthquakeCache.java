@@ -0,0 +1,248 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persistent cache of parsed USGS responses, one file per query url.
+ *
+ * Earthquakes are stored in a compact binary format together with ETag and Last-Modified
+ * headers of the response, so the next request for the same url can be revalidated
+ * with the server instead of downloaded again. Only decoded values are stored, raw
+ * properties of {@link EarthquakeDetails} would make the file larger than the response
+ * itself, so earthquakes read from the cache have no details.
+ */
+public class EarthquakeCache {
+
+    /**
+     * Cached response for one query url
+     */
+    public static class Entry {
+
+        // Members
+        private final String mEtag;
+        private final String mLastModified;
+        private final List<Earthquake> mEarthquakes;
+
+        // Constructors
+        public Entry(String etag, String lastModified, List<Earthquake> earthquakes) {
+            mEtag = etag;
+            mLastModified = lastModified;
+            mEarthquakes = earthquakes;
+        }
+
+        // Getters
+        public String getEtag() {
+            return mEtag;
+        }
+
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        public List<Earthquake> getEarthquakes() {
+            return mEarthquakes;
+        }
+    }
+
+    private static final String LOG_TAG = EarthquakeCache.class.getSimpleName();
+
+    /** File header, "QUAK" in ASCII */
+    private static final int MAGIC = 0x5155414B;
+    private static final int VERSION = 6;
+    private static final String FILE_PREFIX = "quakes-";
+    private static final int MAX_ENTRIES = 16;
+    /** Fewest bytes one earthquake takes in a file, with empty strings */
+    private static final int MIN_EARTHQUAKE_SIZE = 54;
+
+    private static EarthquakeCache sInstance;
+
+    // Members
+    private final File mDirectory;
+
+    // Constructors
+    public EarthquakeCache(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Returns cache shared by the whole app, kept in "earthquakes" in the app's cache
+     * directory. Methods are synchronized on the instance, so everything which writes
+     * the cache directory should use this one.
+     */
+    public static synchronized EarthquakeCache getInstance(File cacheDir) {
+        if (sInstance == null) {
+            sInstance = new EarthquakeCache(new File(cacheDir, "earthquakes"));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns cached response for given url or null if there is no usable one. Damaged
+     * file is a miss too.
+     */
+    public synchronized Entry get(String url) {
+        File file = fileFor(url);
+        long length = file.length();
+        if (length == 0) {
+            return null;
+        }
+
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                return null;
+            }
+            // Different urls can share a file name, only the exact one is a hit
+            if (!url.equals(input.readUTF())) {
+                return null;
+            }
+            String etag = readNullableString(input);
+            String lastModified = readNullableString(input);
+
+            // Sizes are checked before anything is allocated for them
+            int count = input.readInt();
+            if (count < 0 || count > length / MIN_EARTHQUAKE_SIZE) {
+                throw new IOException("Invalid earthquake count " + count);
+            }
+            EarthquakeStore earthquakes = new EarthquakeStore(count);
+            for (int i = 0; i < count; i++) {
+                String id = readNullableString(input);
+                double magnitude = input.readDouble();
+                long milliseconds = input.readLong();
+                long updated = input.readLong();
+                boolean deleted = input.readBoolean();
+                String location = input.readUTF();
+                String earthquakeUrl = input.readUTF();
+                double latitude = input.readDouble();
+                double longitude = input.readDouble();
+                double depth = input.readDouble();
+                earthquakes.add(new Earthquake(id, magnitude, location, milliseconds, earthquakeUrl,
+                        updated, deleted, latitude, longitude, depth));
+            }
+            return new Entry(etag, lastModified, earthquakes);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading cache file " + file, e);
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Stores response for given url, replacing previously cached one
+     */
+    public synchronized void put(String url, Entry entry) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Can't create cache directory " + mDirectory);
+            return;
+        }
+
+        File file = fileFor(url);
+        File tempFile = null;
+        DataOutputStream output = null;
+        try {
+            // Unique name, so writers of the same url never write into one file
+            tempFile = File.createTempFile(file.getName() + "-", ".tmp", mDirectory);
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(url);
+            writeNullableString(output, entry.getEtag());
+            writeNullableString(output, entry.getLastModified());
+
+            List<Earthquake> earthquakes = entry.getEarthquakes();
+            output.writeInt(earthquakes.size());
+            for (Earthquake earthquake : earthquakes) {
+                writeNullableString(output, earthquake.getId());
+                output.writeDouble(earthquake.getMagnitude());
+                output.writeLong(earthquake.getMilliseconds());
+                output.writeLong(earthquake.getUpdated());
+                // Cached deltas keep their deletions, or a revalidated delta would restore them
+                output.writeBoolean(earthquake.isDeleted());
+                output.writeUTF(earthquake.getLocation() != null ? earthquake.getLocation() : "");
+                output.writeUTF(earthquake.getUrl() != null ? earthquake.getUrl() : "");
+                output.writeDouble(earthquake.getLatitude());
+                output.writeDouble(earthquake.getLongitude());
+                output.writeDouble(earthquake.getDepth());
+            }
+            output.close();
+            output = null;
+
+            // Rename only complete files so readers never see a half written entry
+            if (!tempFile.renameTo(file)) {
+                Log.e(LOG_TAG, "Can't rename cache file " + tempFile);
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing cache file " + file, e);
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        } finally {
+            closeQuietly(output);
+        }
+
+        trim();
+    }
+
+    /**
+     * Deletes least recently written entries above MAX_ENTRIES
+     */
+    private void trim() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_ENTRIES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = second.lastModified() - first.lastModified();
+                return difference > 0 ? 1 : difference < 0 ? -1 : 0;
+            }
+        });
+        for (int i = MAX_ENTRIES; i < files.length; i++) {
+            if (files[i].getName().startsWith(FILE_PREFIX)) {
+                files[i].delete();
+            }
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(mDirectory, FILE_PREFIX + Integer.toHexString(url.hashCode()));
+    }
+
+    private static String readNullableString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void writeNullableString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing cache file.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every earthquake fetched from USGS, kept on the device in SQLite.
+ *
+ * Besides events the database remembers which part of USGS data it holds completely, as
+ * covered areas: all events at least this strong since this time, as of the fetch. Query is
+ * answered locally when some covered area guarantees the same result USGS would return, so
+ * changing min magnitude or ordering doesn't need the network.
+ *
+ * Events imported from catalog exports are kept however old they are, fetched ones only for
+ * the default window.
+ */
+public class EarthquakeDatabase {
+
+    /** USGS returns events of the last 30 days when query doesn't give start time */
+    public static final long DEFAULT_WINDOW = TimeUnit.DAYS.toMillis(30);
+
+    private static final String LOG_TAG = EarthquakeDatabase.class.getSimpleName();
+    private static final String DATABASE_NAME = "earthquakes.db";
+    private static final int DATABASE_VERSION = 2;
+    /** Only the newest covered areas are kept, older ones are rarely fresh enough to be used */
+    private static final int MAX_COVERAGE = 32;
+    /** USGS returns at most this many events when query doesn't give limit */
+    private static final int DEFAULT_LIMIT = 20000;
+    /** Query parameters which can be answered locally */
+    private static final Set<String> SUPPORTED_PARAMETERS = new HashSet<>(
+            Arrays.asList("format", "minmag", "limit", "offset", "orderby"));
+
+    private static final String EVENTS = "events";
+    private static final String COVERAGE = "coverage";
+    private static final String EVENT_COLUMNS =
+            "id, magnitude, place, time, url, updated, latitude, longitude, depth";
+
+    private static EarthquakeDatabase sInstance;
+
+    /**
+     * Covered area, all events with at least min magnitude and since min time are stored.
+     * Min time 0 means the whole default window.
+     */
+    private static class Coverage {
+        final double mMinMagnitude;
+        final long mMinTime;
+        final long mFetched;
+
+        Coverage(double minMagnitude, long minTime, long fetched) {
+            mMinMagnitude = minMagnitude;
+            mMinTime = minTime;
+            mFetched = fetched;
+        }
+    }
+
+    /**
+     * Parts of USGS query url which decide its result
+     */
+    private static class Query {
+        double mMinMagnitude = -Double.MAX_VALUE;
+        boolean mOrderByTime = true;
+        int mLimit = DEFAULT_LIMIT;
+        /** Zero based, USGS offsets start at 1 */
+        int mOffset;
+
+        /**
+         * Returns query for url, or null if url has parameters which can't be answered locally
+         */
+        static Query parse(String url) {
+            Uri uri = Uri.parse(url);
+            if (!SUPPORTED_PARAMETERS.containsAll(uri.getQueryParameterNames())) {
+                return null;
+            }
+            Query query = new Query();
+            try {
+                String minMagnitude = uri.getQueryParameter("minmag");
+                if (!TextUtils.isEmpty(minMagnitude)) {
+                    query.mMinMagnitude = Double.parseDouble(minMagnitude);
+                }
+                String limit = uri.getQueryParameter("limit");
+                if (!TextUtils.isEmpty(limit)) {
+                    query.mLimit = Integer.parseInt(limit);
+                }
+                String offset = uri.getQueryParameter("offset");
+                if (!TextUtils.isEmpty(offset)) {
+                    query.mOffset = Math.max(0, Integer.parseInt(offset) - 1);
+                }
+            } catch (NumberFormatException e) {
+                Log.e(LOG_TAG, "Unexpected query: " + url, e);
+                return null;
+            }
+            String orderBy = uri.getQueryParameter("orderby");
+            if (EarthquakeSync.ORDER_BY_MAGNITUDE.equals(orderBy)) {
+                query.mOrderByTime = false;
+            } else if (orderBy != null && !EarthquakeSync.ORDER_BY_TIME.equals(orderBy)) {
+                return null;
+            }
+            return query;
+        }
+    }
+
+    private static class OpenHelper extends SQLiteOpenHelper {
+
+        OpenHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + EVENTS + " ("
+                    + "id TEXT PRIMARY KEY NOT NULL, "
+                    + "magnitude REAL NOT NULL, "
+                    + "place TEXT, "
+                    + "time INTEGER NOT NULL, "
+                    + "url TEXT, "
+                    + "updated INTEGER NOT NULL, "
+                    + "latitude REAL, "
+                    + "longitude REAL, "
+                    + "depth REAL, "
+                    + "imported INTEGER NOT NULL DEFAULT 0)");
+            // Both orderings are read straight from an index, magnitude ties are ordered by time
+            db.execSQL("CREATE INDEX events_time ON " + EVENTS + " (time)");
+            db.execSQL("CREATE INDEX events_magnitude ON " + EVENTS + " (magnitude, time)");
+            db.execSQL("CREATE TABLE " + COVERAGE + " ("
+                    + "min_magnitude REAL NOT NULL, "
+                    + "min_time INTEGER NOT NULL, "
+                    + "fetched INTEGER NOT NULL)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // Everything can be fetched again
+            db.execSQL("DROP TABLE IF EXISTS " + EVENTS);
+            db.execSQL("DROP TABLE IF EXISTS " + COVERAGE);
+            onCreate(db);
+        }
+    }
+
+    // Members
+    private final OpenHelper mOpenHelper;
+
+    private EarthquakeDatabase(Context context) {
+        mOpenHelper = new OpenHelper(context);
+    }
+
+    public static synchronized EarthquakeDatabase getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EarthquakeDatabase(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns earthquakes USGS would return for url, if stored events fetched at most maxAge
+     * milliseconds ago are enough to tell. Returns null when the network is needed.
+     */
+    public List<Earthquake> query(String url, long maxAge) {
+        Query query = Query.parse(url);
+        if (query == null) {
+            return null;
+        }
+        long start = Metrics.start();
+        long now = System.currentTimeMillis();
+        try {
+            SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+            List<Coverage> coverages = readCoverages(db, now - maxAge);
+            if (coverages.isEmpty()) {
+                return null;
+            }
+            List<Earthquake> earthquakes = select(db, query, now - DEFAULT_WINDOW);
+            for (Coverage coverage : coverages) {
+                if (isCovered(query, earthquakes, coverage)) {
+                    Metrics.recordTime(Metrics.Stage.LOCAL_QUERY, start);
+                    Log.i(LOG_TAG, "Answered locally: " + url);
+                    return earthquakes;
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Error querying stored earthquakes", e);
+        }
+        return null;
+    }
+
+    /**
+     * Returns stored earthquakes matching url however old or incomplete they are, i.e. when
+     * USGS can't be reached. Returns null if nothing matches.
+     */
+    public List<Earthquake> queryStored(String url) {
+        Query query = Query.parse(url);
+        if (query == null) {
+            return null;
+        }
+        try {
+            List<Earthquake> earthquakes = select(mOpenHelper.getReadableDatabase(), query,
+                    System.currentTimeMillis() - DEFAULT_WINDOW);
+            return earthquakes.isEmpty() ? null : earthquakes;
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Error querying stored earthquakes", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores earthquakes fetched just now for url, deleted ones are removed. Area they cover
+     * is remembered if url can be answered locally, null url stores only the events.
+     */
+    public void store(String url, List<Earthquake> earthquakes) {
+        long now = System.currentTimeMillis();
+        try {
+            SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                storeEvents(db, earthquakes, false);
+                Query query = url != null ? Query.parse(url) : null;
+                if (query != null) {
+                    List<Earthquake> events = new ArrayList<>(earthquakes.size());
+                    for (Earthquake earthquake : earthquakes) {
+                        if (!earthquake.isDeleted()) {
+                            events.add(earthquake);
+                        }
+                    }
+                    removeMissing(db, query, events, now);
+                    Coverage coverage = getCoverage(db, query, events, now);
+                    if (coverage != null) {
+                        db.execSQL("INSERT INTO " + COVERAGE
+                                + " (min_magnitude, min_time, fetched) VALUES (?, ?, ?)",
+                                new Object[]{coverage.mMinMagnitude, coverage.mMinTime,
+                                        coverage.mFetched});
+                    }
+                }
+                prune(db, now);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException e) {
+            Log.e(LOG_TAG, "Error storing earthquakes", e);
+        }
+    }
+
+    /**
+     * Stores one batch of earthquakes read from a catalog export in a single transaction.
+     * Stored events which were updated later than the export keep their newer version.
+     */
+    public void importBatch(List<Earthquake> earthquakes) throws SQLiteException {
+        SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            storeEvents(db, earthquakes, true);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Stores events, imported ones are marked so they outlive the default window. Fetched
+     * version of an imported event stays marked. Event never replaces its newer version,
+     * i.e. when a region fell back to its old response.
+     */
+    private static void storeEvents(SQLiteDatabase db, List<Earthquake> earthquakes,
+                                    boolean imported) {
+        SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + EVENTS
+                + " (" + EVENT_COLUMNS + ", imported) SELECT ?, ?, ?, ?, ?, ?, ?, ?, ?, "
+                + (imported ? "1" : "COALESCE((SELECT imported FROM " + EVENTS
+                + " WHERE id = ?1), 0)")
+                + " WHERE NOT EXISTS (SELECT 1 FROM " + EVENTS
+                + " WHERE id = ?1 AND updated > ?6)");
+        SQLiteStatement delete = db.compileStatement("DELETE FROM " + EVENTS + " WHERE id = ?");
+        SQLiteStatement mark = imported ? db.compileStatement("UPDATE " + EVENTS
+                + " SET imported = 1 WHERE id = ? AND updated >= ?") : null;
+        try {
+            for (Earthquake earthquake : earthquakes) {
+                if (earthquake.getId() == null) {
+                    continue;
+                }
+                if (earthquake.isDeleted()) {
+                    delete.bindString(1, earthquake.getId());
+                    delete.executeUpdateDelete();
+                    continue;
+                }
+                if (mark != null) {
+                    mark.bindString(1, earthquake.getId());
+                    mark.bindLong(2, earthquake.getUpdated());
+                    if (mark.executeUpdateDelete() > 0) {
+                        // Stored version is as new as the exported one
+                        continue;
+                    }
+                }
+                insert.clearBindings();
+                insert.bindString(1, earthquake.getId());
+                insert.bindDouble(2, earthquake.getMagnitude());
+                bindString(insert, 3, earthquake.getLocation());
+                insert.bindLong(4, earthquake.getMilliseconds());
+                bindString(insert, 5, earthquake.getUrl());
+                insert.bindLong(6, earthquake.getUpdated());
+                bindDouble(insert, 7, earthquake.getLatitude());
+                bindDouble(insert, 8, earthquake.getLongitude());
+                bindDouble(insert, 9, earthquake.getDepth());
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+            delete.close();
+            if (mark != null) {
+                mark.close();
+            }
+        }
+    }
+
+    /**
+     * Removes stored events which should be in the fetched result of query but aren't, they
+     * were deleted or weakened since they were stored. Events tied with the first or the last
+     * one are kept, USGS may have left them out only because of the limit.
+     */
+    private static void removeMissing(SQLiteDatabase db, Query query, List<Earthquake> events,
+                                      long now) {
+        boolean whole = events.size() < query.mLimit;
+        if (events.isEmpty() && (!whole || query.mOffset > 0)) {
+            return;
+        }
+        String column = query.mOrderByTime ? "time" : "magnitude";
+        StringBuilder selection = new StringBuilder("magnitude >= ? AND time >= ?");
+        List<String> arguments = new ArrayList<>();
+        arguments.add(String.valueOf(query.mMinMagnitude));
+        arguments.add(String.valueOf(now - DEFAULT_WINDOW));
+        if (!whole) {
+            selection.append(" AND ").append(column).append(" > ?");
+            arguments.add(getOrderValue(query, events.get(events.size() - 1)));
+        }
+        if (query.mOffset > 0) {
+            selection.append(" AND ").append(column).append(" < ?");
+            arguments.add(getOrderValue(query, events.get(0)));
+        }
+
+        Set<String> fetchedIds = new HashSet<>();
+        for (Earthquake earthquake : events) {
+            fetchedIds.add(earthquake.getId());
+        }
+        List<String> missingIds = new ArrayList<>();
+        Cursor cursor = db.rawQuery("SELECT id FROM " + EVENTS + " WHERE " + selection,
+                arguments.toArray(new String[arguments.size()]));
+        try {
+            while (cursor.moveToNext()) {
+                String id = cursor.getString(0);
+                if (!fetchedIds.contains(id)) {
+                    missingIds.add(id);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        for (String id : missingIds) {
+            db.delete(EVENTS, "id = ?", new String[]{id});
+        }
+        if (!missingIds.isEmpty()) {
+            Log.i(LOG_TAG, "Removed " + missingIds.size() + " events missing from USGS");
+        }
+    }
+
+    private static String getOrderValue(Query query, Earthquake earthquake) {
+        return query.mOrderByTime ? String.valueOf(earthquake.getMilliseconds())
+                : String.valueOf(earthquake.getMagnitude());
+    }
+
+    /**
+     * Returns area covered by events fetched at given time for query, or null if they don't
+     * join any area known before. Page other than the first one covers something only when
+     * it continues area covered by previous pages.
+     */
+    private static Coverage getCoverage(SQLiteDatabase db, Query query,
+                                        List<Earthquake> events, long now) {
+        boolean whole = events.size() < query.mLimit;
+        if (events.isEmpty() && !whole) {
+            return null;
+        }
+
+        // Area of this result alone, as if it were the first page
+        double minMagnitude = query.mMinMagnitude;
+        long minTime = 0;
+        if (!whole) {
+            Earthquake last = events.get(events.size() - 1);
+            if (query.mOrderByTime) {
+                minTime = last.getMilliseconds();
+            } else {
+                minMagnitude = Math.max(minMagnitude, last.getMagnitude());
+            }
+        }
+        if (query.mOffset == 0) {
+            return new Coverage(minMagnitude, minTime, now);
+        }
+
+        // Later page extends area which reaches its first event, as of the older fetch
+        Earthquake first = events.isEmpty() ? null : events.get(0);
+        for (Coverage previous : readCoverages(db, 0)) {
+            boolean joins;
+            if (query.mOrderByTime) {
+                joins = previous.mMinMagnitude <= query.mMinMagnitude
+                        && (first == null || previous.mMinTime <= first.getMilliseconds());
+            } else {
+                joins = previous.mMinTime == 0
+                        && (first == null ? previous.mMinMagnitude <= query.mMinMagnitude
+                        : previous.mMinMagnitude <= first.getMagnitude());
+            }
+            if (joins) {
+                return new Coverage(minMagnitude, minTime, previous.mFetched);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if stored result of query is complete according to coverage. Events tied
+     * with the last one may be picked differently than USGS would, order is still right.
+     */
+    private static boolean isCovered(Query query, List<Earthquake> earthquakes,
+                                     Coverage coverage) {
+        boolean whole = earthquakes.size() < query.mLimit;
+        Earthquake last = whole ? null : earthquakes.get(earthquakes.size() - 1);
+        if (query.mOrderByTime) {
+            return coverage.mMinMagnitude <= query.mMinMagnitude
+                    && (whole ? coverage.mMinTime == 0
+                    : last.getMilliseconds() >= coverage.mMinTime);
+        } else {
+            return coverage.mMinTime == 0
+                    && (whole ? coverage.mMinMagnitude <= query.mMinMagnitude
+                    : last.getMagnitude() >= coverage.mMinMagnitude);
+        }
+    }
+
+    /**
+     * Returns stored events matching query, at most its limit of them
+     */
+    private static List<Earthquake> select(SQLiteDatabase db, Query query, long windowStart) {
+        String orderBy = query.mOrderByTime ? "time DESC" : "magnitude DESC, time DESC";
+        Cursor cursor = db.rawQuery("SELECT " + EVENT_COLUMNS + " FROM " + EVENTS
+                + " WHERE magnitude >= ? AND time >= ? ORDER BY " + orderBy
+                + " LIMIT " + query.mLimit + " OFFSET " + query.mOffset,
+                new String[]{String.valueOf(query.mMinMagnitude), String.valueOf(windowStart)});
+        try {
+            List<Earthquake> earthquakes = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                earthquakes.add(new Earthquake(cursor.getString(0), cursor.getDouble(1),
+                        cursor.getString(2), cursor.getLong(3), cursor.getString(4),
+                        cursor.getLong(5), false, getDouble(cursor, 6), getDouble(cursor, 7),
+                        getDouble(cursor, 8)));
+            }
+            return earthquakes;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns covered areas fetched after given time, the newest first
+     */
+    private static List<Coverage> readCoverages(SQLiteDatabase db, long fetchedAfter) {
+        Cursor cursor = db.rawQuery("SELECT min_magnitude, min_time, fetched FROM " + COVERAGE
+                + " WHERE fetched >= ? ORDER BY fetched DESC",
+                new String[]{String.valueOf(fetchedAfter)});
+        try {
+            List<Coverage> coverages = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                coverages.add(new Coverage(cursor.getDouble(0), cursor.getLong(1),
+                        cursor.getLong(2)));
+            }
+            return coverages;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Removes fetched events which fell out of the default window and the oldest covered areas
+     */
+    private static void prune(SQLiteDatabase db, long now) {
+        db.execSQL("DELETE FROM " + EVENTS + " WHERE time < ? AND imported = 0",
+                new Object[]{now - DEFAULT_WINDOW});
+        db.execSQL("DELETE FROM " + COVERAGE + " WHERE rowid NOT IN (SELECT rowid FROM "
+                + COVERAGE + " ORDER BY fetched DESC LIMIT " + MAX_COVERAGE + ")");
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    private static void bindDouble(SQLiteStatement statement, int index, double value) {
+        if (Double.isNaN(value)) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+
+    private static double getDouble(Cursor cursor, int index) {
+        return cursor.isNull(index) ? Double.NaN : cursor.getDouble(index);
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges earthquakes of several sources, keeping one earthquake for every physical event.
+ *
+ * Networks report the same event with slightly different time, epicenter and magnitude,
+ * so two earthquakes are the same event when all three are within tolerance. Candidates
+ * are looked up in a hash index of time buckets as wide as the time tolerance, only the
+ * bucket of the earthquake and its two neighbours are searched instead of every pair.
+ * Lists come in order of preference, from two matching earthquakes the one of the earlier
+ * list is kept.
+ */
+public class EarthquakeDeduplicator {
+
+    public static final long DEFAULT_TIME_TOLERANCE = TimeUnit.SECONDS.toMillis(10);
+    public static final double DEFAULT_DISTANCE_TOLERANCE = 100; /* km */
+    public static final double DEFAULT_MAGNITUDE_TOLERANCE = 0.6;
+
+    /** One degree of latitude in km, for a cheap check before the exact distance */
+    private static final double KM_PER_DEGREE = 111.19;
+    private static final int EMPTY = -1;
+
+    // Members
+    private final long mTimeTolerance;
+    private final double mDistanceTolerance;
+    private final double mMagnitudeTolerance;
+
+    // Constructors
+    public EarthquakeDeduplicator() {
+        this(DEFAULT_TIME_TOLERANCE, DEFAULT_DISTANCE_TOLERANCE, DEFAULT_MAGNITUDE_TOLERANCE);
+    }
+
+    /**
+     * @param timeTolerance Largest difference of origin times in milliseconds
+     * @param distanceTolerance Largest distance of epicenters in km
+     * @param magnitudeTolerance Largest difference of magnitudes, different networks often
+     *                           use different magnitude types
+     */
+    public EarthquakeDeduplicator(long timeTolerance, double distanceTolerance,
+                                  double magnitudeTolerance) {
+        mTimeTolerance = timeTolerance;
+        mDistanceTolerance = distanceTolerance;
+        mMagnitudeTolerance = magnitudeTolerance;
+    }
+
+    /**
+     * Returns earthquakes of all lists without duplicates, in the order of lists. Earthquakes
+     * with the same event id are duplicates too, earthquakes without position are never
+     * matched by tolerance.
+     */
+    public List<Earthquake> merge(List<? extends List<Earthquake>> lists) {
+        int total = 0;
+        for (List<Earthquake> list : lists) {
+            total += list.size();
+        }
+
+        // Columns of kept earthquakes, kept earthquake absorbs at most one from every other list
+        List<Earthquake> kept = new ArrayList<>(total);
+        long[] times = new long[total];
+        double[] latitudes = new double[total];
+        double[] longitudes = new double[total];
+        double[] magnitudes = new double[total];
+        long[] sources = new long[total];
+        int[] next = new int[total];
+
+        // Open addressing table from time bucket to the first kept earthquake in it
+        int capacity = Integer.highestOneBit(Math.max(1, total) * 2 - 1) << 1;
+        int shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        long[] buckets = new long[capacity];
+        int[] heads = new int[capacity];
+        Arrays.fill(heads, EMPTY);
+
+        Set<String> ids = new HashSet<>(total * 2);
+        for (int source = 0; source < lists.size(); source++) {
+            long sourceBit = 1L << Math.min(source, 63);
+            for (Earthquake earthquake : lists.get(source)) {
+                String id = earthquake.getId();
+                if (id != null && !ids.add(id)) {
+                    continue;
+                }
+
+                long time = earthquake.getMilliseconds();
+                double latitude = earthquake.getLatitude();
+                double longitude = earthquake.getLongitude();
+                double magnitude = earthquake.getMagnitude();
+                boolean located = earthquake.hasCoordinates();
+                long bucket = getBucket(time);
+
+                if (located) {
+                    int match = EMPTY;
+                    long matchDifference = Long.MAX_VALUE;
+                    for (long neighbour = bucket - 1; neighbour <= bucket + 1; neighbour++) {
+                        int slot = find(buckets, heads, neighbour, shift);
+                        for (int k = heads[slot]; k != EMPTY; k = next[k]) {
+                            long difference = Math.abs(times[k] - time);
+                            if ((sources[k] & sourceBit) == 0 && difference <= mTimeTolerance
+                                    && difference < matchDifference
+                                    && !(Math.abs(magnitudes[k] - magnitude) > mMagnitudeTolerance)
+                                    && Math.abs(latitudes[k] - latitude) * KM_PER_DEGREE
+                                    <= mDistanceTolerance
+                                    && SpatialIndex.distanceKm(latitudes[k], longitudes[k],
+                                    latitude, longitude) <= mDistanceTolerance) {
+                                match = k;
+                                matchDifference = difference;
+                            }
+                        }
+                    }
+                    if (match != EMPTY) {
+                        sources[match] |= sourceBit;
+                        continue;
+                    }
+                }
+
+                int index = kept.size();
+                kept.add(earthquake);
+                times[index] = time;
+                latitudes[index] = latitude;
+                longitudes[index] = longitude;
+                magnitudes[index] = magnitude;
+                sources[index] = sourceBit;
+                next[index] = EMPTY;
+                if (located) {
+                    int slot = find(buckets, heads, bucket, shift);
+                    buckets[slot] = bucket;
+                    next[index] = heads[slot];
+                    heads[slot] = index;
+                }
+            }
+        }
+        return kept;
+    }
+
+    private long getBucket(long time) {
+        long bucket = time / mTimeTolerance;
+        return time < 0 && time % mTimeTolerance != 0 ? bucket - 1 : bucket;
+    }
+
+    /**
+     * Returns slot of the bucket, or the empty slot where it belongs
+     */
+    private static int find(long[] buckets, int[] heads, long bucket, int shift) {
+        int mask = heads.length - 1;
+        int slot = (int) ((bucket * 0x9E3779B97F4A7C15L) >>> shift);
+        while (heads[slot] != EMPTY && buckets[slot] != bucket) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
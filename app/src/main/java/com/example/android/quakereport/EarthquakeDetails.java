@@ -0,0 +1,182 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Every GeoJSON property USGS sent for one earthquake, i.e. tsunami flag, PAGER alert
+ * and number of felt reports.
+ *
+ * Parser decodes only the properties the list shows and keeps raw bytes of the rest in
+ * a {@link FeatureBuffer}. They are decoded all at once when the first of them is asked
+ * for, so earthquakes which are never opened don't pay for it.
+ */
+public class EarthquakeDetails {
+
+    private static final String LOG_TAG = EarthquakeDetails.class.getSimpleName();
+
+    // Members
+    private final byte[] mBytes;
+    private final int mOffset;
+    private final int mLength;
+    /** Names and values of properties, null until they are decoded */
+    private String[] mNames;
+    private Object[] mValues;
+
+    // Constructors
+    /**
+     * @param bytes Chunk of {@link FeatureBuffer} which holds properties object of the feature
+     */
+    EarthquakeDetails(byte[] bytes, int offset, int length) {
+        mBytes = bytes;
+        mOffset = offset;
+        mLength = length;
+    }
+
+    // Getters
+    /**
+     * Returns true if USGS flagged the event for a possible tsunami
+     */
+    public boolean isTsunami() {
+        double tsunami = getDouble("tsunami");
+        return !Double.isNaN(tsunami) && tsunami != 0;
+    }
+
+    /**
+     * Returns PAGER alert level "green", "yellow", "orange" or "red", or null if there is none
+     */
+    public String getAlert() {
+        return getString("alert");
+    }
+
+    /**
+     * Returns number of "Did you feel it?" reports, or -1 if there are none
+     */
+    public int getFelt() {
+        double felt = getDouble("felt");
+        return Double.isNaN(felt) ? -1 : (int) felt;
+    }
+
+    /**
+     * Returns maximum reported intensity, or NaN if it is not known
+     */
+    public double getCdi() {
+        return getDouble("cdi");
+    }
+
+    /**
+     * Returns maximum estimated instrumental intensity, or NaN if it is not known
+     */
+    public double getMmi() {
+        return getDouble("mmi");
+    }
+
+    /**
+     * Returns significance of the event from 0 up, or -1 if it is not known
+     */
+    public int getSignificance() {
+        double significance = getDouble("sig");
+        return Double.isNaN(significance) ? -1 : (int) significance;
+    }
+
+    /**
+     * Returns review status, i.e. "automatic" or "reviewed"
+     */
+    public String getStatus() {
+        return getString("status");
+    }
+
+    /**
+     * Returns type of the event, i.e. "earthquake" or "quarry blast"
+     */
+    public String getType() {
+        return getString("type");
+    }
+
+    /**
+     * Returns method used to calculate the magnitude, i.e. "mb" or "ml"
+     */
+    public String getMagnitudeType() {
+        return getString("magType");
+    }
+
+    /**
+     * Returns id of the network which is the preferred source of the event
+     */
+    public String getNetwork() {
+        return getString("net");
+    }
+
+    public String getTitle() {
+        return getString("title");
+    }
+
+    /**
+     * Returns url of GeoJSON detail feed of the event
+     */
+    public String getDetailUrl() {
+        return getString("detail");
+    }
+
+    /**
+     * Returns names of all properties in the order USGS sent them
+     */
+    public List<String> getNames() {
+        decode();
+        return Collections.unmodifiableList(Arrays.asList(mNames));
+    }
+
+    /**
+     * Returns property with given name if it is a string, otherwise null
+     */
+    public String getString(String name) {
+        Object value = get(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Returns property with given name if it is a number, otherwise NaN
+     */
+    public double getDouble(String name) {
+        Object value = get(name);
+        return value instanceof Double ? (Double) value : Double.NaN;
+    }
+
+    /**
+     * Returns property with given name as String, Double or Boolean, or null if it is missing,
+     * null or an object or array
+     */
+    public Object get(String name) {
+        decode();
+        for (int i = 0; i < mNames.length; i++) {
+            if (mNames[i].equals(name)) {
+                return mValues[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decodes all properties the first time any of them is asked for
+     */
+    private synchronized void decode() {
+        if (mNames != null) {
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
+        try {
+            new EarthquakeStreamParser(mBytes, mOffset, mLength).readPropertyValues(names, values);
+        } catch (IOException e) {
+            // Bytes were parsed once already, this would be a bug
+            Log.e(LOG_TAG, "Problem decoding earthquake properties", e);
+        }
+        mValues = values.toArray();
+        mNames = names.toArray(new String[names.size()]);
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.android.quakereport;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keyed diff of earthquake lists by USGS event id.
+ *
+ * Turns the stored list into a fresh one with few insert, remove and change operations and
+ * reports each of them, i.e. to an adapter so only rows which really changed are bound again.
+ * Earthquakes which keep their relative order stay in place, the longest run of them is
+ * found. Everything else is removed and inserted again at its new position.
+ */
+public final class EarthquakeDiff {
+
+    /**
+     * Receives operations in the order they are done, positions are valid at that moment
+     */
+    public interface Callback {
+        void onInserted(int position, int count);
+
+        void onRemoved(int position, int count);
+
+        void onChanged(int position, int count);
+    }
+
+    private static final int NONE = -1;
+    private static final int INSERT = 0;
+    private static final int CHANGE = 1;
+
+    private EarthquakeDiff() {
+    }
+
+    /**
+     * Makes store hold the same earthquakes as fresh, in the same order, reporting every
+     * operation to callback. Returns number of rows which were inserted, removed or changed.
+     */
+    public static int apply(EarthquakeStore store, List<Earthquake> fresh, Callback callback) {
+        int oldCount = store.size();
+        int newCount = fresh.size();
+
+        // Old position of every fresh earthquake, each old row is matched at most once.
+        // Url is the key of the few earthquakes without an id.
+        Map<String, Integer> oldPositions = new HashMap<>(oldCount * 2);
+        for (int i = 0; i < oldCount; i++) {
+            String id = store.getId(i);
+            String key = id != null ? id : store.getUrl(i);
+            if (key != null && !oldPositions.containsKey(key)) {
+                oldPositions.put(key, i);
+            }
+        }
+        int[] matches = new int[newCount];
+        for (int i = 0; i < newCount; i++) {
+            Earthquake earthquake = fresh.get(i);
+            String key = earthquake.getId() != null ? earthquake.getId() : earthquake.getUrl();
+            Integer oldPosition = key != null ? oldPositions.remove(key) : null;
+            matches[i] = oldPosition != null ? oldPosition : -1;
+        }
+        boolean[] kept = findLongestIncreasing(matches, oldCount);
+
+        int touched = 0;
+
+        // Remove from the end, so positions of rows before are still valid
+        int end = oldCount;
+        while (end > 0) {
+            if (kept[end - 1]) {
+                end--;
+                continue;
+            }
+            int start = end - 1;
+            while (start > 0 && !kept[start - 1]) {
+                start--;
+            }
+            store.subList(start, end).clear();
+            callback.onRemoved(start, end - start);
+            touched += end - start;
+            end = start;
+        }
+
+        // Rows left are in fresh order, everything before position i already matches fresh
+        int runType = NONE;
+        int runStart = 0;
+        for (int i = 0; i < newCount; i++) {
+            Earthquake earthquake = fresh.get(i);
+            int type;
+            if (matches[i] != -1 && kept[matches[i]]) {
+                if (isSame(store, i, earthquake)) {
+                    type = NONE;
+                    // Event didn't change, take texts and properties the row doesn't have yet
+                    if (store.getRow(i) == null) {
+                        store.setRow(i, earthquake.getRow());
+                    }
+                    if (store.getDetails(i) == null) {
+                        store.setDetails(i, earthquake.getDetails());
+                    }
+                } else {
+                    store.set(i, earthquake);
+                    type = CHANGE;
+                }
+            } else {
+                store.add(i, earthquake);
+                type = INSERT;
+            }
+            if (type != runType) {
+                report(callback, runType, runStart, i - runStart);
+                runType = type;
+                runStart = i;
+            }
+            if (type != NONE) {
+                touched++;
+            }
+        }
+        report(callback, runType, runStart, newCount - runStart);
+        return touched;
+    }
+
+    private static void report(Callback callback, int type, int position, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (type == INSERT) {
+            callback.onInserted(position, count);
+        } else if (type == CHANGE) {
+            callback.onChanged(position, count);
+        }
+    }
+
+    /**
+     * Returns true if stored row shows the same version of the earthquake
+     */
+    private static boolean isSame(EarthquakeStore store, int position, Earthquake earthquake) {
+        return store.getUpdated(position) == earthquake.getUpdated()
+                && store.getMagnitude(position) == earthquake.getMagnitude()
+                && store.getMilliseconds(position) == earthquake.getMilliseconds();
+    }
+
+    /**
+     * Finds the longest increasing subsequence of matched old positions, which is the
+     * largest set of rows that can stay where they are. Returns flags by old position.
+     */
+    private static boolean[] findLongestIncreasing(int[] matches, int oldCount) {
+        // tails[k] is index into matches of the smallest tail of increasing run of length k+1
+        int[] tails = new int[matches.length];
+        int[] previous = new int[matches.length];
+        int length = 0;
+        for (int i = 0; i < matches.length; i++) {
+            int value = matches[i];
+            if (value == -1) {
+                continue;
+            }
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (matches[tails[middle]] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] kept = new boolean[oldCount];
+        int index = length > 0 ? tails[length - 1] : -1;
+        while (index != -1) {
+            kept[matches[index]] = true;
+            index = previous[index];
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,494 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Earthquakes stored in a compact binary file, which is memory mapped for reading.
+ *
+ * Every field is written as one fixed width column, so any earthquake is read in place
+ * without reading the ones before it and opening a file doesn't depend on its size.
+ * Locations, url prefixes and ids are stored once each in a string pool, columns hold
+ * their indexes. Index of positions sorted by time follows the header, so a time range
+ * is found with a binary search. Raw properties of {@link EarthquakeDetails} are not
+ * stored, the file is for exchanging and keeping whole result sets.
+ *
+ * Layout, big endian, every section starts at a multiple of 8 bytes:
+ * <pre>
+ * header       magic, version, count, string count, pool size, reserved (6 ints)
+ * time index   count ints, positions from the oldest earthquake to the newest
+ * columns      milliseconds, updated (longs), magnitude, latitude, longitude, depth
+ *              (doubles), id, location, url prefix, url ending (string indexes)
+ * strings      string count + 1 ints, offsets of strings in the pool
+ * pool         UTF-8 bytes of all strings
+ * </pre>
+ *
+ * It can be used as a read only {@link List}, get() creates a new Earthquake from the
+ * columns. Column getters read only what they return. Safe to read from any thread.
+ */
+public class EarthquakeFile extends AbstractList<Earthquake> implements RandomAccess {
+
+    private static final String LOG_TAG = EarthquakeFile.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** File header, "QKBN" in ASCII */
+    private static final int MAGIC = 0x514B424E;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** String index of a missing value */
+    private static final int NO_VALUE = -1;
+    /** String index of url ending which is the event id */
+    private static final int SAME_AS_ID = -2;
+
+    // Members
+    private final ByteBuffer mBuffer;
+    private final int mSize;
+    private final int mStringCount;
+    // Offsets of sections in the file
+    private final int mTimeIndex;
+    private final int mMilliseconds;
+    private final int mUpdated;
+    private final int mMagnitudes;
+    private final int mLatitudes;
+    private final int mLongitudes;
+    private final int mDepths;
+    private final int mIds;
+    private final int mLocations;
+    private final int mUrlPrefixes;
+    private final int mUrlEndings;
+    private final int mStringOffsets;
+    private final int mPool;
+    /** Strings decoded so far, each is decoded once */
+    private final String[] mStrings;
+
+    // Constructors
+    private EarthquakeFile(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an earthquake file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unknown earthquake file version " + buffer.getInt(4));
+        }
+        mSize = buffer.getInt(8);
+        mStringCount = buffer.getInt(12);
+        int poolSize = buffer.getInt(16);
+        if (mSize < 0 || mStringCount < 0 || poolSize < 0) {
+            throw new IOException("Corrupted earthquake file header");
+        }
+
+        long[] sections = getSections(mSize, mStringCount, poolSize);
+        if (sections[sections.length - 1] > buffer.capacity()) {
+            throw new IOException("Truncated earthquake file");
+        }
+        mTimeIndex = (int) sections[0];
+        mMilliseconds = (int) sections[1];
+        mUpdated = (int) sections[2];
+        mMagnitudes = (int) sections[3];
+        mLatitudes = (int) sections[4];
+        mLongitudes = (int) sections[5];
+        mDepths = (int) sections[6];
+        mIds = (int) sections[7];
+        mLocations = (int) sections[8];
+        mUrlPrefixes = (int) sections[9];
+        mUrlEndings = (int) sections[10];
+        mStringOffsets = (int) sections[11];
+        mPool = (int) sections[12];
+
+        // Checked once, so reading a string never goes outside of the pool
+        int previous = 0;
+        for (int i = 0; i <= mStringCount; i++) {
+            int offset = buffer.getInt(mStringOffsets + i * 4);
+            if (offset < previous || offset > poolSize) {
+                throw new IOException("Corrupted earthquake file string table");
+            }
+            previous = offset;
+        }
+        mStrings = new String[mStringCount];
+    }
+
+    /**
+     * Maps file for reading, only the header and string table are read now
+     */
+    public static EarthquakeFile open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Earthquake file too large " + file);
+            }
+            // Mapping stays valid after the file is closed
+            return new EarthquakeFile(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()));
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Returns true if file starts with the header of an earthquake file
+     */
+    public static boolean isEarthquakeFile(File file) {
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(file));
+            return input.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing earthquake file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes earthquakes to file, replacing it only once the whole file is written
+     */
+    public static void write(File file, List<Earthquake> earthquakes) throws IOException {
+        int size = earthquakes.size();
+        final long[] milliseconds = new long[size];
+        long[] updated = new long[size];
+        double[] magnitudes = new double[size];
+        double[] latitudes = new double[size];
+        double[] longitudes = new double[size];
+        double[] depths = new double[size];
+        int[] ids = new int[size];
+        int[] locations = new int[size];
+        int[] urlPrefixes = new int[size];
+        int[] urlEndings = new int[size];
+        StringPool strings = new StringPool();
+
+        for (int i = 0; i < size; i++) {
+            Earthquake earthquake = earthquakes.get(i);
+            milliseconds[i] = earthquake.getMilliseconds();
+            updated[i] = earthquake.getUpdated();
+            magnitudes[i] = earthquake.getMagnitude();
+            latitudes[i] = earthquake.getLatitude();
+            longitudes[i] = earthquake.getLongitude();
+            depths[i] = earthquake.getDepth();
+            String id = earthquake.getId();
+            ids[i] = strings.intern(id);
+            locations[i] = strings.intern(earthquake.getLocation());
+
+            String url = earthquake.getUrl();
+            if (url == null) {
+                urlPrefixes[i] = NO_VALUE;
+                urlEndings[i] = NO_VALUE;
+                continue;
+            }
+            // Split url after the last slash, everything before it is shared between events
+            int split = url.lastIndexOf('/') + 1;
+            urlPrefixes[i] = strings.intern(url.substring(0, split));
+            if (id != null && url.length() - split == id.length() && url.endsWith(id)) {
+                urlEndings[i] = SAME_AS_ID;
+            } else {
+                urlEndings[i] = strings.intern(url.substring(split));
+            }
+        }
+
+        Integer[] timeIndex = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            timeIndex[i] = i;
+        }
+        Arrays.sort(timeIndex, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer first, Integer second) {
+                long difference = milliseconds[first] - milliseconds[second];
+                return difference < 0 ? -1 : difference > 0 ? 1 : first.compareTo(second);
+            }
+        });
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Can't create directory " + directory);
+        }
+        // Unique name, so writers of the same file never write into one temporary file
+        File tempFile = File.createTempFile(file.getName() + "-", ".tmp", directory);
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile), BUFFER_SIZE));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(size);
+            output.writeInt(strings.size());
+            output.writeInt(strings.getPoolSize());
+            output.writeInt(0);
+
+            for (Integer position : timeIndex) {
+                output.writeInt(position);
+            }
+            pad(output, size * 4);
+            for (long value : milliseconds) {
+                output.writeLong(value);
+            }
+            for (long value : updated) {
+                output.writeLong(value);
+            }
+            writeColumn(output, magnitudes);
+            writeColumn(output, latitudes);
+            writeColumn(output, longitudes);
+            writeColumn(output, depths);
+            writeColumn(output, ids);
+            writeColumn(output, locations);
+            writeColumn(output, urlPrefixes);
+            writeColumn(output, urlEndings);
+            // Four int columns always end on a multiple of 8 bytes
+            strings.writeTo(output);
+            output.close();
+            output = null;
+
+            // Rename only complete files, so readers never map a half written one
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Can't rename earthquake file " + tempFile);
+            }
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing earthquake file", e);
+                }
+            }
+            tempFile.delete();
+        }
+    }
+
+    // Column getters
+    public long getMilliseconds(int position) {
+        checkIndex(position);
+        return mBuffer.getLong(mMilliseconds + position * 8);
+    }
+
+    public long getUpdated(int position) {
+        checkIndex(position);
+        return mBuffer.getLong(mUpdated + position * 8);
+    }
+
+    public double getMagnitude(int position) {
+        checkIndex(position);
+        return mBuffer.getDouble(mMagnitudes + position * 8);
+    }
+
+    public double getLatitude(int position) {
+        checkIndex(position);
+        return mBuffer.getDouble(mLatitudes + position * 8);
+    }
+
+    public double getLongitude(int position) {
+        checkIndex(position);
+        return mBuffer.getDouble(mLongitudes + position * 8);
+    }
+
+    public double getDepth(int position) {
+        checkIndex(position);
+        return mBuffer.getDouble(mDepths + position * 8);
+    }
+
+    public String getId(int position) {
+        checkIndex(position);
+        return getString(mBuffer.getInt(mIds + position * 4));
+    }
+
+    public String getLocation(int position) {
+        checkIndex(position);
+        return getString(mBuffer.getInt(mLocations + position * 4));
+    }
+
+    public String getUrl(int position) {
+        checkIndex(position);
+        int prefix = mBuffer.getInt(mUrlPrefixes + position * 4);
+        if (prefix == NO_VALUE) {
+            return null;
+        }
+        int ending = mBuffer.getInt(mUrlEndings + position * 4);
+        return getString(prefix) + getString(ending == SAME_AS_ID
+                ? mBuffer.getInt(mIds + position * 4) : ending);
+    }
+
+    /**
+     * Returns position of the earthquake with given rank in time, rank 0 is the oldest one
+     */
+    public int getPositionByTime(int rank) {
+        checkIndex(rank);
+        return mBuffer.getInt(mTimeIndex + rank * 4);
+    }
+
+    /**
+     * Returns rank in time of the first earthquake at or after given time, or size() if
+     * all are older, so earthquakes of a time range are ranks between two calls
+     */
+    public int findTime(long milliseconds) {
+        int low = 0;
+        int high = mSize;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int position = mBuffer.getInt(mTimeIndex + middle * 4);
+            if (mBuffer.getLong(mMilliseconds + position * 8) < milliseconds) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Earthquake get(int position) {
+        return new Earthquake(getId(position), getMagnitude(position), getLocation(position),
+                getMilliseconds(position), getUrl(position), getUpdated(position), false,
+                getLatitude(position), getLongitude(position), getDepth(position));
+    }
+
+    private String getString(int index) {
+        if (index == NO_VALUE) {
+            return null;
+        }
+        if (index < 0 || index >= mStringCount) {
+            throw new IllegalStateException("Corrupted earthquake file string index " + index);
+        }
+        // Racing threads decode the same string, which is harmless
+        String value = mStrings[index];
+        if (value == null) {
+            int start = mBuffer.getInt(mStringOffsets + index * 4);
+            int end = mBuffer.getInt(mStringOffsets + index * 4 + 4);
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = mBuffer.get(mPool + start + i);
+            }
+            value = new String(bytes, UTF_8);
+            mStrings[index] = value;
+        }
+        return value;
+    }
+
+    private void checkIndex(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + position + ", Size: " + mSize);
+        }
+    }
+
+    /**
+     * Returns offsets of all sections of a file with given counts, followed by its size
+     */
+    private static long[] getSections(int size, int stringCount, int poolSize) {
+        long[] sections = new long[14];
+        long offset = HEADER_SIZE;
+        sections[0] = offset;
+        offset += align(size * 4L);
+        for (int i = 1; i <= 6; i++) {
+            sections[i] = offset;
+            offset += size * 8L;
+        }
+        for (int i = 7; i <= 10; i++) {
+            sections[i] = offset;
+            offset += size * 4L;
+        }
+        sections[11] = offset;
+        offset += align((stringCount + 1) * 4L);
+        sections[12] = offset;
+        sections[13] = offset + poolSize;
+        return sections;
+    }
+
+    private static long align(long length) {
+        return (length + 7) & ~7L;
+    }
+
+    private static void pad(DataOutputStream output, long length) throws IOException {
+        for (long i = length; i < align(length); i++) {
+            output.writeByte(0);
+        }
+    }
+
+    private static void writeColumn(DataOutputStream output, double[] column) throws IOException {
+        for (double value : column) {
+            output.writeDouble(value);
+        }
+    }
+
+    private static void writeColumn(DataOutputStream output, int[] column) throws IOException {
+        for (int value : column) {
+            output.writeInt(value);
+        }
+    }
+
+    /**
+     * Distinct strings in order of their indexes, encoded as they are added
+     */
+    private static class StringPool {
+
+        // Members
+        private final HashMap<String, Integer> mIndexes = new HashMap<>();
+        private final List<byte[]> mEncoded = new ArrayList<>();
+        private int mPoolSize;
+
+        int intern(String value) {
+            if (value == null) {
+                return NO_VALUE;
+            }
+            Integer index = mIndexes.get(value);
+            if (index == null) {
+                index = mEncoded.size();
+                byte[] bytes = value.getBytes(UTF_8);
+                mEncoded.add(bytes);
+                mIndexes.put(value, index);
+                mPoolSize += bytes.length;
+            }
+            return index;
+        }
+
+        int size() {
+            return mEncoded.size();
+        }
+
+        int getPoolSize() {
+            return mPoolSize;
+        }
+
+        void writeTo(DataOutputStream output) throws IOException {
+            int offset = 0;
+            output.writeInt(offset);
+            for (byte[] bytes : mEncoded) {
+                offset += bytes.length;
+                output.writeInt(offset);
+            }
+            pad(output, (mEncoded.size() + 1) * 4L);
+            for (byte[] bytes : mEncoded) {
+                output.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.android.quakereport;
+
+import android.support.v4.util.LongSparseArray;
+
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Formats earthquake values for display and remembers the results, so showing the same
+ * earthquake again doesn't allocate anything.
+ *
+ * Not thread safe, every thread should use its own instance. It doesn't depend on
+ * Android resources, so it also runs on a plain JVM in benchmarks.
+ */
+public class EarthquakeFormatter {
+
+    /** Offset text shown when location has only primary part */
+    private static final String NEAR_THE = "Near the";
+    /** Remembered dates, times and locations are forgotten once there are this many of them */
+    private static final int MAX_REMEMBERED = 1024;
+
+    // Members
+    private final SimpleDateFormat mDateFormatter = new SimpleDateFormat("MMM dd, y");
+    private final SimpleDateFormat mTimeFormatter = new SimpleDateFormat("H:mm a");
+    private final DecimalFormat mMagnitudeFormatter = new DecimalFormat("0.0");
+    private final Date mDate = new Date();
+    private final int[] mMagnitudeColors;
+
+    private final LongSparseArray<String> mMagnitudes = new LongSparseArray<>();
+    private final LongSparseArray<String[]> mDateTimes = new LongSparseArray<>();
+    private final HashMap<String, String[]> mLocations = new HashMap<>();
+
+    // Constructors
+    /**
+     * @param magnitudeColors Color values for magnitudes 0 to 10+, one for every whole number
+     */
+    public EarthquakeFormatter(int[] magnitudeColors) {
+        mMagnitudeColors = magnitudeColors.clone();
+    }
+
+    /**
+     *  Returns formated magnitude (i.e. "6.2") from a double value
+     */
+    public String formatMagnitude(double magnitude) {
+        long key = Double.doubleToLongBits(magnitude);
+        String formatted = mMagnitudes.get(key);
+        if (formatted == null) {
+            formatted = mMagnitudeFormatter.format(magnitude);
+            mMagnitudes.put(key, formatted);
+        }
+        return formatted;
+    }
+
+    /**
+     * Returns formated date string (i.e. "Jan 05, 2007") from time in milliseconds
+     */
+    public String formatDate(long milliseconds) {
+        return getDateTime(milliseconds)[0];
+    }
+
+    /**
+     * Returns formated time string (i.e. "4:17 AM") from time in milliseconds
+     */
+    public String formatTime(long milliseconds) {
+        return getDateTime(milliseconds)[1];
+    }
+
+    /**
+     * Returns location offset (i.e. "74km NW of"), or "Near the" if location has only primary part
+     */
+    public String getLocationOffset(String location) {
+        return splitLocation(location)[0];
+    }
+
+    /**
+     * Returns primary location (i.e. "Rumoi, Japan")
+     */
+    public String getPrimaryLocation(String location) {
+        return splitLocation(location)[1];
+    }
+
+    /**
+     * Returns everything shown in a list row of the earthquake
+     */
+    public EarthquakeRow formatRow(double magnitude, String location, long milliseconds) {
+        String[] locationParts = splitLocation(location != null ? location : "");
+        String[] dateTime = getDateTime(milliseconds);
+        return new EarthquakeRow(formatMagnitude(magnitude), getMagnitudeColor(magnitude),
+                locationParts[0], locationParts[1], dateTime[0], dateTime[1]);
+    }
+
+    /**
+     * Returns list row of earthquake at position in store, made and kept in the store if it
+     * has none yet. What the adapter binds, rows made before are returned without allocating.
+     */
+    public EarthquakeRow getRow(EarthquakeStore store, int position) {
+        EarthquakeRow row = store.getRow(position);
+        if (row == null) {
+            row = formatRow(store.getMagnitude(position), store.getLocation(position),
+                    store.getMilliseconds(position));
+            store.setRow(position, row);
+        }
+        return row;
+    }
+
+    /**
+     * Returns earthquakes with list rows made for all of them. If earthquakes are already
+     * a store, rows are added to it and the same store is returned.
+     */
+    public EarthquakeStore formatRows(List<Earthquake> earthquakes) {
+        EarthquakeStore store = earthquakes instanceof EarthquakeStore
+                ? (EarthquakeStore) earthquakes : new EarthquakeStore(earthquakes);
+        for (int i = 0; i < store.size(); i++) {
+            store.setRow(i, formatRow(store.getMagnitude(i), store.getLocation(i),
+                    store.getMilliseconds(i)));
+        }
+        return store;
+    }
+
+    /**
+     *  Returns color value for magnitude circle based on magnitude value, one color for
+     *  every bucket of {@link EarthquakeStats}
+     */
+    public int getMagnitudeColor(double magnitude) {
+        int index = EarthquakeStats.getMagnitudeBucket(magnitude);
+        return mMagnitudeColors[Math.min(index, mMagnitudeColors.length - 1)];
+    }
+
+    private String[] getDateTime(long milliseconds) {
+        String[] dateTime = mDateTimes.get(milliseconds);
+        if (dateTime == null) {
+            if (mDateTimes.size() >= MAX_REMEMBERED) {
+                mDateTimes.clear();
+            }
+            mDate.setTime(milliseconds);
+            dateTime = new String[] {mDateFormatter.format(mDate), mTimeFormatter.format(mDate)};
+            mDateTimes.put(milliseconds, dateTime);
+        }
+        return dateTime;
+    }
+
+    /**
+     * Returns location offset and primary location, split at "of" only once per location
+     */
+    private String[] splitLocation(String location) {
+        String[] parts = mLocations.get(location);
+        if (parts == null) {
+            if (mLocations.size() >= MAX_REMEMBERED) {
+                mLocations.clear();
+            }
+            parts = split(location);
+            mLocations.put(location, parts);
+        }
+        return parts;
+    }
+
+    /**
+     * Splits location into location offset and primary location, i.e. "74km NW of" and
+     * "Rumoi, Japan"
+     */
+    static String[] split(String location) {
+        int indexOfSplit = location.indexOf("of");
+
+        // If location contains "of" split it after it, otherwise it is only primary location
+        if (indexOfSplit != -1) {
+            indexOfSplit += 2;
+            return new String[] {location.substring(0, indexOfSplit),
+                    location.substring(Math.min(indexOfSplit + 1, location.length()))};
+        }
+        return new String[] {NEAR_THE, location};
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by dzenang on 8.3.2017.
+ *
+ * Loads earthquakes for one query url, run by {@link FetchEngine}
+ */
+
+public class EarthquakeRequest implements FetchEngine.Task {
+
+    // Members
+    private String mUrl;
+    private EarthquakeCache mCache;
+    private boolean mIncremental;
+    private boolean mPolling;
+    private List<MultiRegionQuery.Region> mRegions;
+    private List<EarthquakeSource> mSources;
+    private EarthquakeDatabase mDatabase;
+    private int[] mMagnitudeColors;
+    private static final String LOG_TAG = EarthquakeRequest.class.getSimpleName();
+    /** Stored events fetched at most this long ago answer queries without the network */
+    private static final long MAX_LOCAL_AGE = TimeUnit.MINUTES.toMillis(5);
+
+    // Constructors
+    public EarthquakeRequest(Context context, String url) {
+        this(context, url, false);
+    }
+
+    /**
+     * In incremental mode only events updated since the stored result are requested
+     * and merged into it, full window is fetched only when nothing usable is stored
+     */
+    public EarthquakeRequest(Context context, String url, boolean incremental) {
+        this(context, url, incremental, null);
+    }
+
+    /**
+     * If regions are given, each of them is queried in parallel and results are merged,
+     * incremental mode is not used then
+     */
+    public EarthquakeRequest(Context context, String url, boolean incremental,
+                             List<MultiRegionQuery.Region> regions) {
+        this(context, url, incremental, regions, null);
+    }
+
+    /**
+     * If sources are given, url is asked from each of them in parallel and results are
+     * merged without duplicate events. Regions are not queried from other sources.
+     */
+    public EarthquakeRequest(Context context, String url, boolean incremental,
+                             List<MultiRegionQuery.Region> regions,
+                             List<EarthquakeSource> sources) {
+        mUrl = url;
+        mIncremental = incremental;
+        mRegions = regions;
+        mSources = sources;
+        mCache = EarthquakeCache.getInstance(context.getCacheDir());
+        mDatabase = EarthquakeDatabase.getInstance(context);
+        mMagnitudeColors = QuakeArrayAdapter.resolveMagnitudeColors(context);
+    }
+
+    /**
+     * Polls ask USGS every time: they are not answered by the database, and they fail
+     * instead of returning stored events when USGS can't be reached
+     */
+    public void setPolling(boolean polling) {
+        mPolling = polling;
+    }
+
+    /**
+     * Returns true if this request merges results of several regions
+     */
+    public boolean isMultiRegion() {
+        return mRegions != null && !mRegions.isEmpty();
+    }
+
+    /**
+     * Returns true if this request merges results of several sources
+     */
+    public boolean isFederated() {
+        return !isMultiRegion() && mSources != null && !mSources.isEmpty();
+    }
+
+    /**
+     * Returns query url, which identifies the request
+     */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    @Override
+    public List<Earthquake> execute(CancellationToken cancellationToken) {
+
+        Log.i(LOG_TAG, "execute");
+        long start = Metrics.start();
+        List<Earthquake> earthquakes = load(cancellationToken);
+        if (earthquakes != null) {
+            // Rows are formatted here, so the main thread only assigns texts when binding
+            long formatStart = Metrics.start();
+            earthquakes = new EarthquakeFormatter(mMagnitudeColors).formatRows(earthquakes);
+            Metrics.recordTime(Metrics.Stage.FORMAT, formatStart);
+        }
+        Metrics.recordTime(Metrics.Stage.LOAD, start);
+        return earthquakes;
+    }
+
+    /**
+     * Loads earthquakes the way this request is set up for
+     */
+    private List<Earthquake> load(CancellationToken cancellationToken) {
+        // If url is null return early
+        if (TextUtils.isEmpty(mUrl)) {
+            return null;
+        }
+
+        if (isMultiRegion()) {
+            String orderBy = Uri.parse(mUrl).getQueryParameter("orderby");
+            List<Earthquake> merged = MultiRegionQuery.fetchEarthquakeData(mUrl, mRegions,
+                    orderBy, mCache, cancellationToken);
+            if (merged != null) {
+                // Regions are not a query the database can answer, keep only the events
+                mDatabase.store(null, merged);
+            }
+            return merged;
+        }
+
+        if (isFederated()) {
+            String orderBy = Uri.parse(mUrl).getQueryParameter("orderby");
+            Map<EarthquakeSource, List<Earthquake>> fetched = new HashMap<>();
+            List<Earthquake> merged = FederatedQuery.fetchEarthquakeData(mUrl, mSources,
+                    orderBy, mCache, cancellationToken, fetched);
+            // Only the USGS response is stored, events of other sources would be returned
+            // by USGS queries of the database
+            List<Earthquake> usgs = fetched.get(UsgsSource.getDefault());
+            if (usgs != null) {
+                mDatabase.store(mUrl, usgs);
+            }
+            return merged;
+        }
+
+        // Events stored for other filters are often enough, i.e. when min magnitude is raised
+        List<Earthquake> local = !mPolling ? mDatabase.query(mUrl, MAX_LOCAL_AGE) : null;
+        if (local != null) {
+            return local;
+        }
+
+        List<Earthquake> earthquakeList = null;
+        boolean unreachable = false;
+        if (mIncremental) {
+            try {
+                earthquakeList = syncIncrementally(cancellationToken);
+            } catch (IOException e) {
+                // Full window would fail the same way, after another round of retries
+                Log.e(LOG_TAG, "Incremental sync failed, not fetching full window.", e);
+                unreachable = true;
+            }
+        }
+        if (earthquakeList == null && !unreachable) {
+            // Perform network request, parse data, return list of Earthquake objects
+            earthquakeList = QueryUtils.fetchEarthquakeData(mUrl, mCache, cancellationToken);
+        }
+        if (earthquakeList != null) {
+            mDatabase.store(mUrl, earthquakeList);
+            return earthquakeList;
+        }
+        if (mPolling) {
+            return null;
+        }
+
+        // USGS can't be reached, show whatever is stored for this filter. Queries which the
+        // database can't answer get the last good response for the url.
+        List<Earthquake> stored = mDatabase.queryStored(mUrl);
+        if (stored == null) {
+            EarthquakeCache.Entry cached = mCache.get(mUrl);
+            stored = cached != null ? cached.getEarthquakes() : null;
+        }
+        if (stored != null) {
+            Log.i(LOG_TAG, "Showing " + stored.size() + " stored earthquakes");
+            Metrics.record(Metrics.Stage.FALLBACK, stored.size());
+        }
+        return stored;
+    }
+
+    /**
+     * Fetches only events updated after the newest one in stored result and merges them in.
+     * Returns null when full fetch is needed instead, failure of the network or the host
+     * is thrown.
+     */
+    private List<Earthquake> syncIncrementally(CancellationToken cancellationToken)
+            throws IOException {
+        EarthquakeCache.Entry stored = mCache.get(mUrl);
+        if (stored == null) {
+            return null;
+        }
+        long lastUpdated = EarthquakeSync.getLastUpdated(stored.getEarthquakes());
+        if (lastUpdated == 0) {
+            return null;
+        }
+
+        Log.i(LOG_TAG, "syncIncrementally: fetching events updated after " + lastUpdated);
+        List<Earthquake> delta = QueryUtils.requestEarthquakeData(UsgsSource.getDefault(),
+                EarthquakeSync.buildDeltaUrl(mUrl, lastUpdated), null, cancellationToken);
+        if (delta == null) {
+            return null;
+        }
+
+        Uri uri = Uri.parse(mUrl);
+        int limit = Integer.MAX_VALUE;
+        String limitParameter = uri.getQueryParameter("limit");
+        if (!TextUtils.isEmpty(limitParameter)) {
+            limit = Integer.parseInt(limitParameter);
+        }
+        EarthquakeSync.MergeResult result = EarthquakeSync.merge(stored.getEarthquakes(), delta,
+                uri.getQueryParameter("orderby"), limit);
+        if (!result.isComplete()) {
+            return null;
+        }
+
+        if (!delta.isEmpty()) {
+            mCache.put(mUrl, new EarthquakeCache.Entry(stored.getEtag(), stored.getLastModified(),
+                    result.getEarthquakes()));
+        }
+        return result.getEarthquakes();
+    }
+}
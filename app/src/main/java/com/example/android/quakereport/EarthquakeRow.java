@@ -0,0 +1,52 @@
+package com.example.android.quakereport;
+
+/**
+ * Ready to show texts and color of one list row, made by {@link EarthquakeFormatter}
+ * on a background thread so binding the row only assigns them to views.
+ */
+public final class EarthquakeRow {
+
+    // Members
+    private final String mMagnitude;
+    private final int mMagnitudeColor;
+    private final String mLocationOffset;
+    private final String mPrimaryLocation;
+    private final String mDate;
+    private final String mTime;
+
+    // Constructors
+    public EarthquakeRow(String magnitude, int magnitudeColor, String locationOffset,
+                         String primaryLocation, String date, String time) {
+        mMagnitude = magnitude;
+        mMagnitudeColor = magnitudeColor;
+        mLocationOffset = locationOffset;
+        mPrimaryLocation = primaryLocation;
+        mDate = date;
+        mTime = time;
+    }
+
+    // Getters
+    public String getMagnitude() {
+        return mMagnitude;
+    }
+
+    public int getMagnitudeColor() {
+        return mMagnitudeColor;
+    }
+
+    public String getLocationOffset() {
+        return mLocationOffset;
+    }
+
+    public String getPrimaryLocation() {
+        return mPrimaryLocation;
+    }
+
+    public String getDate() {
+        return mDate;
+    }
+
+    public String getTime() {
+        return mTime;
+    }
+}
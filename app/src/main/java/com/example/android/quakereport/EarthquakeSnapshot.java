@@ -0,0 +1,229 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The last first page shown on the main screen, kept in one small file so it can be painted
+ * on launch before anything comes from the network.
+ *
+ * The file is read on the main thread with a single read call, it holds one page only.
+ * Writing goes to a background thread.
+ */
+public class EarthquakeSnapshot {
+
+    /**
+     * Snapshot read from the file
+     */
+    public static class Content {
+
+        // Members
+        private final String mKey;
+        private final boolean mLastPage;
+        private final List<Earthquake> mEarthquakes;
+
+        // Constructors
+        public Content(String key, boolean lastPage, List<Earthquake> earthquakes) {
+            mKey = key;
+            mLastPage = lastPage;
+            mEarthquakes = earthquakes;
+        }
+
+        // Getters
+        /**
+         * Returns key of the query the earthquakes were loaded for
+         */
+        public String getKey() {
+            return mKey;
+        }
+
+        /**
+         * Returns true if nothing follows the earthquakes, i.e. merged regions
+         */
+        public boolean isLastPage() {
+            return mLastPage;
+        }
+
+        public List<Earthquake> getEarthquakes() {
+            return mEarthquakes;
+        }
+    }
+
+    private static final String LOG_TAG = EarthquakeSnapshot.class.getSimpleName();
+
+    /** File header, "QSNP" in ASCII */
+    private static final int MAGIC = 0x51534E50;
+    private static final int VERSION = 1;
+    /** Larger files are not read on the main thread, something is wrong with them */
+    private static final int MAX_FILE_SIZE = 256 * 1024;
+    /** Earthquake without id and with empty strings takes this many bytes */
+    private static final int MIN_EARTHQUAKE_SIZE = 53;
+
+    /** Writes one after another, so the newest snapshot always wins */
+    private static final Executor sWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, LOG_TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // Members
+    private final File mFile;
+
+    // Constructors
+    public EarthquakeSnapshot(File directory) {
+        mFile = new File(directory, "snapshot");
+    }
+
+    /**
+     * Returns stored snapshot, or null if there is none or it can't be read
+     */
+    public Content read() {
+        long start = Metrics.start();
+        long length = mFile.length();
+        if (length == 0 || length > MAX_FILE_SIZE) {
+            return null;
+        }
+
+        byte[] bytes = new byte[(int) length];
+        FileInputStream input = null;
+        try {
+            input = new FileInputStream(mFile);
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = input.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    return null;
+                }
+                offset += read;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error reading snapshot", e);
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing snapshot", e);
+                }
+            }
+        }
+
+        try {
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                return null;
+            }
+            String key = data.readUTF();
+            boolean lastPage = data.readBoolean();
+            int count = data.readInt();
+            // Damaged count mustn't allocate huge store on the main thread
+            if (count < 0 || count > bytes.length / MIN_EARTHQUAKE_SIZE) {
+                throw new IOException("Invalid earthquake count " + count);
+            }
+            EarthquakeStore earthquakes = new EarthquakeStore(count);
+            for (int i = 0; i < count; i++) {
+                String id = data.readBoolean() ? data.readUTF() : null;
+                double magnitude = data.readDouble();
+                long milliseconds = data.readLong();
+                long updated = data.readLong();
+                String location = data.readUTF();
+                String url = data.readUTF();
+                double latitude = data.readDouble();
+                double longitude = data.readDouble();
+                double depth = data.readDouble();
+                earthquakes.add(new Earthquake(id, magnitude, location, milliseconds, url,
+                        updated, false, latitude, longitude, depth));
+            }
+            Metrics.recordTime(Metrics.Stage.SNAPSHOT_READ, start);
+            return new Content(key, lastPage, earthquakes);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Corrupted snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Replaces stored snapshot in background
+     */
+    public void writeAsync(final Content content) {
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(content);
+            }
+        });
+    }
+
+    /**
+     * Replaces stored snapshot on the calling thread
+     */
+    void write(Content content) {
+        File directory = mFile.getParentFile();
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(LOG_TAG, "Can't create snapshot directory " + directory);
+            return;
+        }
+
+        File tempFile = new File(directory, mFile.getName() + ".tmp");
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(content.getKey());
+            output.writeBoolean(content.isLastPage());
+
+            List<Earthquake> earthquakes = content.getEarthquakes();
+            output.writeInt(earthquakes.size());
+            for (Earthquake earthquake : earthquakes) {
+                output.writeBoolean(earthquake.getId() != null);
+                if (earthquake.getId() != null) {
+                    output.writeUTF(earthquake.getId());
+                }
+                output.writeDouble(earthquake.getMagnitude());
+                output.writeLong(earthquake.getMilliseconds());
+                output.writeLong(earthquake.getUpdated());
+                output.writeUTF(earthquake.getLocation() != null ? earthquake.getLocation() : "");
+                output.writeUTF(earthquake.getUrl() != null ? earthquake.getUrl() : "");
+                output.writeDouble(earthquake.getLatitude());
+                output.writeDouble(earthquake.getLongitude());
+                output.writeDouble(earthquake.getDepth());
+            }
+            output.close();
+            output = null;
+
+            // Rename only complete files, so launch never reads a half written snapshot
+            if (!tempFile.renameTo(mFile)) {
+                Log.e(LOG_TAG, "Can't rename snapshot " + tempFile);
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error writing snapshot", e);
+            tempFile.delete();
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing snapshot", e);
+                }
+            }
+        }
+    }
+}
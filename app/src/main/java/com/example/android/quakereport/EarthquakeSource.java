@@ -0,0 +1,29 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Provider of earthquakes with an FDSN event service, i.e. USGS or EMSC. Knows how to ask
+ * it for the same query as the USGS one and how to parse its response.
+ */
+public interface EarthquakeSource {
+
+    /**
+     * Returns short name of the source, i.e. "usgs", as stored in settings
+     */
+    String getName();
+
+    /**
+     * Returns url which asks this source for the same earthquakes as given USGS query url
+     */
+    String buildUrl(String usgsUrl);
+
+    /**
+     * Parses response of this source, should stop early with
+     * {@link java.util.concurrent.CancellationException} once cancellationToken is canceled
+     */
+    List<Earthquake> parse(InputStream inputStream, CancellationToken cancellationToken)
+            throws IOException;
+}
@@ -0,0 +1,252 @@
+package com.example.android.quakereport;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts earthquakes in an {@link EarthquakeStore} by magnitude, by day and by region, and
+ * finds their strongest and mean magnitude, all in one pass over its columns.
+ *
+ * Only earthquakes inside the window of given days ending today are counted. Results are
+ * kept in a {@link Summary} of primitive arrays. Summaries of separate parts can be merged,
+ * so new earthquakes are added without counting the old ones again, and large stores are
+ * split between threads.
+ */
+public class EarthquakeStats {
+
+    /** Whole magnitudes 0 to 9 and one bucket for 10+, as magnitude colors */
+    public static final int MAGNITUDE_BUCKETS = 11;
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    /** Smaller stores are counted on the calling thread, splitting them costs more than it saves */
+    private static final int PARALLEL_THRESHOLD = 50000;
+    /** Parts counted at once, one on the calling thread and the others on the shared pool */
+    private static final int THREADS = Math.min(Runtime.getRuntime().availableProcessors(),
+            ParallelFetch.MAX_THREADS + 1);
+
+    /**
+     * Counts and magnitudes of earthquakes added so far
+     */
+    public static class Summary {
+
+        // Members
+        private int mCount;
+        private double mMagnitudeSum;
+        private double mMaxMagnitude = Double.NaN;
+        private final int[] mMagnitudeCounts = new int[MAGNITUDE_BUCKETS];
+        private final int[] mDayCounts;
+        private final int[] mRegionCounts;
+
+        private Summary(int days, int regions) {
+            mDayCounts = new int[days];
+            mRegionCounts = new int[regions];
+        }
+
+        /**
+         * Adds counts of other summary made by the same stats to this one
+         */
+        public void merge(Summary other) {
+            mCount += other.mCount;
+            mMagnitudeSum += other.mMagnitudeSum;
+            if (other.mCount > 0 && !(other.mMaxMagnitude <= mMaxMagnitude)) {
+                mMaxMagnitude = other.mMaxMagnitude;
+            }
+            addAll(mMagnitudeCounts, other.mMagnitudeCounts);
+            addAll(mDayCounts, other.mDayCounts);
+            addAll(mRegionCounts, other.mRegionCounts);
+        }
+
+        private static void addAll(int[] counts, int[] other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other[i];
+            }
+        }
+
+        // Getters
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Returns the strongest magnitude, or NaN if nothing was counted
+         */
+        public double getMaxMagnitude() {
+            return mMaxMagnitude;
+        }
+
+        /**
+         * Returns mean magnitude, or NaN if nothing was counted
+         */
+        public double getMeanMagnitude() {
+            return mCount > 0 ? mMagnitudeSum / mCount : Double.NaN;
+        }
+
+        /**
+         * Returns number of earthquakes in magnitude bucket, see getMagnitudeBucket()
+         */
+        public int getMagnitudeCount(int bucket) {
+            return mMagnitudeCounts[bucket];
+        }
+
+        /**
+         * Returns number of earthquakes on given day, 0 is today
+         */
+        public int getDayCount(int daysAgo) {
+            return mDayCounts[daysAgo];
+        }
+
+        public int getDays() {
+            return mDayCounts.length;
+        }
+
+        /**
+         * Returns number of earthquakes in region with given index, regions may overlap
+         */
+        public int getRegionCount(int region) {
+            return mRegionCounts[region];
+        }
+
+        public int getRegions() {
+            return mRegionCounts.length;
+        }
+    }
+
+    // Members
+    /** End of today in local time, day buckets are counted back from it */
+    private final long mDayEnd;
+    private final long mWindowStart;
+    private final int mDays;
+    private final List<MultiRegionQuery.Region> mRegions;
+
+    // Constructors
+    /**
+     * @param now Current time, today is the day it falls on
+     * @param days Length of the window in days, today included
+     * @param regions Regions counted separately, may be empty
+     */
+    public EarthquakeStats(long now, int days, List<MultiRegionQuery.Region> regions) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        // Days are counted as 24 hours, the day of a daylight saving change is off by an hour
+        mDayEnd = calendar.getTimeInMillis();
+        mWindowStart = mDayEnd - days * DAY;
+        mDays = days;
+        mRegions = new ArrayList<>(regions);
+    }
+
+    /**
+     * Returns magnitude bucket of magnitude, whole magnitudes up to 10+. Negative magnitudes
+     * of tiny earthquakes fall into bucket 0.
+     */
+    public static int getMagnitudeBucket(double magnitude) {
+        if (!(magnitude >= 1)) {
+            return 0;
+        }
+        return magnitude >= MAGNITUDE_BUCKETS - 1 ? MAGNITUDE_BUCKETS - 1 : (int) magnitude;
+    }
+
+    /**
+     * Returns summary with nothing counted yet
+     */
+    public Summary newSummary() {
+        return new Summary(mDays, mRegions.size());
+    }
+
+    /**
+     * Counts earthquakes at positions from (inclusive) to (exclusive) into summary
+     */
+    public void add(Summary summary, EarthquakeStore earthquakes, int from, int to) {
+        int regionCount = mRegions.size();
+        for (int i = from; i < to; i++) {
+            long milliseconds = earthquakes.getMilliseconds(i);
+            if (milliseconds < mWindowStart || milliseconds >= mDayEnd) {
+                continue;
+            }
+            double magnitude = earthquakes.getMagnitude(i);
+            if (Double.isNaN(magnitude)) {
+                continue;
+            }
+            summary.mCount++;
+            summary.mMagnitudeSum += magnitude;
+            if (!(magnitude <= summary.mMaxMagnitude)) {
+                summary.mMaxMagnitude = magnitude;
+            }
+            summary.mMagnitudeCounts[getMagnitudeBucket(magnitude)]++;
+            summary.mDayCounts[(int) ((mDayEnd - 1 - milliseconds) / DAY)]++;
+            if (regionCount > 0) {
+                double latitude = earthquakes.getLatitude(i);
+                double longitude = earthquakes.getLongitude(i);
+                for (int region = 0; region < regionCount; region++) {
+                    if (mRegions.get(region).contains(latitude, longitude)) {
+                        summary.mRegionCounts[region]++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts earthquakes at positions from (inclusive) to (exclusive). Large ranges are split
+     * into a part for every processor, the parts are counted in parallel and merged.
+     * Store must not change until this returns.
+     */
+    public Summary aggregate(final EarthquakeStore earthquakes, int from, int to) {
+        int size = to - from;
+        Summary summary = newSummary();
+        if (size < PARALLEL_THRESHOLD || THREADS == 1) {
+            add(summary, earthquakes, from, to);
+            return summary;
+        }
+
+        // The first part is counted on this thread while the others are counted on the pool
+        int partSize = (size + THREADS - 1) / THREADS;
+        List<Future<Summary>> futures = new ArrayList<>(THREADS - 1);
+        for (int partStart = from + partSize; partStart < to; partStart += partSize) {
+            final int start = partStart;
+            final int end = Math.min(to, partStart + partSize);
+            futures.add(ParallelFetch.getExecutor().submit(new Callable<Summary>() {
+                @Override
+                public Summary call() {
+                    Summary part = newSummary();
+                    add(part, earthquakes, start, end);
+                    return part;
+                }
+            }));
+        }
+        add(summary, earthquakes, from, from + partSize);
+
+        // Pool is shared with network requests, parts still waiting for a thread are counted here
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<Summary> future = futures.get(i);
+            if (future.cancel(false)) {
+                int start = from + (i + 1) * partSize;
+                add(summary, earthquakes, start, Math.min(to, start + partSize));
+                continue;
+            }
+            try {
+                summary.merge(future.get());
+            } catch (InterruptedException e) {
+                // Parts are short, waiting for them is simpler than counting them again
+                interrupted = true;
+                i--;
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Error counting earthquakes", e.getCause());
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,588 @@
+package com.example.android.quakereport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Pull parser which reads USGS GeoJSON response straight from an {@link InputStream}
+ * and returns one {@link Earthquake} at a time.
+ *
+ * Only "features" array and the few properties the app uses are decoded, everything
+ * else is skipped byte by byte, so the response is never held in memory as a whole.
+ * With a {@link FeatureBuffer} set, raw properties of every feature are kept there and
+ * the rest of them can be decoded later from {@link EarthquakeDetails}.
+ */
+public class EarthquakeStreamParser implements Closeable {
+
+    /**
+     * Thrown when server response is not valid JSON or it is not GeoJSON we expect
+     */
+    public static class MalformedJsonException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public MalformedJsonException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // Members
+    private final InputStream mInputStream;
+    private final byte[] mBuffer;
+    private int mPosition;
+    private int mLimit;
+    private long mBufferOffset;
+    private FeatureBuffer mFeatureBuffer;
+    /** Start of bytes in the buffer not yet copied to feature buffer, -1 when not copying */
+    private int mCopyStart = -1;
+    private final StringBuilder mStringBuilder = new StringBuilder();
+    private boolean mInFeatures;
+    private boolean mFirstFeature;
+    private boolean mFinished;
+
+    // Values of feature which is currently being parsed
+    private double mMagnitude;
+    private String mLocation;
+    private long mMilliseconds;
+    private String mUrl;
+    private String mId;
+    private long mUpdated;
+    private boolean mDeleted;
+    private double mLatitude;
+    private double mLongitude;
+    private double mDepth;
+    private EarthquakeDetails mDetails;
+
+    // Constructors
+    public EarthquakeStreamParser(InputStream inputStream) {
+        mInputStream = inputStream;
+        mBuffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Parser of bytes which are already in memory, they are read in place
+     */
+    EarthquakeStreamParser(byte[] bytes, int offset, int length) {
+        mInputStream = null;
+        mBuffer = bytes;
+        mPosition = offset;
+        mLimit = offset + length;
+        mBufferOffset = -offset;
+    }
+
+    /**
+     * Keeps raw properties of every feature parsed from now on in featureBuffer, so they are
+     * available from {@link Earthquake#getDetails()}
+     */
+    public void setFeatureBuffer(FeatureBuffer featureBuffer) {
+        mFeatureBuffer = featureBuffer;
+    }
+
+    /**
+     * Returns next {@link Earthquake} from the stream or null when there are no more features
+     */
+    public Earthquake next() throws IOException {
+        if (mFinished) {
+            return null;
+        }
+
+        if (!mInFeatures) {
+            if (!seekFeatures()) {
+                mFinished = true;
+                return null;
+            }
+            mInFeatures = true;
+            mFirstFeature = true;
+        }
+
+        int c = nextNonWhitespace();
+        if (c == ']') {
+            mFinished = true;
+            return null;
+        }
+        if (!mFirstFeature) {
+            if (c != ',') {
+                throw syntaxError("Expected ',' or ']' between features");
+            }
+            c = nextNonWhitespace();
+        }
+        mFirstFeature = false;
+
+        if (c != '{') {
+            throw syntaxError("Expected feature object");
+        }
+        return readFeature();
+    }
+
+    /**
+     * Reads stream which holds one bare GeoJSON feature instead of a feature collection,
+     * i.e. data of one push event
+     */
+    public Earthquake readSingleFeature() throws IOException {
+        if (nextNonWhitespace() != '{') {
+            throw syntaxError("Expected feature object");
+        }
+        mFinished = true;
+        return readFeature();
+    }
+
+    /**
+     * Returns number of bytes consumed from the stream so far
+     */
+    public long getOffset() {
+        return mBufferOffset + mPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mInputStream != null) {
+            mInputStream.close();
+        }
+    }
+
+    /**
+     * Decodes every member of properties object into names and values. Strings, numbers and
+     * booleans are decoded to String, Double and Boolean, nulls and nested values to null.
+     */
+    void readPropertyValues(List<String> names, List<Object> values) throws IOException {
+        if (nextNonWhitespace() != '{') {
+            throw syntaxError("Expected properties object");
+        }
+        int c = nextNonWhitespace();
+        while (c != '}') {
+            readKey(c);
+            names.add(mStringBuilder.toString());
+            c = nextNonWhitespace();
+            if (c == '"') {
+                readStringContent();
+                values.add(mStringBuilder.toString());
+            } else if (c == '{' || c == '[') {
+                skipValue(c);
+                values.add(null);
+            } else {
+                readLiteral(c);
+                if (keyEquals("null")) {
+                    values.add(null);
+                } else if (keyEquals("true") || keyEquals("false")) {
+                    values.add(keyEquals("true"));
+                } else {
+                    values.add(readDoubleFromBuilder());
+                }
+            }
+            c = nextMemberSeparator();
+        }
+    }
+
+    /**
+     * Moves stream to the first element of top level "features" array.
+     * Returns false if response has no features at all.
+     */
+    private boolean seekFeatures() throws IOException {
+        if (nextNonWhitespace() != '{') {
+            throw syntaxError("Expected top level object");
+        }
+
+        int c = nextNonWhitespace();
+        while (c != '}') {
+            readKey(c);
+            if (keyEquals("features")) {
+                c = nextNonWhitespace();
+                if (c == '[') {
+                    return true;
+                }
+                skipValue(c);
+            } else {
+                skipValue(nextNonWhitespace());
+            }
+            c = nextMemberSeparator();
+        }
+        return false;
+    }
+
+    /**
+     * Reads one feature object, opening brace has already been consumed
+     */
+    private Earthquake readFeature() throws IOException {
+        mMagnitude = 0;
+        mLocation = "";
+        mMilliseconds = 0;
+        mUrl = null;
+        mId = null;
+        mUpdated = 0;
+        mDeleted = false;
+        mLatitude = Double.NaN;
+        mLongitude = Double.NaN;
+        mDepth = Double.NaN;
+        mDetails = null;
+
+        int c = nextNonWhitespace();
+        while (c != '}') {
+            readKey(c);
+            c = nextNonWhitespace();
+            if (keyEquals("properties") && c == '{') {
+                if (mFeatureBuffer != null) {
+                    // Opening brace is the last byte read
+                    mFeatureBuffer.begin();
+                    mCopyStart = mPosition - 1;
+                    readProperties();
+                    mFeatureBuffer.append(mBuffer, mCopyStart, mPosition - mCopyStart);
+                    mCopyStart = -1;
+                    mDetails = mFeatureBuffer.end();
+                } else {
+                    readProperties();
+                }
+            } else if (keyEquals("geometry") && c == '{') {
+                readGeometry();
+            } else if (keyEquals("id")) {
+                mId = readNullableString(c);
+            } else {
+                skipValue(c);
+            }
+            c = nextMemberSeparator();
+        }
+        return new Earthquake(mId, mMagnitude, mLocation, mMilliseconds, mUrl, mUpdated, mDeleted,
+                mLatitude, mLongitude, mDepth, null, mDetails);
+    }
+
+    /**
+     * Reads geometry object of a feature, opening brace has already been consumed
+     */
+    private void readGeometry() throws IOException {
+        int c = nextNonWhitespace();
+        while (c != '}') {
+            readKey(c);
+            c = nextNonWhitespace();
+            if (keyEquals("coordinates") && c == '[') {
+                readCoordinates();
+            } else {
+                skipValue(c);
+            }
+            c = nextMemberSeparator();
+        }
+    }
+
+    /**
+     * Reads point coordinates [longitude, latitude, depth], opening bracket has already been
+     * consumed. Missing values are left as NaN.
+     */
+    private void readCoordinates() throws IOException {
+        int c = nextNonWhitespace();
+        for (int i = 0; c != ']'; i++) {
+            if (i > 0) {
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or ']' between coordinates");
+                }
+                c = nextNonWhitespace();
+            }
+            if (c == '[' || c == '{' || c == '"') {
+                skipValue(c);
+            } else {
+                readLiteral(c);
+                double value = keyEquals("null") ? Double.NaN : readDoubleFromBuilder();
+                if (i == 0) {
+                    mLongitude = value;
+                } else if (i == 1) {
+                    mLatitude = value;
+                } else if (i == 2) {
+                    mDepth = value;
+                }
+            }
+            c = nextNonWhitespace();
+        }
+    }
+
+    /**
+     * Reads properties object of a feature, opening brace has already been consumed
+     */
+    private void readProperties() throws IOException {
+        int c = nextNonWhitespace();
+        while (c != '}') {
+            readKey(c);
+            c = nextNonWhitespace();
+            if (keyEquals("mag")) {
+                mMagnitude = readDouble(c);
+            } else if (keyEquals("place")) {
+                String location = readNullableString(c);
+                mLocation = location != null ? location : "";
+            } else if (keyEquals("time")) {
+                mMilliseconds = readLong(c);
+            } else if (keyEquals("url")) {
+                mUrl = readNullableString(c);
+            } else if (keyEquals("updated")) {
+                mUpdated = readLong(c);
+            } else if (keyEquals("status")) {
+                // Only present for deleted events when "includedeleted" is requested
+                mDeleted = "deleted".equals(readNullableString(c));
+            } else {
+                skipValue(c);
+            }
+            c = nextMemberSeparator();
+        }
+    }
+
+    /**
+     * Reads object key and following colon into string builder
+     */
+    private void readKey(int c) throws IOException {
+        if (c != '"') {
+            throw syntaxError("Expected object key");
+        }
+        readStringContent();
+        if (nextNonWhitespace() != ':') {
+            throw syntaxError("Expected ':' after object key");
+        }
+    }
+
+    private boolean keyEquals(String key) {
+        return key.contentEquals(mStringBuilder);
+    }
+
+    /**
+     * Consumes ',' between object members and returns first character of the next key,
+     * or returns '}' when object is finished
+     */
+    private int nextMemberSeparator() throws IOException {
+        int c = nextNonWhitespace();
+        if (c == ',') {
+            return nextNonWhitespace();
+        }
+        if (c != '}') {
+            throw syntaxError("Expected ',' or '}'");
+        }
+        return c;
+    }
+
+    private String readNullableString(int c) throws IOException {
+        if (c == '"') {
+            readStringContent();
+            return mStringBuilder.toString();
+        }
+        readLiteral(c);
+        if (!keyEquals("null")) {
+            throw syntaxError("Expected string");
+        }
+        return null;
+    }
+
+    private double readDouble(int c) throws IOException {
+        readLiteral(c);
+        if (keyEquals("null")) {
+            return 0;
+        }
+        return readDoubleFromBuilder();
+    }
+
+    private long readLong(int c) throws IOException {
+        readLiteral(c);
+        if (keyEquals("null")) {
+            return 0;
+        }
+        // Parse digits in place, USGS times are plain integers
+        long value = 0;
+        boolean negative = false;
+        for (int i = 0; i < mStringBuilder.length(); i++) {
+            char digit = mStringBuilder.charAt(i);
+            if (i == 0 && digit == '-') {
+                negative = true;
+            } else if (digit >= '0' && digit <= '9') {
+                value = value * 10 + (digit - '0');
+            } else {
+                return (long) readDoubleFromBuilder();
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    private double readDoubleFromBuilder() throws IOException {
+        try {
+            return Double.parseDouble(mStringBuilder.toString());
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected number");
+        }
+    }
+
+    /**
+     * Reads number, true, false or null into string builder
+     */
+    private void readLiteral(int c) throws IOException {
+        mStringBuilder.setLength(0);
+        while (c != -1 && !isDelimiter(c)) {
+            mStringBuilder.append((char) c);
+            c = read();
+        }
+        if (c != -1) {
+            unread();
+        }
+        if (mStringBuilder.length() == 0) {
+            throw syntaxError("Expected value");
+        }
+    }
+
+    /**
+     * Decodes UTF-8 string with escapes into string builder, opening quote has already been consumed
+     */
+    private void readStringContent() throws IOException {
+        mStringBuilder.setLength(0);
+        while (true) {
+            int c = readRequired();
+            if (c == '"') {
+                return;
+            } else if (c == '\\') {
+                readEscape();
+            } else if (c < 0x80) {
+                mStringBuilder.append((char) c);
+            } else if ((c & 0xE0) == 0xC0) {
+                mStringBuilder.append((char) (((c & 0x1F) << 6) | continuation()));
+            } else if ((c & 0xF0) == 0xE0) {
+                int high = continuation();
+                mStringBuilder.append((char) (((c & 0x0F) << 12) | (high << 6) | continuation()));
+            } else if ((c & 0xF8) == 0xF0) {
+                int codePoint = ((c & 0x07) << 18) | (continuation() << 12) | (continuation() << 6) | continuation();
+                mStringBuilder.appendCodePoint(codePoint);
+            } else {
+                throw syntaxError("Invalid UTF-8 byte");
+            }
+        }
+    }
+
+    private int continuation() throws IOException {
+        int c = readRequired();
+        if ((c & 0xC0) != 0x80) {
+            throw syntaxError("Invalid UTF-8 byte");
+        }
+        return c & 0x3F;
+    }
+
+    private void readEscape() throws IOException {
+        int c = readRequired();
+        switch (c) {
+            case 'n':
+                mStringBuilder.append('\n');
+                break;
+            case 't':
+                mStringBuilder.append('\t');
+                break;
+            case 'r':
+                mStringBuilder.append('\r');
+                break;
+            case 'b':
+                mStringBuilder.append('\b');
+                break;
+            case 'f':
+                mStringBuilder.append('\f');
+                break;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(readRequired(), 16);
+                    if (digit == -1) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                mStringBuilder.append((char) value);
+                break;
+            default:
+                // Covers \" \\ and \/
+                mStringBuilder.append((char) c);
+        }
+    }
+
+    /**
+     * Skips any JSON value without decoding it, c is its first character
+     */
+    private void skipValue(int c) throws IOException {
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = readRequired();
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            }
+        } else {
+            while (c != -1 && !isDelimiter(c)) {
+                c = read();
+            }
+            if (c != -1) {
+                unread();
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c = readRequired();
+        while (c != '"') {
+            if (c == '\\') {
+                readRequired();
+            }
+            c = readRequired();
+        }
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c == ',' || c == '}' || c == ']' || c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = readRequired();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            c = readRequired();
+        }
+        return c;
+    }
+
+    private int readRequired() throws IOException {
+        int c = read();
+        if (c == -1) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLimit) {
+            if (mInputStream == null) {
+                return -1;
+            }
+            if (mCopyStart != -1) {
+                // Buffer is about to be overwritten, keep the part of properties read so far
+                mFeatureBuffer.append(mBuffer, mCopyStart, mLimit - mCopyStart);
+                mCopyStart = 0;
+            }
+            mBufferOffset += mLimit;
+            mPosition = 0;
+            mLimit = 0;
+            int count = mInputStream.read(mBuffer, 0, BUFFER_SIZE);
+            while (count == 0) {
+                count = mInputStream.read(mBuffer, 0, BUFFER_SIZE);
+            }
+            if (count == -1) {
+                return -1;
+            }
+            mLimit = count;
+        }
+        return mBuffer[mPosition++] & 0xFF;
+    }
+
+    /**
+     * Steps back one byte, only valid right after successful read()
+     */
+    private void unread() {
+        mPosition--;
+    }
+
+    private MalformedJsonException syntaxError(String message) {
+        return new MalformedJsonException(message + " at offset " + getOffset());
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.quakereport;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Helper methods for incremental sync, where only events updated since the last fetch
+ * are requested from USGS and merged into the stored list.
+ */
+public final class EarthquakeSync {
+
+    /** Order-by values understood by USGS, same as in settings */
+    public static final String ORDER_BY_MAGNITUDE = "magnitude";
+    public static final String ORDER_BY_TIME = "time";
+
+    /**
+     * Result of merging delta into stored list
+     */
+    public static class MergeResult {
+
+        // Members
+        private final List<Earthquake> mEarthquakes;
+        private final boolean mComplete;
+
+        // Constructors
+        public MergeResult(List<Earthquake> earthquakes, boolean complete) {
+            mEarthquakes = earthquakes;
+            mComplete = complete;
+        }
+
+        // Getters
+        public List<Earthquake> getEarthquakes() {
+            return mEarthquakes;
+        }
+
+        /**
+         * Returns false when deleted events left fewer earthquakes than the query limit,
+         * in which case the window can only be filled again by a full fetch
+         */
+        public boolean isComplete() {
+            return mComplete;
+        }
+    }
+
+    private EarthquakeSync() {
+    }
+
+    /**
+     * Returns newest "updated" time in the list, or 0 if it is not known for any earthquake
+     */
+    public static long getLastUpdated(List<Earthquake> earthquakes) {
+        long lastUpdated = 0;
+        for (Earthquake earthquake : earthquakes) {
+            if (earthquake.getId() == null) {
+                // Stored before event ids were kept, delta can't be merged into it
+                return 0;
+            }
+            lastUpdated = Math.max(lastUpdated, earthquake.getUpdated());
+        }
+        return lastUpdated;
+    }
+
+    /**
+     * Appends parameters to query url which ask only for events updated after given time,
+     * including deleted ones so they can be removed from stored list
+     */
+    public static String buildDeltaUrl(String url, long updatedAfter) {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS", Locale.US);
+        formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        String separator = url.indexOf('?') == -1 ? "?" : "&";
+        return url + separator + "updatedafter=" + formatter.format(new Date(updatedAfter))
+                + "&includedeleted=true";
+    }
+
+    /**
+     * Merges delta into stored earthquakes by event id. Updated events replace stored ones,
+     * deleted events are removed, and result is sorted by orderBy and cut to limit.
+     */
+    public static MergeResult merge(List<Earthquake> stored, List<Earthquake> delta,
+                                    String orderBy, int limit) {
+        Map<String, Earthquake> merged = new LinkedHashMap<>();
+        for (Earthquake earthquake : stored) {
+            merged.put(earthquake.getId(), earthquake);
+        }
+
+        boolean removed = false;
+        for (Earthquake earthquake : delta) {
+            if (earthquake.getId() == null) {
+                continue;
+            }
+            if (earthquake.isDeleted()) {
+                removed |= merged.remove(earthquake.getId()) != null;
+            } else {
+                merged.put(earthquake.getId(), earthquake);
+            }
+        }
+
+        List<Earthquake> earthquakes = new ArrayList<>(merged.values());
+        sort(earthquakes, orderBy);
+        if (earthquakes.size() > limit) {
+            earthquakes = earthquakes.subList(0, limit);
+        }
+        boolean complete = !removed || earthquakes.size() >= limit;
+        return new MergeResult(new EarthquakeStore(earthquakes), complete);
+    }
+
+    /**
+     * Sorts earthquakes the same way USGS does for given order-by value
+     */
+    public static void sort(List<Earthquake> earthquakes, String orderBy) {
+        if (ORDER_BY_MAGNITUDE.equals(orderBy)) {
+            Collections.sort(earthquakes, new Comparator<Earthquake>() {
+                @Override
+                public int compare(Earthquake first, Earthquake second) {
+                    return Double.compare(second.getMagnitude(), first.getMagnitude());
+                }
+            });
+        } else {
+            Collections.sort(earthquakes, new Comparator<Earthquake>() {
+                @Override
+                public int compare(Earthquake first, Earthquake second) {
+                    long difference = second.getMilliseconds() - first.getMilliseconds();
+                    return difference > 0 ? 1 : difference < 0 ? -1 : 0;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.quakereport;
+
+import android.net.Uri;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Any FDSN event service, i.e. EMSC, asked for its standard pipe separated text format.
+ *
+ * Query parameters of the USGS url are translated to their FDSN names. Text format has
+ * no update times, so earthquakes of these sources are never merged incrementally.
+ */
+public class FdsnSource implements EarthquakeSource {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** European-Mediterranean Seismological Centre */
+    public static final FdsnSource EMSC = new FdsnSource("emsc",
+            "https://www.seismicportal.eu/fdsnws/event/1/query",
+            "https://www.seismicportal.eu/eventdetails.html?unid=");
+
+    // Members
+    private final String mName;
+    private final String mQueryUrl;
+    private final String mEventUrlPrefix;
+
+    // Constructors
+    /**
+     * @param queryUrl Url of the query method of the event service
+     * @param eventUrlPrefix Event page url without the event id
+     */
+    public FdsnSource(String name, String queryUrl, String eventUrlPrefix) {
+        mName = name;
+        mQueryUrl = queryUrl;
+        mEventUrlPrefix = eventUrlPrefix;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public String buildUrl(String usgsUrl) {
+        Uri usgsUri = Uri.parse(usgsUrl);
+        Uri.Builder builder = Uri.parse(mQueryUrl).buildUpon();
+        builder.appendQueryParameter("format", "text");
+        copyParameter(usgsUri, "minmag", builder, "minmagnitude");
+        copyParameter(usgsUri, "limit", builder, "limit");
+        copyParameter(usgsUri, "offset", builder, "offset");
+        copyParameter(usgsUri, "orderby", builder, "orderby");
+        copyParameter(usgsUri, "endtime", builder, "endtime");
+        String startTime = usgsUri.getQueryParameter("starttime");
+        if (startTime == null) {
+            // USGS returns the last 30 days by default, other services everything they have
+            SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss",
+                    Locale.US);
+            formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+            startTime = formatter.format(new Date(System.currentTimeMillis()
+                    - EarthquakeDatabase.DEFAULT_WINDOW));
+        }
+        builder.appendQueryParameter("starttime", startTime);
+        return builder.toString();
+    }
+
+    private static void copyParameter(Uri uri, String name, Uri.Builder builder,
+                                      String fdsnName) {
+        String value = uri.getQueryParameter(name);
+        if (value != null) {
+            builder.appendQueryParameter(fdsnName, value);
+        }
+    }
+
+    /**
+     * Parses lines of "#EventID|Time|Latitude|Longitude|Depth/km|Author|Catalog|Contributor|
+     * ContributorID|MagType|Magnitude|MagAuthor|EventLocationName". Columns are found by
+     * the header, rows which can't be parsed are skipped.
+     */
+    @Override
+    public List<Earthquake> parse(InputStream inputStream, CancellationToken cancellationToken)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8));
+        EarthquakeStore earthquakes = new EarthquakeStore();
+        int id = 0;
+        int time = 1;
+        int latitude = 2;
+        int longitude = 3;
+        int depth = 4;
+        int magnitude = 10;
+        int location = 12;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (cancellationToken != null) {
+                cancellationToken.throwIfCanceled();
+            }
+            if (line.startsWith("#")) {
+                String[] names = line.substring(1).split("\\|");
+                for (int i = 0; i < names.length; i++) {
+                    String name = names[i].trim();
+                    if (name.equals("EventID")) {
+                        id = i;
+                    } else if (name.equals("Time")) {
+                        time = i;
+                    } else if (name.equals("Latitude")) {
+                        latitude = i;
+                    } else if (name.equals("Longitude")) {
+                        longitude = i;
+                    } else if (name.equals("Depth/km")) {
+                        depth = i;
+                    } else if (name.equals("Magnitude")) {
+                        magnitude = i;
+                    } else if (name.equals("EventLocationName")) {
+                        location = i;
+                    }
+                }
+                continue;
+            }
+
+            String[] values = line.split("\\|", -1);
+            if (values.length <= Math.max(Math.max(id, time), Math.max(magnitude, location))) {
+                continue;
+            }
+            String eventId = values[id].trim();
+            String timeValue = values[time].trim();
+            // Services write UTC with or without the zone designator
+            long milliseconds = CatalogImporter.parseTime(timeValue.endsWith("Z")
+                    ? timeValue : timeValue + "Z");
+            if (eventId.isEmpty() || milliseconds == -1) {
+                continue;
+            }
+            // Missing magnitude is 0, as in USGS responses
+            double eventMagnitude = parseDouble(values, magnitude);
+            earthquakes.add(new Earthquake(mName + ":" + eventId,
+                    Double.isNaN(eventMagnitude) ? 0 : eventMagnitude, values[location].trim(),
+                    milliseconds, mEventUrlPrefix + eventId, 0, false,
+                    parseDouble(values, latitude), parseDouble(values, longitude),
+                    parseDouble(values, depth)));
+        }
+        return earthquakes;
+    }
+
+    private static double parseDouble(String[] values, int column) {
+        if (column >= values.length) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(values[column].trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
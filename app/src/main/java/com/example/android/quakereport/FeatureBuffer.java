@@ -0,0 +1,60 @@
+package com.example.android.quakereport;
+
+/**
+ * Keeps raw GeoJSON properties of parsed features, so properties the list doesn't show are
+ * decoded only when something asks for them, see {@link EarthquakeDetails}.
+ *
+ * Bytes of many features are copied one after another into shared chunks, so a feature
+ * costs its bytes and one small object instead of strings and boxes of all its properties.
+ * A feature never spans two chunks, and a chunk is freed once no feature in it is used.
+ * Not thread safe, features are added by the thread which parses the response.
+ */
+public class FeatureBuffer {
+
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    // Members
+    private byte[] mChunk;
+    /** Bytes of the current chunk in use */
+    private int mSize;
+    /** Start of the feature being added in the current chunk */
+    private int mStart;
+
+    /**
+     * Starts a new feature, its bytes are added with append()
+     */
+    public void begin() {
+        mStart = mSize;
+    }
+
+    /**
+     * Adds bytes to the feature started with begin()
+     */
+    public void append(byte[] bytes, int offset, int length) {
+        ensureRoom(length);
+        System.arraycopy(bytes, offset, mChunk, mSize, length);
+        mSize += length;
+    }
+
+    /**
+     * Finishes the feature started with begin() and returns its details
+     */
+    public EarthquakeDetails end() {
+        return new EarthquakeDetails(mChunk, mStart, mSize - mStart);
+    }
+
+    private void ensureRoom(int length) {
+        if (mChunk != null && mSize + length <= mChunk.length) {
+            return;
+        }
+        // Move the part of the feature added so far to the start of a new chunk
+        int featureLength = mSize - mStart;
+        byte[] chunk = new byte[Math.max(CHUNK_SIZE, (featureLength + length) * 2)];
+        if (mChunk != null) {
+            System.arraycopy(mChunk, mStart, chunk, 0, featureLength);
+        }
+        mChunk = chunk;
+        mStart = 0;
+        mSize = featureLength;
+    }
+}
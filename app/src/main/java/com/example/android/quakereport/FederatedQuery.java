@@ -0,0 +1,120 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Queries several {@link EarthquakeSource}s at once and merges their results into one list,
+ * in which an event reported by more networks is shown once.
+ *
+ * Every source is requested in parallel by {@link ParallelFetch}, so the whole query takes
+ * about as long as the slowest source. Duplicates are removed by
+ * {@link EarthquakeDeduplicator}, earthquake of the source listed first is kept.
+ */
+public final class FederatedQuery {
+
+    private static final String LOG_TAG = FederatedQuery.class.getSimpleName();
+
+    private FederatedQuery() {
+    }
+
+    /**
+     * Returns source with given name, or null if it is not known
+     */
+    public static EarthquakeSource getSource(String name) {
+        if (UsgsSource.NAME.equals(name)) {
+            return UsgsSource.getDefault();
+        } else if (FdsnSource.EMSC.getName().equals(name)) {
+            return FdsnSource.EMSC;
+        }
+        return null;
+    }
+
+    /**
+     * Returns known sources with given names, USGS first as its earthquakes are preferred
+     */
+    public static List<EarthquakeSource> getSources(Collection<String> names) {
+        List<EarthquakeSource> sources = new ArrayList<>();
+        if (names.contains(UsgsSource.NAME)) {
+            sources.add(UsgsSource.getDefault());
+        }
+        for (String name : names) {
+            EarthquakeSource source = getSource(name);
+            if (source != null && !sources.contains(source)) {
+                sources.add(source);
+            }
+        }
+        return sources;
+    }
+
+    public static List<Earthquake> fetchEarthquakeData(String url, List<EarthquakeSource> sources,
+                                                       String orderBy, EarthquakeCache cache,
+                                                       CancellationToken cancellationToken) {
+        return fetchEarthquakeData(url, sources, orderBy, cache, cancellationToken, null);
+    }
+
+    /**
+     * Fetches USGS query url from all sources in parallel and returns earthquakes from all of
+     * them, without duplicates and sorted by orderBy. Sources which failed get their last
+     * good response from cache or are left out, null is returned only if nothing is left.
+     *
+     * @param fetched If not null, gets the response of every source which answered, results
+     *                taken from cache are not put in it
+     */
+    public static List<Earthquake> fetchEarthquakeData(String url, List<EarthquakeSource> sources,
+                                                       String orderBy, final EarthquakeCache cache,
+                                                       final CancellationToken cancellationToken,
+                                                       Map<EarthquakeSource, List<Earthquake>>
+                                                               fetched) {
+        Log.i(LOG_TAG, "fetchEarthquakeData: " + sources.size() + " sources");
+
+        final Map<EarthquakeSource, List<Earthquake>> responses =
+                new ConcurrentHashMap<>(sources.size() * 2);
+        final List<EarthquakeSource> sourceList = sources;
+        List<String> sourceUrls = new ArrayList<>(sources.size());
+        for (EarthquakeSource source : sources) {
+            sourceUrls.add(source.buildUrl(url));
+        }
+        // Results stay in the order of sources, which is their preference
+        List<List<Earthquake>> results = ParallelFetch.fetchAll(sourceUrls, cache,
+                new ParallelFetch.Fetcher() {
+                    @Override
+                    public List<Earthquake> fetch(int index, String sourceUrl) {
+                        EarthquakeSource source = sourceList.get(index);
+                        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(source,
+                                sourceUrl, cache, cancellationToken);
+                        if (earthquakes != null) {
+                            responses.put(source, earthquakes);
+                        }
+                        return earthquakes;
+                    }
+                });
+        if (results == null) {
+            return null;
+        }
+
+        if (fetched != null) {
+            fetched.putAll(responses);
+        }
+        if (results.isEmpty()) {
+            return null;
+        }
+        return merge(results, orderBy);
+    }
+
+    /**
+     * Merges lists in order of preference into one without duplicate events
+     */
+    public static List<Earthquake> merge(List<List<Earthquake>> lists, String orderBy) {
+        long start = Metrics.start();
+        List<Earthquake> earthquakes = new EarthquakeDeduplicator().merge(lists);
+        Metrics.recordTime(Metrics.Stage.DEDUPLICATE, start);
+        EarthquakeSync.sort(earthquakes, orderBy);
+        return new EarthquakeStore(earthquakes);
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.android.quakereport;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs earthquake requests on a small pool of background threads, shared by the whole app.
+ *
+ * Requests are identified by a key, usually the query url. Asking for a key which is already
+ * being fetched joins the running request instead of starting another one. Queued requests
+ * run by priority, so what the user is waiting for goes before prefetching.
+ *
+ * Callers get a {@link Subscription}. Canceling the last subscription of a request aborts it,
+ * even in the middle of a download. Detaching keeps the request running, and its result is
+ * held until somebody asks for the same key again, i.e. the screen after a rotation.
+ */
+public class FetchEngine {
+
+    /** Priority of pages fetched ahead of scrolling */
+    public static final int PRIORITY_PREFETCH = 0;
+    /** Priority of data the user is waiting for */
+    public static final int PRIORITY_USER = 1;
+
+    private static final String LOG_TAG = FetchEngine.class.getSimpleName();
+    private static final int WORKER_COUNT = 2;
+    /** Results of detached requests kept for pickup, the oldest ones are dropped */
+    private static final int MAX_UNCLAIMED = 4;
+    /** Held results older than this are not handed over, fresh fetch is made instead */
+    private static final long MAX_UNCLAIMED_AGE = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Work done by a request on a worker thread
+     */
+    public interface Task {
+        /**
+         * Returns earthquakes or null on failure. Should stop early with
+         * {@link CancellationException} once cancellationToken is canceled.
+         */
+        List<Earthquake> execute(CancellationToken cancellationToken);
+    }
+
+    /**
+     * Receives result of a request on the main thread
+     */
+    public interface Callback {
+        void onFetchFinished(String key, List<Earthquake> earthquakes);
+    }
+
+    /**
+     * Interest of one caller in a request
+     */
+    public class Subscription {
+
+        // Members
+        private final Request mRequest;
+        private Callback mCallback;
+
+        private Subscription(Request request, Callback callback) {
+            mRequest = request;
+            mCallback = callback;
+        }
+
+        /**
+         * Stops delivering result to the callback, request is aborted if nobody else wants it
+         */
+        public void cancel() {
+            release(this, true);
+        }
+
+        /**
+         * Stops delivering result to the callback, but lets the request finish and keeps its
+         * result for the next caller asking for the same key
+         */
+        public void detach() {
+            release(this, false);
+        }
+    }
+
+    /**
+     * Result of a request which finished while nobody was subscribed
+     */
+    private static class Unclaimed {
+        final List<Earthquake> mEarthquakes;
+        final long mTime = SystemClock.elapsedRealtime();
+
+        Unclaimed(List<Earthquake> earthquakes) {
+            mEarthquakes = earthquakes;
+        }
+    }
+
+    private static FetchEngine sInstance;
+
+    /**
+     * One running or queued fetch, ordered by priority and then by age
+     */
+    private class Request implements Runnable, Comparable<Request> {
+
+        // Members
+        final String mKey;
+        final Task mTask;
+        final long mSequence = mSequenceCounter.incrementAndGet();
+        final CancellationToken mCancellationToken = new CancellationToken();
+        final List<Subscription> mSubscriptions = new ArrayList<>();
+        int mPriority;
+
+        Request(String key, Task task, int priority) {
+            mKey = key;
+            mTask = task;
+            mPriority = priority;
+        }
+
+        @Override
+        public void run() {
+            List<Earthquake> result = null;
+            if (!mCancellationToken.isCanceled()) {
+                try {
+                    result = mTask.execute(mCancellationToken);
+                } catch (CancellationException e) {
+                    Log.i(LOG_TAG, "Canceled " + mKey);
+                } catch (RuntimeException e) {
+                    Log.e(LOG_TAG, "Error fetching " + mKey, e);
+                }
+            }
+            finish(this, result);
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : mSequence > other.mSequence ? 1 : 0;
+        }
+    }
+
+    // Members
+    private final AtomicLong mSequenceCounter = new AtomicLong();
+    private final ThreadPoolExecutor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Request> mRequests = new HashMap<>();
+    private final LinkedHashMap<String, Unclaimed> mUnclaimed = new LinkedHashMap<>();
+
+    private FetchEngine() {
+        mExecutor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, LOG_TAG);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    public static synchronized FetchEngine getInstance() {
+        if (sInstance == null) {
+            sInstance = new FetchEngine();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Delivers earthquakes for key to callback on the main thread. Joins running request for
+     * the same key or picks up its held result, otherwise queues task with given priority.
+     * Must be called on the main thread.
+     */
+    public synchronized Subscription fetch(final String key, int priority, Task task,
+                                           Callback callback) {
+        Request request = mRequests.get(key);
+        Unclaimed unclaimed = mUnclaimed.remove(key);
+        if (request == null && unclaimed != null
+                && SystemClock.elapsedRealtime() - unclaimed.mTime < MAX_UNCLAIMED_AGE) {
+            // Finished while nobody was subscribed, hand over the held result
+            final List<Earthquake> earthquakes = unclaimed.mEarthquakes;
+            Log.i(LOG_TAG, "Picked up finished " + key);
+            request = new Request(key, task, priority);
+            final Subscription subscription = new Subscription(request, callback);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!deliver(subscription, key, earthquakes)) {
+                        synchronized (FetchEngine.this) {
+                            holdUnclaimed(key, earthquakes);
+                        }
+                    }
+                }
+            });
+            return subscription;
+        }
+
+        if (request == null) {
+            request = new Request(key, task, priority);
+            mRequests.put(key, request);
+            mExecutor.execute(request);
+        } else {
+            Log.i(LOG_TAG, "Joined running " + key);
+            if (priority > request.mPriority && mExecutor.remove(request)) {
+                // Still queued, so it can be moved ahead
+                request.mPriority = priority;
+                mExecutor.execute(request);
+            }
+        }
+        Subscription subscription = new Subscription(request, callback);
+        request.mSubscriptions.add(subscription);
+        return subscription;
+    }
+
+    private synchronized void release(Subscription subscription, boolean cancel) {
+        subscription.mCallback = null;
+        Request request = subscription.mRequest;
+        if (!request.mSubscriptions.remove(subscription)) {
+            return;
+        }
+        if (cancel && request.mSubscriptions.isEmpty() && mRequests.get(request.mKey) == request) {
+            Log.i(LOG_TAG, "Canceling " + request.mKey);
+            mRequests.remove(request.mKey);
+            mExecutor.remove(request);
+            request.mCancellationToken.cancel();
+        }
+    }
+
+    /**
+     * Called on worker thread when request is done
+     */
+    private void finish(final Request request, final List<Earthquake> earthquakes) {
+        final List<Subscription> subscriptions;
+        synchronized (this) {
+            if (mRequests.get(request.mKey) == request) {
+                mRequests.remove(request.mKey);
+            }
+            if (request.mCancellationToken.isCanceled()) {
+                return;
+            }
+            subscriptions = new ArrayList<>(request.mSubscriptions);
+            request.mSubscriptions.clear();
+            if (subscriptions.isEmpty()) {
+                holdUnclaimed(request.mKey, earthquakes);
+                return;
+            }
+        }
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean delivered = false;
+                for (Subscription subscription : subscriptions) {
+                    delivered |= deliver(subscription, request.mKey, earthquakes);
+                }
+                if (!delivered) {
+                    // Everybody detached after the request finished
+                    synchronized (FetchEngine.this) {
+                        holdUnclaimed(request.mKey, earthquakes);
+                    }
+                }
+            }
+        });
+    }
+
+    private boolean deliver(Subscription subscription, String key, List<Earthquake> earthquakes) {
+        Callback callback = subscription.mCallback;
+        if (callback == null) {
+            return false;
+        }
+        subscription.mCallback = null;
+        callback.onFetchFinished(key, earthquakes);
+        return true;
+    }
+
+    private void holdUnclaimed(String key, List<Earthquake> earthquakes) {
+        mUnclaimed.remove(key);
+        mUnclaimed.put(key, new Unclaimed(earthquakes));
+        if (mUnclaimed.size() > MAX_UNCLAIMED) {
+            mUnclaimed.remove(mUnclaimed.keySet().iterator().next());
+        }
+    }
+}
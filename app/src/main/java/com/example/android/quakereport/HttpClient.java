@@ -0,0 +1,274 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Small HTTP client for GET requests, shared by everything that talks to USGS.
+ *
+ * Connections are never disconnected, response bodies are read to the end and closed
+ * instead, so HttpURLConnection can keep the socket alive and reuse it for the next request.
+ * Responses are requested gzip compressed and decompressed while they are read.
+ */
+public class HttpClient {
+
+    /**
+     * Response of one request, must be closed to release the connection
+     */
+    public static class Response implements Closeable {
+
+        // Members
+        private final HttpURLConnection mConnection;
+        private final int mResponseCode;
+        private InputStream mBody;
+        private CountingInputStream mCounter;
+        private final CancellationToken mCancellationToken;
+        private final Runnable mAbort;
+
+        private Response(HttpURLConnection connection, int responseCode,
+                         CancellationToken cancellationToken, Runnable abort) {
+            mConnection = connection;
+            mResponseCode = responseCode;
+            mCancellationToken = cancellationToken;
+            mAbort = abort;
+        }
+
+        // Getters
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * Returns decompressed response body
+         */
+        public InputStream getBody() throws IOException {
+            if (mResponseCode == HttpURLConnection.HTTP_NOT_MODIFIED
+                    || mResponseCode == HttpURLConnection.HTTP_NO_CONTENT) {
+                return null;
+            }
+            if (mBody == null) {
+                InputStream input = mResponseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        ? mConnection.getErrorStream() : mConnection.getInputStream();
+                if (input == null) {
+                    return null;
+                }
+                if (Metrics.isEnabled()) {
+                    mCounter = new CountingInputStream(input);
+                    input = mCounter;
+                }
+                input = new BufferedInputStream(input);
+                if ("gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    input = new GZIPInputStream(input);
+                }
+                mBody = input;
+            }
+            return mBody;
+        }
+
+        /**
+         * Reads whatever is left of the body and closes it, which returns connection to the pool
+         */
+        @Override
+        public void close() throws IOException {
+            if (mCancellationToken != null) {
+                mCancellationToken.removeOnCancelListener(mAbort);
+                if (mCancellationToken.isCanceled()) {
+                    // Rest of canceled response is not worth reading, drop the connection
+                    mConnection.disconnect();
+                    return;
+                }
+            }
+
+            InputStream body = getBody();
+            if (body == null) {
+                return;
+            }
+            try {
+                byte[] buffer = new byte[4096];
+                while (body.read(buffer) != -1) {
+                    // Drain body so connection can be reused
+                }
+            } finally {
+                body.close();
+            }
+            if (mCounter != null) {
+                Metrics.record(Metrics.Stage.BYTES_READ, mCounter.getCount());
+            }
+        }
+    }
+
+    /**
+     * Counts bytes as they come from the connection, before they are decompressed
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        // Members
+        private long mCount;
+
+        CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c != -1) {
+                mCount++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                mCount += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+
+    private static final String LOG_TAG = HttpClient.class.getSimpleName();
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 15000; /* milliseconds */
+    private static final int DEFAULT_READ_TIMEOUT = 10000; /* milliseconds */
+    private static final int DEFAULT_MAX_REDIRECTS = 5;
+
+    private static HttpClient sDefault;
+
+    // Members
+    private final int mConnectTimeout;
+    private final int mReadTimeout;
+    private final int mMaxRedirects;
+
+    // Constructors
+    public HttpClient(int connectTimeout, int readTimeout, int maxRedirects) {
+        mConnectTimeout = connectTimeout;
+        mReadTimeout = readTimeout;
+        mMaxRedirects = maxRedirects;
+    }
+
+    /**
+     * Returns client shared by the whole app
+     */
+    public static synchronized HttpClient getDefault() {
+        if (sDefault == null) {
+            sDefault = new HttpClient(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT,
+                    DEFAULT_MAX_REDIRECTS);
+        }
+        return sDefault;
+    }
+
+    /**
+     * Makes GET request without extra headers
+     */
+    public Response get(URL url) throws IOException {
+        return get(url, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Makes GET request with given headers, following at most mMaxRedirects redirects
+     */
+    public Response get(URL url, Map<String, String> headers) throws IOException {
+        return get(url, headers, null);
+    }
+
+    /**
+     * Makes GET request which is aborted when cancellationToken is canceled, reads blocked
+     * on the connection then fail instead of waiting for the timeout
+     */
+    public Response get(URL url, Map<String, String> headers, CancellationToken cancellationToken)
+            throws IOException {
+        for (int redirects = 0; ; redirects++) {
+            if (cancellationToken != null) {
+                cancellationToken.throwIfCanceled();
+            }
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(mConnectTimeout);
+            connection.setReadTimeout(mReadTimeout);
+            connection.setRequestMethod("GET");
+            // Redirects are followed here, so their number can be limited
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+
+            Runnable abort = new Runnable() {
+                @Override
+                public void run() {
+                    connection.disconnect();
+                }
+            };
+            if (cancellationToken != null) {
+                cancellationToken.addOnCancelListener(abort);
+            }
+
+            int responseCode;
+            try {
+                // Connecting includes DNS lookup and TLS handshake, it is quick for reused connections
+                long start = Metrics.start();
+                connection.connect();
+                Metrics.recordTime(Metrics.Stage.CONNECT, start);
+
+                start = Metrics.start();
+                responseCode = connection.getResponseCode();
+                Metrics.recordTime(Metrics.Stage.FIRST_BYTE, start);
+            } catch (IOException e) {
+                if (cancellationToken != null) {
+                    cancellationToken.removeOnCancelListener(abort);
+                    cancellationToken.throwIfCanceled();
+                }
+                throw e;
+            }
+            Response response = new Response(connection, responseCode, cancellationToken, abort);
+            if (!isRedirect(response.getResponseCode())) {
+                return response;
+            }
+
+            String location = response.getHeader("Location");
+            response.close();
+            if (location == null) {
+                throw new IOException("Redirect without location from " + url);
+            }
+            if (redirects == mMaxRedirects) {
+                throw new IOException("Too many redirects from " + url);
+            }
+            Log.d(LOG_TAG, "Following redirect to " + location);
+            url = new URL(url, location);
+        }
+    }
+
+    private static boolean isRedirect(int responseCode) {
+        return responseCode == HttpURLConnection.HTTP_MOVED_PERM
+                || responseCode == HttpURLConnection.HTTP_MOVED_TEMP
+                || responseCode == HttpURLConnection.HTTP_SEE_OTHER
+                || responseCode == 307 /* Temporary Redirect */
+                || responseCode == 308 /* Permanent Redirect */;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.quakereport;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Inverted index from words of primary locations to locations, for search as you type.
+ *
+ * Every distinct location is indexed once, under the words of its primary location as
+ * {@link EarthquakeFormatter} splits it, so "74km NW of Rumoi, Japan" is found by "rumoi"
+ * and "japan" but not by "nw". Words are kept sorted, so all words with a prefix are one
+ * range of the tree. Case and accents don't matter. Locations are added as earthquakes
+ * arrive and are never removed, rows of a store are matched by their location in
+ * one pass over its location keys.
+ *
+ * Not thread safe, it is used on the main thread by {@link QuakeArrayAdapter}.
+ */
+public class LocationIndex {
+
+    private static final byte UNKNOWN = 0;
+    private static final byte MATCH = 1;
+    private static final byte NO_MATCH = 2;
+
+    // Members
+    /** Ids of locations with every word in their primary location */
+    private final TreeMap<String, BitSet> mWords = new TreeMap<>();
+    private final HashMap<String, Integer> mLocationIds = new HashMap<>();
+
+    /**
+     * Indexes words of the location, unless it is indexed already
+     */
+    public void add(String location) {
+        if (location == null || mLocationIds.containsKey(location)) {
+            return;
+        }
+        int id = mLocationIds.size();
+        mLocationIds.put(location, id);
+        for (String word : tokenize(EarthquakeFormatter.split(location)[1])) {
+            BitSet ids = mWords.get(word);
+            if (ids == null) {
+                ids = new BitSet();
+                mWords.put(word, ids);
+            }
+            ids.set(id);
+        }
+    }
+
+    /**
+     * Returns number of distinct locations indexed
+     */
+    public int size() {
+        return mLocationIds.size();
+    }
+
+    public void clear() {
+        mWords.clear();
+        mLocationIds.clear();
+    }
+
+    /**
+     * Returns positions of rows in store whose primary location has words starting with
+     * every word of the query, in order. Query without words matches every row. Locations
+     * of the rows have to be added first.
+     */
+    public int[] search(EarthquakeStore store, String query) {
+        BitSet locations = findLocations(query);
+        int[] positions = new int[store.size()];
+        int count = 0;
+        // Rows share few distinct locations, each is looked up once
+        byte[] matches = new byte[store.getLocationKeyCount()];
+        for (int i = 0; i < positions.length; i++) {
+            int key = store.getLocationKey(i);
+            byte match = matches[key];
+            if (match == UNKNOWN) {
+                Integer id = mLocationIds.get(store.getLocation(i));
+                match = locations == null || id != null && locations.get(id) ? MATCH : NO_MATCH;
+                matches[key] = match;
+            }
+            if (match == MATCH) {
+                positions[count++] = i;
+            }
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    /**
+     * Returns true if primary location has words starting with every one of prefixes, which
+     * are words of a query as tokenize returns them. The same as search does for one row,
+     * location doesn't have to be added.
+     */
+    static boolean matches(String location, List<String> prefixes) {
+        if (location == null) {
+            return prefixes.isEmpty();
+        }
+        List<String> words = tokenize(EarthquakeFormatter.split(location)[1]);
+        for (String prefix : prefixes) {
+            boolean found = false;
+            for (String word : words) {
+                if (word.startsWith(prefix)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns ids of locations matching every word of the query, or null if it has none
+     */
+    private BitSet findLocations(String query) {
+        BitSet result = null;
+        for (String prefix : tokenize(query)) {
+            BitSet matches = new BitSet();
+            for (BitSet ids : mWords.subMap(prefix, true, prefix + Character.MAX_VALUE, false)
+                    .values()) {
+                matches.or(ids);
+            }
+            if (result == null) {
+                result = matches;
+            } else {
+                result.and(matches);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns lower case words of text without accents, words are runs of letters and digits
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK && word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+}
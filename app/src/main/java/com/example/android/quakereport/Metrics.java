@@ -0,0 +1,246 @@
+package com.example.android.quakereport;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and sizes of the stages of loading earthquakes, collected into histograms.
+ *
+ * Collecting is off by default. While it is off every call here returns after reading
+ * one flag, so instrumented code doesn't even read the clock.
+ */
+public final class Metrics {
+
+    /**
+     * Stage of the pipeline and unit of its values
+     */
+    public enum Stage {
+        CONNECT("Connect", Unit.MICROSECONDS),
+        FIRST_BYTE("Time to first byte", Unit.MICROSECONDS),
+        BYTES_READ("Bytes read", Unit.BYTES),
+        PARSE("Download and parse", Unit.MICROSECONDS),
+        PARSE_RATE("Parsed events per second", Unit.COUNT),
+        FORMAT("Format rows", Unit.MICROSECONDS),
+        LOCAL_QUERY("Query answered locally", Unit.MICROSECONDS),
+        SNAPSHOT_READ("Snapshot read", Unit.MICROSECONDS),
+        FAILED_ATTEMPT("Failed request", Unit.MICROSECONDS),
+        RETRY_DELAY("Wait before retry", Unit.MICROSECONDS),
+        ATTEMPTS("Attempts per request", Unit.COUNT),
+        CIRCUIT_OPEN("Refused by open circuit", Unit.COUNT),
+        FALLBACK("Stored earthquakes shown on failure", Unit.COUNT),
+        DEDUPLICATE("Merge sources", Unit.MICROSECONDS),
+        PUSH_BATCH("Pushed earthquakes per batch", Unit.COUNT),
+        PUSH_DELAY("Push arrival to shown", Unit.MICROSECONDS),
+        SEARCH("Search locations", Unit.MICROSECONDS),
+        LOAD("Whole load", Unit.MICROSECONDS),
+        BIND("Bind row", Unit.MICROSECONDS);
+
+        private final String mLabel;
+        private final Unit mUnit;
+
+        Stage(String label, Unit unit) {
+            mLabel = label;
+            mUnit = unit;
+        }
+
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    private enum Unit {
+        MICROSECONDS, BYTES, COUNT
+    }
+
+    /**
+     * Lock free histogram of non-negative values. Buckets grow exponentially with eight
+     * linear steps between powers of two, so any value is off by at most 12.5%.
+     */
+    public static class Histogram {
+
+        /** Values below this have a bucket each */
+        private static final int LINEAR_BUCKETS = 8;
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * LINEAR_BUCKETS;
+
+        // Members
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+        private final AtomicLong mMax = new AtomicLong();
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            mBuckets.incrementAndGet(getBucket(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+            long max = mMax.get();
+            while (value > max && !mMax.compareAndSet(max, value)) {
+                max = mMax.get();
+            }
+        }
+
+        // Getters
+        public long getCount() {
+            return mCount.get();
+        }
+
+        public long getMax() {
+            return mMax.get();
+        }
+
+        public double getMean() {
+            long count = mCount.get();
+            return count == 0 ? 0 : (double) mSum.get() / count;
+        }
+
+        /**
+         * Returns upper bound of the bucket holding given percentile (0 to 100)
+         */
+        public long getPercentile(double percentile) {
+            long count = mCount.get();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += mBuckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(getBucketLimit(i), mMax.get());
+                }
+            }
+            return mMax.get();
+        }
+
+        public void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+            mMax.set(0);
+        }
+
+        private static int getBucket(long value) {
+            if (value < LINEAR_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (LINEAR_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * LINEAR_BUCKETS + subBucket;
+        }
+
+        /**
+         * Returns the largest value which falls into given bucket
+         */
+        private static long getBucketLimit(int bucket) {
+            if (bucket < LINEAR_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / LINEAR_BUCKETS + SUB_BUCKET_BITS - 1;
+            long subBucket = bucket % LINEAR_BUCKETS;
+            long start = (LINEAR_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+            return start + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+
+    private static final Histogram[] sHistograms = new Histogram[Stage.values().length];
+    private static volatile boolean sEnabled;
+
+    static {
+        for (int i = 0; i < sHistograms.length; i++) {
+            sHistograms[i] = new Histogram();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Returns start time to pass to recordTime, or 0 if collecting is off
+     */
+    public static long start() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records time passed since start, which was returned by start()
+     */
+    public static void recordTime(Stage stage, long start) {
+        if (sEnabled && start != 0) {
+            sHistograms[stage.ordinal()].record(
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+    }
+
+    /**
+     * Records how many things per second were done since start, which was returned by start()
+     */
+    public static void recordRate(Stage stage, long count, long start) {
+        if (sEnabled && start != 0) {
+            long nanoseconds = Math.max(1, System.nanoTime() - start);
+            sHistograms[stage.ordinal()].record(count * TimeUnit.SECONDS.toNanos(1) / nanoseconds);
+        }
+    }
+
+    public static void record(Stage stage, long value) {
+        if (sEnabled) {
+            sHistograms[stage.ordinal()].record(value);
+        }
+    }
+
+    public static Histogram getHistogram(Stage stage) {
+        return sHistograms[stage.ordinal()];
+    }
+
+    public static void reset() {
+        for (Histogram histogram : sHistograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns readable summary of every stage, i.e. for a debug dialog or log
+     */
+    public static String dump() {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = sHistograms[stage.ordinal()];
+            builder.append(stage.getLabel()).append(": ");
+            if (histogram.getCount() == 0) {
+                builder.append("-\n");
+                continue;
+            }
+            builder.append("n=").append(histogram.getCount())
+                    .append(" mean=").append(format(stage, histogram.getMean()))
+                    .append(" p50=").append(format(stage, histogram.getPercentile(50)))
+                    .append(" p90=").append(format(stage, histogram.getPercentile(90)))
+                    .append(" p99=").append(format(stage, histogram.getPercentile(99)))
+                    .append(" max=").append(format(stage, histogram.getMax()))
+                    .append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static String format(Stage stage, double value) {
+        switch (stage.mUnit) {
+            case MICROSECONDS:
+                return String.format(Locale.US, "%.1f ms", value / 1000);
+            case BYTES:
+                return String.format(Locale.US, "%.1f KB", value / 1024);
+            default:
+                return String.format(Locale.US, "%.0f", value);
+        }
+    }
+}
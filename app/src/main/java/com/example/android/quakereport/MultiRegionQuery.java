@@ -0,0 +1,171 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Queries USGS for several regions at once and merges the results into one list.
+ *
+ * Every region is requested in parallel by {@link ParallelFetch}, so the whole query takes
+ * about as long as the slowest region.
+ */
+public final class MultiRegionQuery {
+
+    /**
+     * Area to query, either a latitude/longitude box or a circle around a point
+     */
+    public static class Region {
+
+        // Members
+        private final double[] mValues;
+
+        private Region(double... values) {
+            mValues = values;
+        }
+
+        public static Region boundingBox(double minLatitude, double maxLatitude,
+                                         double minLongitude, double maxLongitude) {
+            return new Region(minLatitude, maxLatitude, minLongitude, maxLongitude);
+        }
+
+        public static Region circle(double latitude, double longitude, double radiusKm) {
+            return new Region(latitude, longitude, radiusKm);
+        }
+
+        /**
+         * Parses regions separated by ';'. Three comma separated numbers are a circle
+         * (latitude, longitude, radius in km), four are a box (min and max latitude, min and
+         * max longitude). Entries which can't be parsed are skipped.
+         */
+        public static List<Region> parseList(String text) {
+            List<Region> regions = new ArrayList<>();
+            if (text == null) {
+                return regions;
+            }
+            for (String entry : text.split(";")) {
+                String[] parts = entry.trim().split("\\s*,\\s*");
+                if (parts.length != 3 && parts.length != 4) {
+                    continue;
+                }
+                try {
+                    double[] values = new double[parts.length];
+                    for (int i = 0; i < parts.length; i++) {
+                        values[i] = Double.parseDouble(parts[i]);
+                    }
+                    regions.add(new Region(values));
+                } catch (NumberFormatException e) {
+                    Log.e(LOG_TAG, "Skipping region " + entry, e);
+                }
+            }
+            return regions;
+        }
+
+        /**
+         * Returns true if the point is inside the region. Box with min longitude greater than
+         * max longitude crosses the antimeridian, as in FDSN queries.
+         */
+        public boolean contains(double latitude, double longitude) {
+            if (mValues.length == 4) {
+                if (!(latitude >= mValues[0] && latitude <= mValues[1])) {
+                    return false;
+                }
+                return mValues[2] <= mValues[3]
+                        ? longitude >= mValues[2] && longitude <= mValues[3]
+                        : longitude >= mValues[2] || longitude <= mValues[3];
+            }
+            // Points further north or south than the radius are rejected without trigonometry
+            double latitudeDistanceKm = Math.toRadians(Math.abs(latitude - mValues[0]))
+                    * SpatialIndex.EARTH_RADIUS_KM;
+            return latitudeDistanceKm <= mValues[2]
+                    && SpatialIndex.distanceKm(mValues[0], mValues[1], latitude, longitude)
+                    <= mValues[2];
+        }
+
+        /**
+         * Returns query url with FDSN parameters for this region appended
+         */
+        public String appendTo(String url) {
+            StringBuilder builder = new StringBuilder(url);
+            builder.append(url.indexOf('?') == -1 ? '?' : '&');
+            if (mValues.length == 4) {
+                builder.append(String.format(Locale.US,
+                        "minlatitude=%s&maxlatitude=%s&minlongitude=%s&maxlongitude=%s",
+                        mValues[0], mValues[1], mValues[2], mValues[3]));
+            } else {
+                builder.append(String.format(Locale.US, "latitude=%s&longitude=%s&maxradiuskm=%s",
+                        mValues[0], mValues[1], mValues[2]));
+            }
+            return builder.toString();
+        }
+    }
+
+    private static final String LOG_TAG = MultiRegionQuery.class.getSimpleName();
+
+    private MultiRegionQuery() {
+    }
+
+    /**
+     * Fetches all regions in parallel and returns earthquakes from all of them, without
+     * duplicates and sorted by orderBy. Regions which failed get their last good response
+     * from cache or are left out, null is returned only if nothing is left.
+     */
+    public static List<Earthquake> fetchEarthquakeData(String url, List<Region> regions,
+                                                       String orderBy, EarthquakeCache cache) {
+        return fetchEarthquakeData(url, regions, orderBy, cache, null);
+    }
+
+    /**
+     * Same as fetchEarthquakeData(url, regions, orderBy, cache), canceling requests of all
+     * regions when cancellationToken is canceled
+     */
+    public static List<Earthquake> fetchEarthquakeData(String url, List<Region> regions,
+                                                       String orderBy, final EarthquakeCache cache,
+                                                       final CancellationToken cancellationToken) {
+        Log.i(LOG_TAG, "fetchEarthquakeData: " + regions.size() + " regions");
+
+        List<String> regionUrls = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            regionUrls.add(region.appendTo(url));
+        }
+        List<List<Earthquake>> results = ParallelFetch.fetchAll(regionUrls, cache,
+                new ParallelFetch.Fetcher() {
+                    @Override
+                    public List<Earthquake> fetch(int index, String regionUrl) {
+                        return QueryUtils.fetchEarthquakeData(regionUrl, cache,
+                                cancellationToken);
+                    }
+                });
+
+        if (results == null || results.isEmpty()) {
+            return null;
+        }
+        return merge(results, orderBy);
+    }
+
+    /**
+     * Merges lists into one, keeping only the first earthquake with given event id
+     */
+    public static List<Earthquake> merge(List<List<Earthquake>> lists, String orderBy) {
+        Map<String, Earthquake> merged = new LinkedHashMap<>();
+        List<Earthquake> withoutId = new ArrayList<>();
+        for (List<Earthquake> list : lists) {
+            for (Earthquake earthquake : list) {
+                if (earthquake.getId() == null) {
+                    withoutId.add(earthquake);
+                } else if (!merged.containsKey(earthquake.getId())) {
+                    merged.put(earthquake.getId(), earthquake);
+                }
+            }
+        }
+
+        List<Earthquake> earthquakes = new ArrayList<>(merged.values());
+        earthquakes.addAll(withoutId);
+        EarthquakeSync.sort(earthquakes, orderBy);
+        return new EarthquakeStore(earthquakes);
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.quakereport;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Fetches several urls at once and collects their results in order, for queries merged
+ * from several regions or sources.
+ *
+ * Everything runs on one small pool of threads shared by the whole app, so merged queries
+ * running at the same time can't open more than MAX_THREADS connections together.
+ */
+public final class ParallelFetch {
+
+    /**
+     * Fetches one url on a thread of the pool
+     */
+    public interface Fetcher {
+        /**
+         * Returns earthquakes of url at given index, or null if it failed
+         */
+        List<Earthquake> fetch(int index, String url);
+    }
+
+    private static final String LOG_TAG = ParallelFetch.class.getSimpleName();
+    static final int MAX_THREADS = 4;
+
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(MAX_THREADS,
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, LOG_TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private ParallelFetch() {
+    }
+
+    /**
+     * Returns the shared pool, for other work which is split between threads
+     */
+    static ExecutorService getExecutor() {
+        return sExecutor;
+    }
+
+    /**
+     * Fetches all urls in parallel. Urls which failed get their last good response from
+     * cache or are left out. Returns results in the order of urls, or null if the calling
+     * thread was interrupted.
+     *
+     * @throws CancellationException if a fetch was canceled
+     */
+    public static List<List<Earthquake>> fetchAll(List<String> urls, final EarthquakeCache cache,
+                                                  final Fetcher fetcher) {
+        List<Future<List<Earthquake>>> futures = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            final int index = i;
+            final String url = urls.get(i);
+            futures.add(sExecutor.submit(new Callable<List<Earthquake>>() {
+                @Override
+                public List<Earthquake> call() {
+                    List<Earthquake> earthquakes = fetcher.fetch(index, url);
+                    if (earthquakes == null && cache != null) {
+                        EarthquakeCache.Entry cached = cache.get(url);
+                        if (cached != null) {
+                            Log.i(LOG_TAG, "Using stored result of failed url " + url);
+                            Metrics.record(Metrics.Stage.FALLBACK, cached.getEarthquakes().size());
+                            earthquakes = cached.getEarthquakes();
+                        }
+                    }
+                    return earthquakes;
+                }
+            }));
+        }
+
+        List<List<Earthquake>> results = new ArrayList<>(futures.size());
+        for (Future<List<Earthquake>> future : futures) {
+            try {
+                List<Earthquake> result = future.get();
+                if (result != null) {
+                    results.add(result);
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CancellationException) {
+                    throw (CancellationException) e.getCause();
+                }
+                Log.e(LOG_TAG, "Error fetching url.", e);
+            } catch (InterruptedException e) {
+                for (Future<List<Earthquake>> pending : futures) {
+                    pending.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return results;
+    }
+}
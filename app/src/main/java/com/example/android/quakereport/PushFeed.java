@@ -0,0 +1,396 @@
+package com.example.android.quakereport;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one long lived connection to a push feed and delivers earthquakes as soon as they
+ * arrive, instead of waiting for the next poll of {@link RefreshScheduler}.
+ *
+ * Feed is a server-sent events stream (text/event-stream) whose events carry one USGS
+ * GeoJSON feature each. Events are parsed one by one as their bytes arrive and delivered
+ * on the main thread in batches, at most one batch per BATCH_INTERVAL. Updates of the same
+ * event waiting in a batch are collapsed into the latest one. When the main thread falls
+ * behind, reading stops until it catches up, so a burst of events can't fill the memory.
+ * Dropped connection is opened again with Last-Event-ID, so the server can send what
+ * was missed.
+ */
+public class PushFeed {
+
+    /**
+     * Receives pushed earthquakes on the main thread
+     */
+    public interface Listener {
+        void onEarthquakesPushed(List<Earthquake> earthquakes);
+    }
+
+    /**
+     * Runs deliveries on the thread of the listener, the main thread in the app
+     */
+    interface Dispatcher {
+        void postDelayed(Runnable runnable, long delay);
+
+        void removeCallbacks(Runnable runnable);
+
+        /**
+         * Returns milliseconds of a clock which doesn't jump
+         */
+        long uptimeMillis();
+    }
+
+    private static final String LOG_TAG = PushFeed.class.getSimpleName();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long BATCH_INTERVAL = 250; /* milliseconds */
+    /** Reading stops while this many earthquakes wait for the main thread */
+    private static final int MAX_PENDING = 500;
+    private static final int CONNECT_TIMEOUT = 15000; /* milliseconds */
+    /** Server sends a comment at least this often while it has no events, or it is dead */
+    private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(90);
+    private static final long MIN_RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(3);
+    private static final long MAX_RECONNECT_DELAY = TimeUnit.MINUTES.toMillis(5);
+    /** Longer lines and events are not GeoJSON features, connection is dropped */
+    private static final int MAX_EVENT_SIZE = 1024 * 1024;
+
+    // Members
+    private final String mUrl;
+    private final Listener mListener;
+    private final HttpClient mHttpClient;
+    private final Dispatcher mDispatcher;
+    private final CancellationToken mCancellationToken = new CancellationToken();
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            deliver();
+        }
+    };
+
+    // Guarded by mPending
+    /** Latest version of every earthquake waiting for delivery, by event id */
+    private final LinkedHashMap<String, Earthquake> mPending = new LinkedHashMap<>();
+    private boolean mDeliveryPosted;
+    private long mLastDelivery;
+    /** Arrival of the oldest earthquake waiting, for metrics */
+    private long mPendingSince;
+
+    // Used only on the feed thread
+    private final FeatureBuffer mFeatureBuffer = new FeatureBuffer();
+    private String mLastEventId;
+    private long mReconnectDelay = MIN_RECONNECT_DELAY;
+    /** Reconnection time asked for by the server, -1 if it didn't */
+    private long mServerRetry = -1;
+
+    // Constructors
+    public PushFeed(String url, Listener listener) {
+        this(url, listener, new Dispatcher() {
+            private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void postDelayed(Runnable runnable, long delay) {
+                mMainHandler.postDelayed(runnable, delay);
+            }
+
+            @Override
+            public void removeCallbacks(Runnable runnable) {
+                mMainHandler.removeCallbacks(runnable);
+            }
+
+            @Override
+            public long uptimeMillis() {
+                return SystemClock.uptimeMillis();
+            }
+        });
+    }
+
+    /**
+     * Delivers batches through dispatcher instead of the main thread, i.e. in tests
+     */
+    PushFeed(String url, Listener listener, Dispatcher dispatcher) {
+        mUrl = url;
+        mListener = listener;
+        mHttpClient = new HttpClient(CONNECT_TIMEOUT, READ_TIMEOUT, 5);
+        mDispatcher = dispatcher;
+    }
+
+    /**
+     * Opens the connection on its own thread, it is kept open until stop()
+     */
+    public void start() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runFeed();
+            }
+        }, LOG_TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Closes the connection, listener is not called anymore. Must be called on the main thread.
+     */
+    public void stop() {
+        mCancellationToken.cancel();
+        mDispatcher.removeCallbacks(mDeliver);
+        synchronized (mPending) {
+            mPending.clear();
+            mPending.notifyAll();
+        }
+    }
+
+    /**
+     * Runs on the feed thread until the feed is stopped
+     */
+    private void runFeed() {
+        while (!mCancellationToken.isCanceled()) {
+            try {
+                readFeed();
+            } catch (CancellationException e) {
+                return;
+            } catch (IOException e) {
+                if (mCancellationToken.isCanceled()) {
+                    return;
+                }
+                Log.e(LOG_TAG, "Push feed connection failed", e);
+            }
+
+            long delay = mServerRetry >= 0 ? mServerRetry : mReconnectDelay;
+            mReconnectDelay = Math.min(MAX_RECONNECT_DELAY, mReconnectDelay * 2);
+            Log.i(LOG_TAG, "Reconnecting to push feed in " + delay + " ms");
+            try {
+                RetryPolicy.sleep(delay, mCancellationToken);
+            } catch (CancellationException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Opens connection and reads events until it is closed
+     */
+    private void readFeed() throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", "text/event-stream");
+        if (mLastEventId != null) {
+            headers.put("Last-Event-ID", mLastEventId);
+        }
+
+        // Connection is dropped, not drained, when reading ends, the feed never ends by itself
+        final CancellationToken connectionToken = new CancellationToken();
+        Runnable cancelConnection = new Runnable() {
+            @Override
+            public void run() {
+                connectionToken.cancel();
+            }
+        };
+        mCancellationToken.addOnCancelListener(cancelConnection);
+        HttpClient.Response response = null;
+        try {
+            response = mHttpClient.get(new URL(mUrl), headers, connectionToken);
+            if (response.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Push feed returned error: " + response.getResponseCode());
+            }
+            InputStream body = response.getBody();
+            if (body != null) {
+                Log.i(LOG_TAG, "Connected to push feed " + mUrl);
+                readEvents(body);
+            }
+        } finally {
+            mCancellationToken.removeOnCancelListener(cancelConnection);
+            connectionToken.cancel();
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Splits stream into lines and lines into events, as described by the server-sent events
+     * specification. Only the fields used by push feeds are understood.
+     */
+    private void readEvents(InputStream input) throws IOException {
+        byte[] buffer = new byte[8192];
+        byte[] line = new byte[256];
+        int lineLength = 0;
+        byte[] data = new byte[4096];
+        int dataLength = 0;
+        String eventType = null;
+        String eventId = null;
+        boolean afterCarriageReturn = false;
+
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            for (int i = 0; i < count; i++) {
+                byte b = buffer[i];
+                if (b == '\n' && afterCarriageReturn) {
+                    // Second half of CRLF, line already ended at CR
+                    afterCarriageReturn = false;
+                    continue;
+                }
+                afterCarriageReturn = b == '\r';
+                if (b != '\n' && b != '\r') {
+                    if (lineLength == line.length) {
+                        if (lineLength >= MAX_EVENT_SIZE) {
+                            throw new IOException("Push feed line too long");
+                        }
+                        line = Arrays.copyOf(line, lineLength * 2);
+                    }
+                    line[lineLength++] = b;
+                    continue;
+                }
+
+                // Empty line ends the event
+                if (lineLength == 0) {
+                    if (dataLength > 0 && (eventType == null || eventType.equals("message"))) {
+                        dispatch(data, dataLength);
+                    }
+                    if (eventId != null) {
+                        mLastEventId = eventId;
+                    }
+                    dataLength = 0;
+                    eventType = null;
+                    eventId = null;
+                    continue;
+                }
+
+                int colon = indexOf(line, lineLength, (byte) ':');
+                int valueStart = colon == -1 ? lineLength : colon + 1;
+                if (valueStart < lineLength && line[valueStart] == ' ') {
+                    valueStart++;
+                }
+                String field = new String(line, 0, colon == -1 ? lineLength : colon, UTF_8);
+                int valueLength = lineLength - valueStart;
+                lineLength = 0;
+                if (colon == 0) {
+                    // Comment, server sends them to keep the connection alive
+                    continue;
+                }
+                if (field.equals("data")) {
+                    if (dataLength + valueLength + 1 > MAX_EVENT_SIZE) {
+                        throw new IOException("Push feed event too large");
+                    }
+                    if (dataLength + valueLength + 1 > data.length) {
+                        data = Arrays.copyOf(data, Math.max(data.length * 2,
+                                dataLength + valueLength + 1));
+                    }
+                    System.arraycopy(line, valueStart, data, dataLength, valueLength);
+                    dataLength += valueLength;
+                    data[dataLength++] = '\n';
+                } else if (field.equals("event")) {
+                    eventType = new String(line, valueStart, valueLength, UTF_8);
+                } else if (field.equals("id")) {
+                    eventId = new String(line, valueStart, valueLength, UTF_8);
+                } else if (field.equals("retry")) {
+                    try {
+                        mServerRetry = Long.parseLong(new String(line, valueStart, valueLength,
+                                UTF_8));
+                    } catch (NumberFormatException e) {
+                        // Ignored, as the specification asks
+                    }
+                }
+            }
+        }
+        Log.i(LOG_TAG, "Push feed closed by server");
+    }
+
+    /**
+     * Parses data of one event, feature is read in place from the event bytes
+     */
+    private void dispatch(byte[] data, int length) throws IOException {
+        Earthquake earthquake;
+        try {
+            EarthquakeStreamParser parser = new EarthquakeStreamParser(data, 0, length);
+            parser.setFeatureBuffer(mFeatureBuffer);
+            earthquake = parser.readSingleFeature();
+        } catch (EarthquakeStreamParser.MalformedJsonException e) {
+            // One bad event is skipped, the connection is still fine
+            Log.e(LOG_TAG, "Problem parsing pushed earthquake", e);
+            return;
+        }
+        // Connection works, the next one is opened again quickly if it drops
+        mReconnectDelay = MIN_RECONNECT_DELAY;
+        if (earthquake.getId() == null) {
+            // Can't be merged with what is shown
+            return;
+        }
+        push(earthquake);
+    }
+
+    /**
+     * Queues earthquake for delivery, waits while too many earthquakes are queued
+     */
+    private void push(Earthquake earthquake) throws IOException {
+        synchronized (mPending) {
+            while (mPending.size() >= MAX_PENDING && !mCancellationToken.isCanceled()) {
+                try {
+                    mPending.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            mCancellationToken.throwIfCanceled();
+
+            if (mPending.isEmpty()) {
+                mPendingSince = Metrics.start();
+            }
+            // Removed first, so the latest version moves to the end
+            mPending.remove(earthquake.getId());
+            mPending.put(earthquake.getId(), earthquake);
+            if (!mDeliveryPosted) {
+                // First earthquake after a quiet period is delivered right away
+                mDeliveryPosted = true;
+                long delay = mLastDelivery + BATCH_INTERVAL - mDispatcher.uptimeMillis();
+                mDispatcher.postDelayed(mDeliver, Math.max(0, delay));
+            }
+        }
+    }
+
+    /**
+     * Runs on the main thread
+     */
+    private void deliver() {
+        List<Earthquake> earthquakes;
+        long pendingSince;
+        synchronized (mPending) {
+            mDeliveryPosted = false;
+            mLastDelivery = mDispatcher.uptimeMillis();
+            earthquakes = new ArrayList<>(mPending.values());
+            pendingSince = mPendingSince;
+            mPending.clear();
+            mPending.notifyAll();
+        }
+        if (earthquakes.isEmpty() || mCancellationToken.isCanceled()) {
+            return;
+        }
+        Metrics.record(Metrics.Stage.PUSH_BATCH, earthquakes.size());
+        mListener.onEarthquakesPushed(earthquakes);
+        Metrics.recordTime(Metrics.Stage.PUSH_DELAY, pendingSince);
+    }
+
+    private static int indexOf(byte[] bytes, int length, byte b) {
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
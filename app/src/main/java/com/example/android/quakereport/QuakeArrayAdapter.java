@@ -2,188 +2,530 @@ package com.example.android.quakereport;
 
 import android.content.Context;
 import android.graphics.drawable.GradientDrawable;
-import android.support.annotation.NonNull;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.TextView;
 
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Created by dzenang on 27.2.2017.
  *
- * Array adapter to populate list of Earthquake objects
+ * Adapter to populate list of Earthquake objects. Changes are reported row by row, so the
+ * list binds only rows which were added or changed.
+ *
+ * Rows held are summarized by {@link EarthquakeStats} page by page, a page is counted once
+ * after it arrives and summaries of all pages are merged when asked for.
+ *
+ * Rows can be filtered by words of their primary location, see {@link LocationIndex}.
+ * Locations are indexed as rows arrive, so filtering doesn't wait for anything. Summary
+ * and paging always count all rows held, shown or not.
  */
 
-public class QuakeArrayAdapter extends ArrayAdapter {
+public class QuakeArrayAdapter extends RecyclerView.Adapter<QuakeArrayAdapter.ViewHolder> {
+
+    /** Number of pages kept in memory, pages furthest from the visible rows are dropped */
+    public static final int MAX_PAGES = 5;
+    /** Locations of removed rows kept in the search index before it is built again */
+    private static final int MAX_STALE_LOCATIONS = 256;
+
+    private static final int[] MAGNITUDE_COLOR_RESOURCE_IDS = {
+            R.color.magnitude1, R.color.magnitude1, R.color.magnitude2, R.color.magnitude3,
+            R.color.magnitude4, R.color.magnitude5, R.color.magnitude6, R.color.magnitude7,
+            R.color.magnitude8, R.color.magnitude9, R.color.magnitude10plus
+    };
+
+    /**
+     * Receives clicks on list items
+     */
+    public interface OnItemClickListener {
+        void onItemClick(int position);
+    }
+
+    // Members
+    private final LinkedList<Integer> mPageSizes = new LinkedList<>();
+    /** Summary of every page in mPageSizes, null until it is counted */
+    private final LinkedList<EarthquakeStats.Summary> mPageSummaries = new LinkedList<>();
+    private EarthquakeStats mStats;
+    private int mFirstPage;
+    private final EarthquakeStore mEarthquakes;
+    private final EarthquakeFormatter mFormatter;
+    private SpatialIndex mSpatialIndex;
+    private final LocationIndex mLocationIndex = new LocationIndex();
+    /** Search rows are filtered by, null when all rows are shown */
+    private String mQuery;
+    /** Store positions of rows shown while rows are filtered */
+    private int[] mFilteredPositions;
+    private OnItemClickListener mOnItemClickListener;
+    private final EarthquakeDiff.Callback mDiffCallback = new EarthquakeDiff.Callback() {
+        @Override
+        public void onInserted(int position, int count) {
+            onRowsInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            onRowsRemoved(position, count);
+        }
 
-    private enum LocationPart {FIRST, SECOND }
+        @Override
+        public void onChanged(int position, int count) {
+            onRowsChanged(position, count);
+        }
+    };
 
     // Constructors
-    public QuakeArrayAdapter(Context context, ArrayList<Earthquake> earthquakes){
-        super(context, 0, earthquakes);
+    public QuakeArrayAdapter(Context context, EarthquakeStore earthquakes){
+        mEarthquakes = earthquakes;
+        mFormatter = new EarthquakeFormatter(resolveMagnitudeColors(context));
+        indexLocations(0, earthquakes.size());
+
+        // Positions in the spatial index are not valid once rows change
+        registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                mSpatialIndex = null;
+            }
+
+            @Override
+            public void onItemRangeChanged(int positionStart, int itemCount) {
+                mSpatialIndex = null;
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                mSpatialIndex = null;
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                mSpatialIndex = null;
+            }
+
+            @Override
+            public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+                mSpatialIndex = null;
+            }
+        });
+    }
+
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        mOnItemClickListener = listener;
     }
 
     /**
-     *
-     * @param position Position in the list of data to show in ListView
-     * @param convertView Recycled view to populate
-     * @param parent ListView to inflate
-     * @return The view for the position in ListView
+     * Shows only rows whose primary location has words starting with every word of the
+     * query, i.e. "alaska" or "san ped". Empty query shows all rows again.
      */
-    @NonNull
-    @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(R.layout.list_item, parent, false);
+    public void setQuery(String query) {
+        query = query != null ? query.trim() : "";
+        if (query.isEmpty()) {
+            if (mQuery == null) {
+                return;
+            }
+            mQuery = null;
+            mFilteredPositions = null;
+            notifyDataSetChanged();
+        } else if (!query.equals(mQuery)) {
+            mQuery = query;
+            filter();
         }
+    }
 
-        Earthquake currentEarthquake = (Earthquake) getItem(position);
+    /**
+     * Returns true if some rows may be hidden by a search
+     */
+    public boolean isFiltered() {
+        return mQuery != null;
+    }
 
-        // Populating list item view with data from item on given position from data list
-        TextView magnitudeTextView = (TextView) listItemView.findViewById(R.id.magnitude_tv);
-        double magnitude = currentEarthquake.getMagnitude();
-        magnitudeTextView.setText(formatMagnitude(magnitude));
+    /**
+     * Sets how rows are summarized, i.e. after the day or regions changed
+     */
+    public void setStats(EarthquakeStats stats) {
+        mStats = stats;
+        resetSummaries();
+    }
 
-        // Setting correct color for magnitude circle
-        GradientDrawable magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
-        int magnitudeColor = getMagnitudeColor(magnitude);
-        magnitudeCircle.setColor(magnitudeColor);
+    /**
+     * Returns summary of all rows held, or null if stats are not set. Pages which arrived
+     * since the last call are counted now, the others are only merged.
+     */
+    public EarthquakeStats.Summary getSummary() {
+        if (mStats == null) {
+            return null;
+        }
+        EarthquakeStats.Summary summary = mStats.newSummary();
+        int start = 0;
+        for (int i = 0; i < mPageSizes.size(); i++) {
+            int end = start + mPageSizes.get(i);
+            EarthquakeStats.Summary pageSummary = mPageSummaries.get(i);
+            if (pageSummary == null) {
+                pageSummary = mStats.aggregate(mEarthquakes, start, end);
+                mPageSummaries.set(i, pageSummary);
+            }
+            summary.merge(pageSummary);
+            start = end;
+        }
+        return summary;
+    }
 
-        // Show location offset and primary location
-        String location = currentEarthquake.getLocation();
-        TextView offsetLocationTextView = (TextView) listItemView.findViewById(R.id.offset_tv);
-        TextView primaryLocationTextView = (TextView) listItemView.findViewById(R.id.primary_location_tv);
+    private void resetSummaries() {
+        mPageSummaries.clear();
+        for (int i = 0; i < mPageSizes.size(); i++) {
+            mPageSummaries.add(null);
+        }
+    }
 
-        if (isOnlyPrimary(location)){
-            offsetLocationTextView.setText("Near the");
-            primaryLocationTextView.setText(location);
-        } else {
-            offsetLocationTextView.setText(splitLocation(location, LocationPart.FIRST));
-            primaryLocationTextView.setText(splitLocation(location, LocationPart.SECOND));
+    /**
+     * Returns color values of magnitude circles for magnitudes 0 to 10+
+     */
+    public static int[] resolveMagnitudeColors(Context context) {
+        int[] colors = new int[MAGNITUDE_COLOR_RESOURCE_IDS.length];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = ContextCompat.getColor(context, MAGNITUDE_COLOR_RESOURCE_IDS[i]);
         }
+        return colors;
+    }
 
-        // Show date and time
-        Date dateObject = new Date(currentEarthquake.getMilliseconds());
-        TextView dateTextView = (TextView) listItemView.findViewById(R.id.date_tv);
-        dateTextView.setText(formatDate(dateObject));
+    /**
+     * Returns index of the first page currently held by the adapter
+     */
+    public int getFirstPage() {
+        return mFirstPage;
+    }
 
-        TextView timeTextView = (TextView) listItemView.findViewById(R.id.time_tv);
-        timeTextView.setText(formatTime(dateObject));
+    /**
+     * Returns index of the last page currently held by the adapter, or -1 if it is empty
+     */
+    public int getLastPage() {
+        return mFirstPage + mPageSizes.size() - 1;
+    }
 
-        return listItemView;
+    /**
+     * Returns store backing the adapter
+     */
+    public EarthquakeStore getEarthquakes() {
+        return mEarthquakes;
     }
 
     /**
-     * Returns formated date string (i.e. "Jan 05, 2007") from a date object
+     * Returns number of rows in every page currently held, from the first one
      */
-    private String formatDate (Date date){
-        SimpleDateFormat dateFormatter = new SimpleDateFormat("MMM dd, y");
-        return dateFormatter.format(date);
+    public List<Integer> getPageSizes() {
+        return new ArrayList<>(mPageSizes);
     }
 
     /**
-     * Returns formated time string (i.e. "4:17 AM") from a date objects
+     * Restores paging of rows which are already in the store, i.e. after screen rotation
      */
-    private String formatTime (Date date){
-        SimpleDateFormat dateFormatter = new SimpleDateFormat("H:mm a");
-        return dateFormatter.format(date);
+    public void restorePages(int firstPage, List<Integer> pageSizes) {
+        mFirstPage = firstPage;
+        mPageSizes.clear();
+        mPageSizes.addAll(pageSizes);
+        resetSummaries();
     }
 
     /**
-     * Returns location offset or primary location from location string
+     * Adds page after the last one. If there are more than MAX_PAGES pages, the first one
+     * is dropped.
      */
-    private String splitLocation (String location, LocationPart part) {
-        int indexOfSplit = location.indexOf("of");
+    public void appendPage(List<Earthquake> page) {
+        int start = mEarthquakes.size();
+        mEarthquakes.addAll(page);
+        mPageSizes.addLast(page.size());
+        mPageSummaries.addLast(null);
+        onRowsInserted(start, page.size());
+
+        if (mPageSizes.size() > MAX_PAGES) {
+            int removedCount = mPageSizes.removeFirst();
+            mPageSummaries.removeFirst();
+            mEarthquakes.subList(0, removedCount).clear();
+            mFirstPage++;
+            onRowsRemoved(0, removedCount);
+        }
+    }
 
-        // If location contains "of" return first or second part of it
-        if (indexOfSplit != -1) {
-            indexOfSplit += 2;
-            if (part == LocationPart.FIRST) {
-                return location.substring(0, indexOfSplit);
-            } else if (part == LocationPart.SECOND){
-                return location.substring(indexOfSplit + 1, location.length());
-            }
+    /**
+     * Adds page before the first one. If there are more than MAX_PAGES pages, the last one
+     * is dropped.
+     */
+    public void prependPage(List<Earthquake> page) {
+        mEarthquakes.addAll(0, page);
+        mPageSizes.addFirst(page.size());
+        mPageSummaries.addFirst(null);
+        mFirstPage--;
+        onRowsInserted(0, page.size());
+
+        if (mPageSizes.size() > MAX_PAGES) {
+            int removedCount = mPageSizes.removeLast();
+            mPageSummaries.removeLast();
+            int count = mEarthquakes.size();
+            mEarthquakes.subList(count - removedCount, count).clear();
+            onRowsRemoved(count - removedCount, removedCount);
         }
-        return "";
     }
 
     /**
-     *  Returns true if location has only primary location
+     * Makes page the only one held. Rows are matched by event id, so only earthquakes which
+     * are new or changed are bound and the list keeps its scroll position.
      */
-    private boolean isOnlyPrimary (String location) {
-        // If splitLocation returns empty string then it is only primary
-        if ( splitLocation(location, LocationPart.FIRST).equals("")){
-            return true;
+    public void replaceWithFirstPage(List<Earthquake> page) {
+        EarthquakeDiff.apply(mEarthquakes, page, mDiffCallback);
+        mFirstPage = 0;
+        mPageSizes.clear();
+        if (!page.isEmpty()) {
+            mPageSizes.add(page.size());
         }
-        return false;
+        resetSummaries();
+    }
+
+    /**
+     * Returns url of earthquake shown at given position without creating Earthquake object
+     */
+    public String getUrl(int position) {
+        return mEarthquakes.getUrl(getStorePosition(position));
     }
 
     /**
-     *  Returns formated magnitude (i.e. "6.2") from a double value
+     * Returns positions of earthquakes at most radiusKm away from the point
      */
-    private String formatMagnitude (double magnitude) {
-        DecimalFormat formatter = new DecimalFormat("0.0");
-        return formatter.format(magnitude);
+    public int[] findNearby(double latitude, double longitude, double radiusKm) {
+        return getSpatialIndex().findWithinRadius(latitude, longitude, radiusKm);
     }
 
     /**
-     *  Returns color value for magnitude circle based on magnitude value
+     * Returns positions of earthquakes inside the box, i.e. the visible part of a map
      */
-    private int getMagnitudeColor(double magnitude){
+    public int[] findInBoundingBox(double minLatitude, double maxLatitude,
+                                   double minLongitude, double maxLongitude) {
+        return getSpatialIndex().findInBoundingBox(minLatitude, maxLatitude,
+                minLongitude, maxLongitude);
+    }
 
-        int magnitudeColorResourceId;
-        switch ((int) Math.floor(magnitude)) {
-            case 0:
-            case 1:
-                magnitudeColorResourceId = R.color.magnitude1;
-                break;
-            case 2:
-                magnitudeColorResourceId = R.color.magnitude2;
-                break;
-            case 3:
-                magnitudeColorResourceId = R.color.magnitude3;
-                break;
-            case 4:
-                magnitudeColorResourceId = R.color.magnitude4;
-                break;
-            case 5:
-                magnitudeColorResourceId = R.color.magnitude5;
-                break;
-            case 6:
-                magnitudeColorResourceId = R.color.magnitude6;
-                break;
-            case 7:
-                magnitudeColorResourceId = R.color.magnitude7;
-                break;
-            case 8:
-                magnitudeColorResourceId = R.color.magnitude8;
-                break;
-            case 9:
-                magnitudeColorResourceId = R.color.magnitude9;
-                break;
-            default:
-                magnitudeColorResourceId = R.color.magnitude10plus;
+    /**
+     * Returns spatial index of rows currently in the adapter, built on first use
+     */
+    private SpatialIndex getSpatialIndex() {
+        if (mSpatialIndex == null) {
+            mSpatialIndex = new SpatialIndex(mEarthquakes);
         }
-        return ContextCompat.getColor(getContext(), magnitudeColorResourceId);
+        return mSpatialIndex;
     }
-}
 
+    /**
+     * Removes all rows and pages
+     */
+    public void clear() {
+        int count = mEarthquakes.size();
+        mPageSizes.clear();
+        mPageSummaries.clear();
+        mFirstPage = 0;
+        mEarthquakes.clear();
+        mLocationIndex.clear();
+        onRowsRemoved(0, count);
+    }
 
+    /**
+     * Rows of the store changed, positions are store positions. While rows are filtered
+     * they are mapped to positions of shown rows, only rows in the range are matched.
+     */
+    private void onRowsInserted(int position, int count) {
+        indexLocations(position, count);
+        if (mQuery != null) {
+            int shownStart = findShownPosition(position);
+            int[] matching = findMatching(position, count);
+            replaceShown(shownStart, shownStart, matching, count);
+            if (matching.length > 0) {
+                notifyItemRangeInserted(shownStart, matching.length);
+            }
+        } else {
+            notifyItemRangeInserted(position, count);
+        }
+    }
 
+    private void onRowsChanged(int position, int count) {
+        indexLocations(position, count);
+        if (mQuery != null) {
+            int shownStart = findShownPosition(position);
+            int shownEnd = findShownPosition(position + count);
+            int[] matching = findMatching(position, count);
+            boolean sameRows = matching.length == shownEnd - shownStart;
+            for (int i = 0; sameRows && i < matching.length; i++) {
+                sameRows = matching[i] == mFilteredPositions[shownStart + i];
+            }
+            if (sameRows) {
+                if (matching.length > 0) {
+                    notifyItemRangeChanged(shownStart, matching.length);
+                }
+                return;
+            }
+            // Changed location shows or hides some rows
+            replaceShown(shownStart, shownEnd, matching, 0);
+            if (shownEnd > shownStart) {
+                notifyItemRangeRemoved(shownStart, shownEnd - shownStart);
+            }
+            if (matching.length > 0) {
+                notifyItemRangeInserted(shownStart, matching.length);
+            }
+        } else {
+            notifyItemRangeChanged(position, count);
+        }
+    }
 
+    private void onRowsRemoved(int position, int count) {
+        // Locations are never removed from the index, it is built again once most are gone
+        if (mLocationIndex.size() > MAX_STALE_LOCATIONS + mEarthquakes.size() * 2) {
+            mLocationIndex.clear();
+            indexLocations(0, mEarthquakes.size());
+        }
+        if (mQuery != null) {
+            int shownStart = findShownPosition(position);
+            int shownEnd = findShownPosition(position + count);
+            replaceShown(shownStart, shownEnd, new int[0], -count);
+            if (shownEnd > shownStart) {
+                notifyItemRangeRemoved(shownStart, shownEnd - shownStart);
+            }
+        } else {
+            notifyItemRangeRemoved(position, count);
+        }
+    }
 
+    /**
+     * Returns position of the first shown row at or after store position
+     */
+    private int findShownPosition(int storePosition) {
+        int low = 0;
+        int high = mFilteredPositions.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (mFilteredPositions[middle] < storePosition) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
 
+    /**
+     * Returns store positions of rows in the range which match the query
+     */
+    private int[] findMatching(int position, int count) {
+        List<String> prefixes = LocationIndex.tokenize(mQuery);
+        int[] matching = new int[count];
+        int matched = 0;
+        for (int i = position; i < position + count; i++) {
+            if (LocationIndex.matches(mEarthquakes.getLocation(i), prefixes)) {
+                matching[matched++] = i;
+            }
+        }
+        return Arrays.copyOf(matching, matched);
+    }
+
+    /**
+     * Replaces shown rows from start to end with rows at store positions, store positions
+     * of rows after them move by shift
+     */
+    private void replaceShown(int start, int end, int[] positions, int shift) {
+        int[] shown = new int[mFilteredPositions.length - (end - start) + positions.length];
+        System.arraycopy(mFilteredPositions, 0, shown, 0, start);
+        System.arraycopy(positions, 0, shown, start, positions.length);
+        for (int i = end; i < mFilteredPositions.length; i++) {
+            shown[start + positions.length + i - end] = mFilteredPositions[i] + shift;
+        }
+        mFilteredPositions = shown;
+    }
 
+    private void indexLocations(int position, int count) {
+        for (int i = position; i < position + count; i++) {
+            mLocationIndex.add(mEarthquakes.getLocation(i));
+        }
+    }
 
+    private void filter() {
+        long start = Metrics.start();
+        mFilteredPositions = mLocationIndex.search(mEarthquakes, mQuery);
+        Metrics.recordTime(Metrics.Stage.SEARCH, start);
+        notifyDataSetChanged();
+    }
 
+    /**
+     * Returns position in the store of row shown at given position
+     */
+    private int getStorePosition(int position) {
+        return mFilteredPositions != null ? mFilteredPositions[position] : position;
+    }
 
+    @Override
+    public int getItemCount() {
+        return mFilteredPositions != null ? mFilteredPositions.length : mEarthquakes.size();
+    }
 
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View listItemView = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(listItemView);
+    }
+
+    /**
+     * Populates recycled list item with earthquake at given position
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long start = Metrics.start();
+        position = getStorePosition(position);
+
+        // Texts are usually made in background by the request, earthquakes which came
+        // another way (i.e. from the snapshot) are formatted now, once
+        EarthquakeRow row = mFormatter.getRow(mEarthquakes, position);
+
+        // Populating list item view with ready texts and color of the row
+        holder.magnitudeTextView.setText(row.getMagnitude());
+        holder.magnitudeCircle.setColor(row.getMagnitudeColor());
+        holder.offsetLocationTextView.setText(row.getLocationOffset());
+        holder.primaryLocationTextView.setText(row.getPrimaryLocation());
+        holder.dateTextView.setText(row.getDate());
+        holder.timeTextView.setText(row.getTime());
+
+        Metrics.recordTime(Metrics.Stage.BIND, start);
+    }
+
+    /**
+     * Views of one list item, found once when the item is inflated
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView magnitudeTextView;
+        final GradientDrawable magnitudeCircle;
+        final TextView offsetLocationTextView;
+        final TextView primaryLocationTextView;
+        final TextView dateTextView;
+        final TextView timeTextView;
+
+        ViewHolder(View listItemView) {
+            super(listItemView);
+            listItemView.setOnClickListener(this);
+            magnitudeTextView = (TextView) listItemView.findViewById(R.id.magnitude_tv);
+            magnitudeCircle = (GradientDrawable) magnitudeTextView.getBackground();
+            offsetLocationTextView = (TextView) listItemView.findViewById(R.id.offset_tv);
+            primaryLocationTextView = (TextView) listItemView.findViewById(R.id.primary_location_tv);
+            dateTextView = (TextView) listItemView.findViewById(R.id.date_tv);
+            timeTextView = (TextView) listItemView.findViewById(R.id.time_tv);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (mOnItemClickListener != null && position != RecyclerView.NO_POSITION) {
+                mOnItemClickListener.onItemClick(position);
+            }
+        }
+    }
+}
@@ -1,22 +1,16 @@
 package com.example.android.quakereport;
 
-import android.text.TextUtils;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -27,6 +21,9 @@ public final class QueryUtils {
     /** Tag for log messages */
     private static final String LOG_TAG = QueryUtils.class.getSimpleName();
 
+    /** Not in {@link HttpURLConnection}, rate limited server sends it with Retry-After */
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
     /**
      * Create a private constructor because no one should ever create a {@link QueryUtils} object.
      * This class is only meant to hold static variables and methods, which can be accessed
@@ -39,20 +36,113 @@ public final class QueryUtils {
      * Query USGS site and return list of {@link Earthquake} objects for given url string
      */
     public static List<Earthquake> fetchEarthquakeData(String requestUrl) {
+        return fetchEarthquakeData(requestUrl, null);
+    }
 
-        Log.i(LOG_TAG, "fetchEarthquakeData");
+    /**
+     * Query USGS site and return list of {@link Earthquake} objects for given url string.
+     * If cache holds earlier response for the same url, request is made conditional and
+     * cached earthquakes are returned when server answers that nothing has changed.
+     */
+    public static List<Earthquake> fetchEarthquakeData(String requestUrl, EarthquakeCache cache) {
+        return fetchEarthquakeData(requestUrl, cache, null);
+    }
 
-        URL urlObject = createUrl(requestUrl);
+    /**
+     * Same as fetchEarthquakeData(requestUrl, cache), but the download and parsing stop as soon
+     * as cancellationToken is canceled, with {@link java.util.concurrent.CancellationException}
+     *
+     * Failed requests are tried again as {@link RetryPolicy} allows. While the host keeps
+     * failing its {@link CircuitBreaker} refuses requests and null is returned right away.
+     */
+    public static List<Earthquake> fetchEarthquakeData(String requestUrl, EarthquakeCache cache,
+                                                       CancellationToken cancellationToken) {
+        return fetchEarthquakeData(UsgsSource.getDefault(), requestUrl, cache, cancellationToken);
+    }
 
-        String jsonResponse = null;
+    /**
+     * Same as fetchEarthquakeData(requestUrl, cache, cancellationToken), for url of given source
+     * whose response is parsed by it
+     */
+    public static List<Earthquake> fetchEarthquakeData(EarthquakeSource source, String requestUrl,
+                                                       EarthquakeCache cache,
+                                                       CancellationToken cancellationToken) {
         try {
-            jsonResponse = makeHttpRequest(urlObject);
+            return requestEarthquakeData(source, requestUrl, cache, cancellationToken);
         } catch (IOException e) {
-            Log.e(LOG_TAG, "Error closing input stream.", e);
+            return null;
         }
+    }
 
-        List<Earthquake> earthquakes = extractEarthquakes(jsonResponse);
-        return earthquakes;
+    /**
+     * Same as fetchEarthquakeData(source, requestUrl, cache, cancellationToken), but failure of
+     * the network or the host is thrown once it is not tried again, so callers can tell it
+     * from a request which the server refused. Null is returned only for the latter.
+     */
+    public static List<Earthquake> requestEarthquakeData(EarthquakeSource source,
+                                                         String requestUrl, EarthquakeCache cache,
+                                                         CancellationToken cancellationToken)
+            throws IOException {
+
+        Log.i(LOG_TAG, "fetchEarthquakeData: " + source.getName());
+
+        URL urlObject = createUrl(requestUrl);
+        if (urlObject == null) {
+            return null;
+        }
+
+        CircuitBreaker circuitBreaker = CircuitBreaker.forHost(urlObject.getHost());
+        RetryPolicy retryPolicy = RetryPolicy.getDefault();
+        EarthquakeCache.Entry cached = cache != null ? cache.get(requestUrl) : null;
+        for (int attempt = 1; ; attempt++) {
+            if (!circuitBreaker.allowRequest()) {
+                Log.i(LOG_TAG, "Host is failing, next request in "
+                        + circuitBreaker.getRetryIn() + " ms");
+                Metrics.record(Metrics.Stage.CIRCUIT_OPEN, 1);
+                throw new IOException("Circuit of " + urlObject.getHost() + " is open");
+            }
+
+            long start = Metrics.start();
+            EarthquakeCache.Entry response;
+            boolean finished = false;
+            try {
+                response = makeHttpRequest(urlObject, cached, source, cancellationToken);
+                circuitBreaker.onSuccess();
+                finished = true;
+            } catch (IOException e) {
+                // Aborted request fails with some IOException, report it as canceled instead
+                if (cancellationToken != null) {
+                    cancellationToken.throwIfCanceled();
+                }
+                circuitBreaker.onFailure();
+                finished = true;
+                Metrics.recordTime(Metrics.Stage.FAILED_ATTEMPT, start);
+
+                long delay = retryPolicy.getDelay(attempt, e);
+                if (delay < 0) {
+                    Log.e(LOG_TAG, "Giving up after " + attempt + " attempts.", e);
+                    Metrics.record(Metrics.Stage.ATTEMPTS, attempt);
+                    throw e;
+                }
+                Log.e(LOG_TAG, "Attempt " + attempt + " failed, retrying in " + delay + " ms.", e);
+                Metrics.record(Metrics.Stage.RETRY_DELAY, TimeUnit.MILLISECONDS.toMicros(delay));
+                RetryPolicy.sleep(delay, cancellationToken);
+                continue;
+            } finally {
+                if (!finished) {
+                    circuitBreaker.onCanceled();
+                }
+            }
+            Metrics.record(Metrics.Stage.ATTEMPTS, attempt);
+
+            if (response == null) {
+                return null;
+            }
+            if (cache != null && response != cached) {
+                cache.put(requestUrl, response);
+            }
+            return response.getEarthquakes();
+        }
     }
 
     /**
@@ -70,105 +160,106 @@ public final class QueryUtils {
     }
 
     /**
-     * Creates http request and returns {@link String} response
+     * Creates http request and returns response with list of {@link Earthquake} objects parsed
+     * from it, or null if server refused the request. When server reports that cached response
+     * is still valid, cached entry itself is returned. Failures which may pass when the request
+     * is made again are thrown.
      */
-    private static String makeHttpRequest(URL url) throws IOException {
-        String jsonResponse = "";
-
-        // If url is null return early
-        if (url == null) {
-            return jsonResponse;
+    private static EarthquakeCache.Entry makeHttpRequest(URL url, EarthquakeCache.Entry cached,
+                                                         EarthquakeSource source,
+                                                         CancellationToken cancellationToken)
+            throws IOException {
+        // Ask server to send data only if it changed since cached response
+        Map<String, String> headers = new HashMap<>();
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                headers.put("If-None-Match", cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                headers.put("If-Modified-Since", cached.getLastModified());
+            }
         }
 
-        HttpURLConnection urlConnection = null;
-        InputStream inputStream = null;
-
+        HttpClient.Response response = null;
         try {
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setReadTimeout(10000 /* milliseconds */);
-            urlConnection.setConnectTimeout(15000 /* milliseconds */);
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+            response = HttpClient.getDefault().get(url, headers, cancellationToken);
 
-            int responseCode = urlConnection.getResponseCode();
+            int responseCode = response.getResponseCode();
             if (responseCode == HttpURLConnection.HTTP_OK) {
 
-                inputStream = urlConnection.getInputStream();
-                jsonResponse = readFromInputStream(inputStream);
-
-            } else if (responseCode == HttpURLConnection.HTTP_MOVED_PERM ||
-                    responseCode == HttpURLConnection.HTTP_MOVED_TEMP) {
-                // Handle redirection
-                Log.d(LOG_TAG, "Server returned redirection error: " + responseCode);
-                URL newUrl = createUrl(urlConnection.getHeaderField("Location"));
-                jsonResponse = makeHttpRequest(newUrl);
-            } else {
-                Log.e(LOG_TAG, "Server returned error: " + responseCode);
+                List<Earthquake> earthquakes = source.parse(response.getBody(),
+                        cancellationToken);
+                return new EarthquakeCache.Entry(response.getHeader("ETag"),
+                        response.getHeader("Last-Modified"), earthquakes);
+
+            } else if (responseCode == HttpURLConnection.HTTP_NO_CONTENT) {
+                // FDSN services answer this way when nothing matches the query
+                return new EarthquakeCache.Entry(null, null, new EarthquakeStore());
+            } else if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                Log.d(LOG_TAG, "Cached response is still valid");
+                return cached;
+            } else if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || responseCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                    || responseCode == HTTP_TOO_MANY_REQUESTS) {
+                throw new RetryPolicy.RetriableResponseException(responseCode,
+                        RetryPolicy.parseRetryAfter(response.getHeader("Retry-After")));
             }
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error during http request.", e);
+            // Request itself is wrong, asking again won't help
+            Log.e(LOG_TAG, "Server returned error: " + responseCode);
+            return null;
         } finally {
-            // Close connection and input stream
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (inputStream != null) {
-                inputStream.close();
+            // Close response so its connection can be reused
+            if (response != null) {
+                response.close();
             }
         }
-        return jsonResponse;
     }
 
     /**
-     * Converts {@link InputStream} into String which contains JSON response from server
+     * Return a list of {@link Earthquake} objects parsed directly from the response stream.
+     * Features are read one by one, so the whole JSON response is never kept in memory.
+     * Only raw properties of every feature are kept for {@link Earthquake#getDetails()}.
      */
-    private static String readFromInputStream(InputStream inputStream) throws IOException {
-        StringBuilder output = new StringBuilder();
-        if (inputStream != null) {
-            InputStreamReader streamReader = new InputStreamReader(inputStream, Charset.forName("UTF-8"));
-            BufferedReader bufferedReader = new BufferedReader(streamReader);
-            String line = bufferedReader.readLine();
-            while (line != null) {
-                output.append(line);
-                line = bufferedReader.readLine();
-            }
-        }
-        return output.toString();
+    static List<Earthquake> extractEarthquakes(InputStream inputStream) throws IOException {
+        return extractEarthquakes(inputStream, null);
     }
 
     /**
-     * Return a list of {@link Earthquake} objects that has been built up from
-     * parsing a JSON response.
+     * Same as extractEarthquakes(inputStream), checking cancellationToken between features
      */
-    private static List<Earthquake> extractEarthquakes(String json) {
+    static List<Earthquake> extractEarthquakes(InputStream inputStream,
+                                               CancellationToken cancellationToken)
+            throws IOException {
 
-        // If json string is empty or null return early
-        if (TextUtils.isEmpty(json)) {
-            return null;
-        }
-        // Create an empty ArrayList that we can start adding earthquakes to
-        List<Earthquake> earthquakes = new ArrayList<>();
+        // Create an empty store that we can start adding earthquakes to
+        EarthquakeStore earthquakes = new EarthquakeStore();
 
-        // Try to parse the json string. If there's a problem with the way the JSON
-        // is formatted, a JSONException exception object will be thrown.
-        // Catch the exception so the app doesn't crash, and print the error message to the logs.
+        // If there's a problem with the way the JSON is formatted, a MalformedJsonException
+        // is thrown. Response cut short by a flaky connection looks the same, so nothing
+        // parsed until then is kept and the request can be tried again.
+        // Response is parsed while it arrives, so this also includes download time
+        long start = Metrics.start();
+        EarthquakeStreamParser parser = new EarthquakeStreamParser(inputStream);
+        parser.setFeatureBuffer(new FeatureBuffer());
         try {
-            JSONObject root = new JSONObject(json);
-            JSONArray features = root.getJSONArray("features");
-
-            for(int i = 0; i < features.length(); i++) {
-                JSONObject feature = features.getJSONObject(i);
-                JSONObject properties = feature.getJSONObject("properties");
-                double magnitude = properties.getDouble("mag");
-                String location = properties.getString("place");
-                long date = properties.getLong("time");
-                String url = properties.getString("url");
-                earthquakes.add(new Earthquake(magnitude, location, date, url));
+            Earthquake earthquake = parser.next();
+            while (earthquake != null) {
+                if (cancellationToken != null) {
+                    cancellationToken.throwIfCanceled();
+                }
+                earthquakes.add(earthquake);
+                earthquake = parser.next();
+            }
+        } catch (EarthquakeStreamParser.MalformedJsonException e) {
+            // Aborted connection looks like truncated JSON, partial result must not be kept
+            if (cancellationToken != null) {
+                cancellationToken.throwIfCanceled();
             }
-
-        } catch (JSONException e) {
             Log.e(LOG_TAG, "Problem parsing the earthquake JSON results", e);
+            throw e;
         }
+        Metrics.recordRate(Metrics.Stage.PARSE_RATE, earthquakes.size(), start);
+        Metrics.recordTime(Metrics.Stage.PARSE, start);
 
         // Return the list of earthquakes
         return earthquakes;
@@ -0,0 +1,263 @@
+package com.example.android.quakereport;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls USGS in background for every query url some screen is interested in, and keeps
+ * the latest result for each of them.
+ *
+ * All screens showing the same url share one poll. Polls are run by {@link FetchEngine}
+ * under their own key, a screen loading the same url must not join a poll, which skips
+ * the local database and has no offline fallback.
+ * Polling interval adapts to the data: after a significant earthquake it is shortened,
+ * while nothing changes it keeps backing off.
+ */
+public class RefreshScheduler {
+
+    /**
+     * Receives new results on the main thread
+     */
+    public interface Listener {
+        void onEarthquakesUpdated(String url, List<Earthquake> earthquakes);
+    }
+
+    private static final String LOG_TAG = RefreshScheduler.class.getSimpleName();
+
+    /** Interval used after a significant earthquake shows up */
+    private static final long MIN_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    /** Interval used after the data changed */
+    private static final long BASE_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+    /** Longest interval reached by backing off while nothing changes */
+    private static final long MAX_INTERVAL = TimeUnit.MINUTES.toMillis(60);
+    /** New or updated earthquakes at least this strong shorten the interval */
+    private static final double SIGNIFICANT_MAGNITUDE = 5.0;
+    /** Prefix of FetchEngine keys of polls, keeps them apart from loads of the same url */
+    private static final String POLL_KEY = "poll:";
+
+    private static RefreshScheduler sInstance;
+
+    /**
+     * Polling state of one query url
+     */
+    private static class Feed {
+        final String mUrl;
+        final List<Listener> mListeners = new ArrayList<>();
+        List<Earthquake> mLatest;
+        long mLastUpdated = -1;
+        int mLatestSize;
+        long mInterval = BASE_INTERVAL;
+        ScheduledFuture<?> mScheduled;
+        FetchEngine.Subscription mSubscription;
+        boolean mPolling;
+
+        Feed(String url) {
+            mUrl = url;
+        }
+    }
+
+    // Members
+    private final Context mContext;
+    private final ScheduledExecutorService mExecutor;
+    private final Handler mMainHandler;
+    private final Map<String, Feed> mFeeds = new HashMap<>();
+
+    private RefreshScheduler(Context context) {
+        mContext = context;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LOG_TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized RefreshScheduler getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new RefreshScheduler(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts polling url for the listener. The first poll happens one interval later, since
+     * the screen loads its data itself when it is opened.
+     */
+    public synchronized void register(String url, Listener listener) {
+        Feed feed = mFeeds.get(url);
+        if (feed == null) {
+            feed = new Feed(url);
+            mFeeds.put(url, feed);
+        }
+        if (!feed.mListeners.contains(listener)) {
+            feed.mListeners.add(listener);
+        }
+        if (feed.mScheduled == null && !feed.mPolling) {
+            schedule(feed, feed.mInterval);
+        }
+    }
+
+    /**
+     * Stops delivering results to the listener, polling stops when url has no listeners left
+     */
+    public synchronized void unregister(String url, Listener listener) {
+        Feed feed = mFeeds.get(url);
+        if (feed == null) {
+            return;
+        }
+        feed.mListeners.remove(listener);
+        if (feed.mListeners.isEmpty()) {
+            if (feed.mScheduled != null) {
+                feed.mScheduled.cancel(false);
+                feed.mScheduled = null;
+            }
+            if (feed.mSubscription != null) {
+                // Screen loading the same url keeps the request running
+                feed.mSubscription.cancel();
+                feed.mSubscription = null;
+            }
+            mFeeds.remove(url);
+        }
+    }
+
+    /**
+     * Polls url as soon as possible, unless a poll for it is already running
+     */
+    public synchronized void refreshNow(String url) {
+        Feed feed = mFeeds.get(url);
+        if (feed == null || feed.mPolling) {
+            return;
+        }
+        if (feed.mScheduled != null) {
+            feed.mScheduled.cancel(false);
+        }
+        schedule(feed, 0);
+    }
+
+    /**
+     * Returns the latest polled result for url, or null if it wasn't polled yet
+     */
+    public synchronized List<Earthquake> getLatest(String url) {
+        Feed feed = mFeeds.get(url);
+        return feed != null ? feed.mLatest : null;
+    }
+
+    private void schedule(final Feed feed, long delay) {
+        Log.i(LOG_TAG, "Next poll of " + feed.mUrl + " in " + delay + " ms");
+        feed.mScheduled = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll(feed);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the scheduler thread, hands the request over to {@link FetchEngine}
+     */
+    private void poll(final Feed feed) {
+        synchronized (this) {
+            if (mFeeds.get(feed.mUrl) != feed) {
+                return;
+            }
+            feed.mScheduled = null;
+            feed.mPolling = true;
+        }
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RefreshScheduler.this) {
+                    if (mFeeds.get(feed.mUrl) != feed) {
+                        feed.mPolling = false;
+                        return;
+                    }
+                    // Only events updated since the last result are requested and merged in
+                    EarthquakeRequest request = new EarthquakeRequest(mContext, feed.mUrl, true);
+                    request.setPolling(true);
+                    feed.mSubscription = FetchEngine.getInstance().fetch(POLL_KEY + feed.mUrl,
+                            FetchEngine.PRIORITY_PREFETCH, request, new FetchEngine.Callback() {
+                                @Override
+                                public void onFetchFinished(String key,
+                                                            List<Earthquake> earthquakes) {
+                                    onPolled(feed, earthquakes);
+                                }
+                            });
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on the main thread with the result of the poll
+     */
+    private void onPolled(Feed feed, List<Earthquake> earthquakes) {
+        List<Listener> listeners;
+        synchronized (this) {
+            feed.mSubscription = null;
+            feed.mPolling = false;
+            boolean changed = false;
+            if (earthquakes == null) {
+                feed.mInterval = Math.min(feed.mInterval * 2, MAX_INTERVAL);
+            } else {
+                long lastUpdated = EarthquakeSync.getLastUpdated(earthquakes);
+                changed = lastUpdated != feed.mLastUpdated || earthquakes.size() != feed.mLatestSize;
+                if (hasSignificantUpdate(earthquakes, feed.mLastUpdated)) {
+                    feed.mInterval = MIN_INTERVAL;
+                } else if (changed) {
+                    feed.mInterval = BASE_INTERVAL;
+                } else {
+                    feed.mInterval = Math.min(feed.mInterval * 2, MAX_INTERVAL);
+                }
+                feed.mLastUpdated = lastUpdated;
+                feed.mLatestSize = earthquakes.size();
+                feed.mLatest = earthquakes;
+            }
+
+            if (mFeeds.get(feed.mUrl) != feed) {
+                return;
+            }
+            schedule(feed, feed.mInterval);
+            if (!changed) {
+                return;
+            }
+            listeners = new ArrayList<>(feed.mListeners);
+        }
+
+        for (Listener listener : listeners) {
+            listener.onEarthquakesUpdated(feed.mUrl, earthquakes);
+        }
+    }
+
+    /**
+     * Returns true if some strong earthquake was added or updated after lastUpdated.
+     * Nothing counts as new on the first poll.
+     */
+    private static boolean hasSignificantUpdate(List<Earthquake> earthquakes, long lastUpdated) {
+        if (lastUpdated == -1) {
+            return false;
+        }
+        for (Earthquake earthquake : earthquakes) {
+            if (earthquake.getUpdated() > lastUpdated
+                    && earthquake.getMagnitude() >= SIGNIFICANT_MAGNITUDE) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether failed request is tried again and how long to wait before it.
+ *
+ * Waits grow exponentially with every attempt and are picked at random up to that limit
+ * ("full jitter"), so clients which failed at the same moment don't come back at the same
+ * moment. Server which tells how long to wait with Retry-After is obeyed.
+ */
+public class RetryPolicy {
+
+    /**
+     * Response which may succeed if it is requested again later, i.e. 503 or 429
+     */
+    public static class RetriableResponseException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        // Members
+        private final int mResponseCode;
+        private final long mRetryAfter;
+
+        // Constructors
+        /**
+         * @param retryAfter Wait the server asked for in milliseconds, -1 if it didn't
+         */
+        public RetriableResponseException(int responseCode, long retryAfter) {
+            super("Server returned error: " + responseCode);
+            mResponseCode = responseCode;
+            mRetryAfter = retryAfter;
+        }
+
+        // Getters
+        public int getResponseCode() {
+            return mResponseCode;
+        }
+
+        public long getRetryAfter() {
+            return mRetryAfter;
+        }
+    }
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_BASE_DELAY = 500; /* milliseconds */
+    private static final long DEFAULT_MAX_DELAY = TimeUnit.SECONDS.toMillis(8);
+
+    private static RetryPolicy sDefault;
+
+    // Members
+    private final int mMaxAttempts;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final Random mRandom;
+
+    // Constructors
+    public RetryPolicy(int maxAttempts, long baseDelay, long maxDelay, Random random) {
+        mMaxAttempts = maxAttempts;
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        mRandom = random;
+    }
+
+    /**
+     * Returns policy shared by the whole app
+     */
+    public static synchronized RetryPolicy getDefault() {
+        if (sDefault == null) {
+            sDefault = new RetryPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY,
+                    DEFAULT_MAX_DELAY, new Random());
+        }
+        return sDefault;
+    }
+
+    /**
+     * Returns milliseconds to wait before attempt after the failed one, attempts are counted
+     * from 1. Returns -1 if request should not be tried again.
+     */
+    public long getDelay(int failedAttempt, IOException failure) {
+        if (failedAttempt >= mMaxAttempts) {
+            return -1;
+        }
+        if (failure instanceof RetriableResponseException) {
+            long retryAfter = ((RetriableResponseException) failure).getRetryAfter();
+            if (retryAfter >= 0) {
+                // Server asked for longer wait than the user should see, give up now
+                return retryAfter <= mMaxDelay ? retryAfter : -1;
+            }
+        }
+        long limit = Math.min(mMaxDelay, mBaseDelay << Math.min(failedAttempt - 1, 30));
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * limit);
+        }
+    }
+
+    /**
+     * Waits given milliseconds, or until cancellationToken is canceled in which case
+     * {@link java.util.concurrent.CancellationException} is thrown
+     */
+    public static void sleep(long delay, CancellationToken cancellationToken) {
+        final CountDownLatch canceled = new CountDownLatch(1);
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                canceled.countDown();
+            }
+        };
+        if (cancellationToken != null) {
+            cancellationToken.addOnCancelListener(listener);
+        }
+        try {
+            canceled.await(delay, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (cancellationToken != null) {
+                cancellationToken.removeOnCancelListener(listener);
+            }
+        }
+        if (cancellationToken != null) {
+            cancellationToken.throwIfCanceled();
+        }
+    }
+
+    /**
+     * Returns milliseconds from Retry-After header given in seconds, or -1 if it is missing.
+     * Header with a date is rare for USGS and is ignored.
+     */
+    public static long parseRetryAfter(String header) {
+        if (header == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(header.trim())));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -36,6 +36,24 @@ public class SettingsActivity extends AppCompatActivity {
             Preference orderBy = findPreference(getString(R.string.settings_order_by_key));
             bindPreferenceSummaryToValue(orderBy);
 
+            Preference regions = findPreference(getString(R.string.settings_regions_key));
+            bindPreferenceSummaryToValue(regions);
+
+            Preference pushUrl = findPreference(getString(R.string.settings_push_key));
+            bindPreferenceSummaryToValue(pushUrl);
+
+            // Import starts when source is entered, it is not summarized by the current value
+            Preference importSource = findPreference(getString(R.string.settings_import_key));
+            importSource.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+                @Override
+                public boolean onPreferenceChange(Preference preference, Object newValue) {
+                    String source = newValue.toString().trim();
+                    if (!source.isEmpty()) {
+                        CatalogImportService.start(getActivity(), source);
+                    }
+                    return true;
+                }
+            });
         }
 
         /**
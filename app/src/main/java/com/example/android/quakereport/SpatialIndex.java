@@ -0,0 +1,253 @@
+package com.example.android.quakereport;
+
+import java.util.Arrays;
+
+/**
+ * Grid index over epicenters in an {@link EarthquakeStore}, for finding earthquakes near a
+ * point or inside a map viewport without looking at every row.
+ *
+ * The world is split into cells of equal size in degrees. Positions of earthquakes are
+ * grouped by cell in one array, together with copies of their coordinates, so a query only
+ * scans the cells it overlaps. Earthquakes without known coordinates are left out.
+ *
+ * The index is a snapshot, it has to be built again after the store changes. Queries return
+ * store positions in ascending order.
+ */
+public class SpatialIndex {
+
+    /** Mean radius of the Earth used for distances */
+    public static final double EARTH_RADIUS_KM = 6371.0;
+    /** Cell size in degrees, ~111 km at the equator */
+    private static final double DEFAULT_CELL_SIZE = 1.0;
+
+    // Members
+    private final double mCellSize;
+    private final int mRows;
+    private final int mColumns;
+    /** Start of every cell in mPositions, cell i takes mCellStarts[i] until mCellStarts[i + 1] */
+    private final int[] mCellStarts;
+    private final int[] mPositions;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+
+    // Constructors
+    public SpatialIndex(EarthquakeStore earthquakes) {
+        this(earthquakes, DEFAULT_CELL_SIZE);
+    }
+
+    public SpatialIndex(EarthquakeStore earthquakes, double cellSize) {
+        if (!(cellSize > 0 && cellSize <= 180)) {
+            throw new IllegalArgumentException("Invalid cell size " + cellSize);
+        }
+        mCellSize = cellSize;
+        mRows = (int) Math.ceil(180 / cellSize);
+        mColumns = (int) Math.ceil(360 / cellSize);
+        mCellStarts = new int[mRows * mColumns + 1];
+
+        // Count earthquakes per cell, then place them with counting sort
+        int size = earthquakes.size();
+        int[] cells = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            double latitude = earthquakes.getLatitude(i);
+            double longitude = normalizeLongitude(earthquakes.getLongitude(i));
+            if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+                cells[i] = -1;
+                continue;
+            }
+            cells[i] = getRow(latitude) * mColumns + getColumn(longitude);
+            mCellStarts[cells[i] + 1]++;
+            count++;
+        }
+        for (int i = 1; i < mCellStarts.length; i++) {
+            mCellStarts[i] += mCellStarts[i - 1];
+        }
+
+        mPositions = new int[count];
+        mLatitudes = new double[count];
+        mLongitudes = new double[count];
+        int[] next = Arrays.copyOf(mCellStarts, mCellStarts.length - 1);
+        for (int i = 0; i < size; i++) {
+            if (cells[i] == -1) {
+                continue;
+            }
+            int slot = next[cells[i]]++;
+            mPositions[slot] = i;
+            mLatitudes[slot] = earthquakes.getLatitude(i);
+            mLongitudes[slot] = normalizeLongitude(earthquakes.getLongitude(i));
+        }
+    }
+
+    /**
+     * Returns number of indexed earthquakes, the ones with known coordinates
+     */
+    public int size() {
+        return mPositions.length;
+    }
+
+    /**
+     * Returns positions of earthquakes inside the box. If minLongitude is greater than
+     * maxLongitude, the box crosses the 180th meridian.
+     */
+    public int[] findInBoundingBox(double minLatitude, double maxLatitude,
+                                   double minLongitude, double maxLongitude) {
+        Result result = new Result();
+        if (minLatitude > maxLatitude) {
+            return result.toArray();
+        }
+        minLongitude = normalizeLongitude(minLongitude);
+        maxLongitude = normalizeLongitude(maxLongitude);
+        boolean wraps = minLongitude > maxLongitude;
+
+        int firstColumn = getColumn(minLongitude);
+        int columnCount = getColumn(maxLongitude) - firstColumn + 1;
+        if (wraps) {
+            columnCount = Math.min(mColumns, columnCount + mColumns);
+        }
+        for (int row = getRow(minLatitude); row <= getRow(maxLatitude); row++) {
+            for (int i = 0; i < columnCount; i++) {
+                int cell = row * mColumns + (firstColumn + i) % mColumns;
+                for (int slot = mCellStarts[cell]; slot < mCellStarts[cell + 1]; slot++) {
+                    double latitude = mLatitudes[slot];
+                    double longitude = mLongitudes[slot];
+                    if (latitude < minLatitude || latitude > maxLatitude) {
+                        continue;
+                    }
+                    boolean inside = wraps
+                            ? longitude >= minLongitude || longitude <= maxLongitude
+                            : longitude >= minLongitude && longitude <= maxLongitude;
+                    if (inside) {
+                        result.add(mPositions[slot]);
+                    }
+                }
+            }
+        }
+        return result.toSortedArray();
+    }
+
+    /**
+     * Returns positions of earthquakes at most radiusKm away from the point
+     */
+    public int[] findWithinRadius(double latitude, double longitude, double radiusKm) {
+        Result result = new Result();
+        if (!(radiusKm >= 0)) {
+            return result.toArray();
+        }
+        longitude = normalizeLongitude(longitude);
+        double angle = radiusKm / EARTH_RADIUS_KM;
+        double latitudeDelta = Math.toDegrees(angle);
+        double minLatitude = latitude - latitudeDelta;
+        double maxLatitude = latitude + latitudeDelta;
+
+        // Widest longitude span of the circle, which covers every longitude around a pole
+        int firstColumn = 0;
+        int columnCount = mColumns;
+        double longitudeDelta = 180;
+        if (minLatitude > -90 && maxLatitude < 90) {
+            double sine = Math.sin(angle) / Math.cos(Math.toRadians(latitude));
+            if (sine < 1) {
+                longitudeDelta = Math.toDegrees(Math.asin(sine));
+                firstColumn = getColumn(normalizeLongitude(longitude - longitudeDelta));
+                columnCount = Math.min(mColumns,
+                        getColumn(normalizeLongitude(longitude + longitudeDelta)) - firstColumn + 1);
+                if (columnCount <= 0) {
+                    columnCount += mColumns;
+                }
+            }
+        }
+
+        // Compare haversine terms instead of distances to avoid asin for every candidate
+        double maxHaversine = haversine(Math.min(angle, Math.PI));
+        double latitudeRadians = Math.toRadians(latitude);
+        double latitudeCosine = Math.cos(latitudeRadians);
+        for (int row = getRow(minLatitude); row <= getRow(maxLatitude); row++) {
+            for (int i = 0; i < columnCount; i++) {
+                int cell = row * mColumns + (firstColumn + i) % mColumns;
+                for (int slot = mCellStarts[cell]; slot < mCellStarts[cell + 1]; slot++) {
+                    double candidateLatitude = mLatitudes[slot];
+                    if (candidateLatitude < minLatitude || candidateLatitude > maxLatitude) {
+                        continue;
+                    }
+                    // Cheap check against the box around the circle before trigonometry
+                    double longitudeDifference = Math.abs(mLongitudes[slot] - longitude);
+                    if (Math.min(longitudeDifference, 360 - longitudeDifference) > longitudeDelta) {
+                        continue;
+                    }
+                    double candidateRadians = Math.toRadians(candidateLatitude);
+                    double value = haversine(candidateRadians - latitudeRadians)
+                            + latitudeCosine * Math.cos(candidateRadians)
+                            * haversine(Math.toRadians(mLongitudes[slot] - longitude));
+                    if (value <= maxHaversine) {
+                        result.add(mPositions[slot]);
+                    }
+                }
+            }
+        }
+        return result.toSortedArray();
+    }
+
+    /**
+     * Returns great circle distance between two points in km
+     */
+    public static double distanceKm(double latitude1, double longitude1,
+                                    double latitude2, double longitude2) {
+        double radians1 = Math.toRadians(latitude1);
+        double radians2 = Math.toRadians(latitude2);
+        double value = haversine(radians2 - radians1) + Math.cos(radians1) * Math.cos(radians2)
+                * haversine(Math.toRadians(longitude2 - longitude1));
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.sqrt(Math.min(1, value)));
+    }
+
+    private static double haversine(double angle) {
+        double sine = Math.sin(angle / 2);
+        return sine * sine;
+    }
+
+    private int getRow(double latitude) {
+        int row = (int) Math.floor((latitude + 90) / mCellSize);
+        return Math.max(0, Math.min(mRows - 1, row));
+    }
+
+    private int getColumn(double longitude) {
+        int column = (int) Math.floor((longitude + 180) / mCellSize);
+        return Math.max(0, Math.min(mColumns - 1, column));
+    }
+
+    /**
+     * Returns longitude moved into [-180, 180)
+     */
+    private static double normalizeLongitude(double longitude) {
+        if (longitude >= -180 && longitude < 180) {
+            return longitude;
+        }
+        longitude = (longitude + 180) % 360;
+        return longitude < 0 ? longitude + 180 : longitude - 180;
+    }
+
+    /**
+     * Growable list of positions found by a query
+     */
+    private static class Result {
+
+        // Members
+        private int[] mValues = new int[16];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mValues, mSize);
+        }
+
+        int[] toSortedArray() {
+            int[] values = toArray();
+            Arrays.sort(values);
+            return values;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.android.quakereport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * USGS GeoJSON endpoint, queries of the app are written for it
+ */
+public class UsgsSource implements EarthquakeSource {
+
+    public static final String NAME = "usgs";
+
+    private static final UsgsSource sDefault = new UsgsSource();
+
+    public static UsgsSource getDefault() {
+        return sDefault;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String buildUrl(String usgsUrl) {
+        return usgsUrl;
+    }
+
+    @Override
+    public List<Earthquake> parse(InputStream inputStream, CancellationToken cancellationToken)
+            throws IOException {
+        return QueryUtils.extractEarthquakes(inputStream, cancellationToken);
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private static final long MIN_OPEN_TIME = 50;
+
+    private final CircuitBreaker mBreaker = new CircuitBreaker(3, MIN_OPEN_TIME, 400);
+
+    @Test
+    public void opensAfterFailuresInRow() {
+        fail(2);
+        mBreaker.onSuccess();
+        fail(2);
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+
+        fail(1);
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        assertFalse(mBreaker.allowRequest());
+        assertTrue(mBreaker.getRetryIn() > 0);
+    }
+
+    @Test
+    public void successfulTrialClosesCircuit() throws InterruptedException {
+        fail(3);
+        Thread.sleep(MIN_OPEN_TIME * 2);
+
+        assertTrue(mBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+        // Only one trial at a time
+        assertFalse(mBreaker.allowRequest());
+
+        mBreaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, mBreaker.getState());
+        assertTrue(mBreaker.allowRequest());
+    }
+
+    @Test
+    public void failedTrialOpensCircuitForLonger() throws InterruptedException {
+        fail(3);
+        Thread.sleep(MIN_OPEN_TIME * 2);
+
+        assertTrue(mBreaker.allowRequest());
+        mBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, mBreaker.getState());
+        assertTrue(mBreaker.getRetryIn() > MIN_OPEN_TIME);
+
+        Thread.sleep(MIN_OPEN_TIME * 3);
+        assertTrue(mBreaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, mBreaker.getState());
+    }
+
+    @Test
+    public void canceledTrialLetsNextOneThrough() throws InterruptedException {
+        fail(3);
+        Thread.sleep(MIN_OPEN_TIME * 2);
+
+        assertTrue(mBreaker.allowRequest());
+        mBreaker.onCanceled();
+        assertTrue(mBreaker.allowRequest());
+    }
+
+    private void fail(int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(mBreaker.allowRequest());
+            mBreaker.onFailure();
+        }
+    }
+}
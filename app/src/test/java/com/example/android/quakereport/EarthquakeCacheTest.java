@@ -0,0 +1,141 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.Headers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class EarthquakeCacheTest {
+
+    private static final long TIME = 1488146452000L;
+    private static final String URL = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestServer mServer;
+    private File mDirectory;
+    private EarthquakeCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        CircuitBreaker.resetAll();
+        mServer = new TestServer();
+        mDirectory = new File(mFolder.getRoot(), "earthquakes");
+        mCache = new EarthquakeCache(mDirectory);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+    }
+
+    @Test
+    public void revalidatesCachedResponse() {
+        String url = mServer.getUrl("/query");
+        mServer.enqueue(new TestServer.Reply(200, GeoJson.collection(
+                GeoJson.feature("us1", 5.1, TIME), GeoJson.feature("us2", 4.0, TIME - 60000)))
+                .header("ETag", "\"v1\"")
+                .header("Last-Modified", "Mon, 27 Feb 2017 22:00:52 GMT"))
+                .enqueue(new TestServer.Reply(304, null));
+
+        assertEquals(2, QueryUtils.fetchEarthquakeData(url, mCache).size());
+        List<Earthquake> revalidated = QueryUtils.fetchEarthquakeData(url, mCache);
+
+        assertEquals(2, revalidated.size());
+        assertEquals("us1", revalidated.get(0).getId());
+        List<Headers> requests = mServer.getRequests();
+        assertNull(requests.get(0).getFirst("If-None-Match"));
+        assertEquals("\"v1\"", requests.get(1).getFirst("If-None-Match"));
+        assertEquals("Mon, 27 Feb 2017 22:00:52 GMT",
+                requests.get(1).getFirst("If-Modified-Since"));
+    }
+
+    @Test
+    public void changedResponseReplacesCachedOne() {
+        String url = mServer.getUrl("/query");
+        mServer.enqueue(new TestServer.Reply(200, GeoJson.collection(
+                GeoJson.feature("us1", 5.1, TIME))).header("ETag", "\"v1\""))
+                .enqueue(new TestServer.Reply(200, GeoJson.collection(
+                        GeoJson.feature("us3", 6.0, TIME + 60000),
+                        GeoJson.feature("us1", 5.1, TIME))).header("ETag", "\"v2\""));
+
+        QueryUtils.fetchEarthquakeData(url, mCache);
+        QueryUtils.fetchEarthquakeData(url, mCache);
+
+        EarthquakeCache.Entry cached = mCache.get(url);
+        assertEquals("\"v2\"", cached.getEtag());
+        assertEquals(2, cached.getEarthquakes().size());
+    }
+
+    @Test
+    public void damagedCountIsMiss() throws IOException {
+        mCache.put(URL, new EarthquakeCache.Entry(null, null, GeoJson.parse(GeoJson.collection(
+                GeoJson.feature("us1", 5.1, TIME)))));
+        assertNotNull(mCache.get(URL));
+
+        // Magic, version, url and two absent headers come before the count
+        long countOffset = 4 + 4 + 2 + URL.length() + 1 + 1;
+        writeInt(countOffset, Integer.MAX_VALUE);
+        assertNull(mCache.get(URL));
+        writeInt(countOffset, -1);
+        assertNull(mCache.get(URL));
+    }
+
+    @Test
+    public void concurrentWritersDontShareTempFile() throws Exception {
+        final String response = GeoJson.collection(GeoJson.feature("us1", 5.1, TIME),
+                GeoJson.feature("us2", 4.0, TIME - 60000));
+        Thread[] threads = new Thread[4];
+        final Exception[] failure = new Exception[1];
+        for (int t = 0; t < threads.length; t++) {
+            // Separate instances don't share the lock
+            final EarthquakeCache cache = new EarthquakeCache(mDirectory);
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            cache.put(URL, new EarthquakeCache.Entry(null, null,
+                                    GeoJson.parse(response)));
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure[0]);
+        assertEquals(2, mCache.get(URL).getEarthquakes().size());
+        assertEquals(1, mDirectory.listFiles().length);
+    }
+
+    private void writeInt(long offset, int value) throws IOException {
+        File[] files = mDirectory.listFiles();
+        assertEquals(1, files.length);
+        RandomAccessFile file = new RandomAccessFile(files[0], "rw");
+        try {
+            file.seek(offset);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+}
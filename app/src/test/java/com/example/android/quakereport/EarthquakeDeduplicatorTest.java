@@ -0,0 +1,79 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class EarthquakeDeduplicatorTest {
+
+    private static final long TOLERANCE = 10000;
+
+    private final EarthquakeDeduplicator mDeduplicator = new EarthquakeDeduplicator(TOLERANCE,
+            EarthquakeDeduplicator.DEFAULT_DISTANCE_TOLERANCE,
+            EarthquakeDeduplicator.DEFAULT_MAGNITUDE_TOLERANCE);
+
+    @Test
+    public void mergesEventsStraddlingBucketBoundary() {
+        List<Earthquake> merged = merge(
+                Collections.singletonList(earthquake("us1", TOLERANCE - 1)),
+                Collections.singletonList(earthquake("em1", TOLERANCE + 1)));
+
+        assertEquals(1, merged.size());
+        assertEquals("us1", merged.get(0).getId());
+    }
+
+    @Test
+    public void mergesEventsWithNegativeTimes() {
+        List<Earthquake> merged = merge(
+                Arrays.asList(earthquake("us1", -TOLERANCE - 1), earthquake("us2", -1)),
+                Arrays.asList(earthquake("em1", -TOLERANCE + 1), earthquake("em2", 1)));
+
+        assertEquals(2, merged.size());
+        assertEquals("us1", merged.get(0).getId());
+        assertEquals("us2", merged.get(1).getId());
+    }
+
+    @Test
+    public void keepsCloseEventsOfOneSource() {
+        List<Earthquake> merged = merge(
+                Arrays.asList(earthquake("us1", 0), earthquake("us2", 1000)),
+                Collections.<Earthquake>emptyList());
+
+        assertEquals(2, merged.size());
+    }
+
+    @Test
+    public void matchesEventsWithoutCoordinatesOnlyById() {
+        List<Earthquake> merged = merge(
+                Arrays.asList(new Earthquake("us1", 4.0, "Place", 0, null, 0, false),
+                        new Earthquake("us2", 4.0, "Place", 0, null, 0, false)),
+                Arrays.asList(new Earthquake("em1", 4.0, "Place", 0, null, 0, false),
+                        new Earthquake("us2", 4.0, "Place", 0, null, 0, false)));
+
+        assertEquals(3, merged.size());
+        assertEquals("em1", merged.get(2).getId());
+    }
+
+    @Test
+    public void matchesClosestEventInTime() {
+        // em1 has to take us1, otherwise em2 is left without a match
+        List<Earthquake> merged = merge(
+                Arrays.asList(earthquake("us1", 8000), earthquake("us2", 0)),
+                Arrays.asList(earthquake("em1", 7000), earthquake("em2", -9000)));
+
+        assertEquals(2, merged.size());
+    }
+
+    @SafeVarargs
+    private final List<Earthquake> merge(List<Earthquake>... lists) {
+        return mDeduplicator.merge(Arrays.asList(lists));
+    }
+
+    private static Earthquake earthquake(String id, long time) {
+        return new Earthquake(id, 4.0, "Place", time, null, time, false, 35.0, 139.0, 10.0);
+    }
+}
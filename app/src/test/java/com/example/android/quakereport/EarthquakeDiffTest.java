@@ -0,0 +1,124 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class EarthquakeDiffTest {
+
+    private static final long TIME = 1488146452000L;
+
+    /**
+     * Replays operations on a plain list. Inserted and changed rows are taken from fresh,
+     * everything before a reported position already matches it.
+     */
+    private static class Mirror implements EarthquakeDiff.Callback {
+
+        // Members
+        private final List<Earthquake> mRows;
+        private final List<Earthquake> mFresh;
+        private int mTouched;
+
+        Mirror(List<Earthquake> rows, List<Earthquake> fresh) {
+            mRows = new ArrayList<>(rows);
+            mFresh = fresh;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            for (int i = position; i < position + count; i++) {
+                mRows.add(i, mFresh.get(i));
+            }
+            mTouched += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mRows.subList(position, position + count).clear();
+            mTouched += count;
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            for (int i = position; i < position + count; i++) {
+                mRows.set(i, mFresh.get(i));
+            }
+            mTouched += count;
+        }
+    }
+
+    @Test
+    public void keepsRowsInLongestRunInPlace() {
+        EarthquakeStore store = new EarthquakeStore(Arrays.asList(earthquake("a", 0),
+                earthquake("b", 0), earthquake("c", 0), earthquake("d", 0)));
+        List<Earthquake> fresh = Arrays.asList(earthquake("d", 0), earthquake("a", 0),
+                earthquake("b", 1), earthquake("c", 0));
+        Mirror mirror = new Mirror(store, fresh);
+
+        // "d" moves, "b" changes, "a" and "c" are not touched
+        assertEquals(3, EarthquakeDiff.apply(store, fresh, mirror));
+        assertSameEarthquakes(fresh, store);
+        assertSameEarthquakes(fresh, mirror.mRows);
+    }
+
+    @Test
+    public void randomChangesMakeStoreEqualFresh() {
+        Random random = new Random(1);
+        for (int round = 0; round < 2000; round++) {
+            List<Earthquake> old = randomList(random);
+            List<Earthquake> fresh = randomList(random);
+            EarthquakeStore store = new EarthquakeStore(old);
+            Mirror mirror = new Mirror(old, fresh);
+
+            int touched = EarthquakeDiff.apply(store, fresh, mirror);
+
+            assertSameEarthquakes(fresh, store);
+            assertSameEarthquakes(fresh, mirror.mRows);
+            assertEquals(touched, mirror.mTouched);
+        }
+    }
+
+    /**
+     * Returns shuffled earthquakes with ids from a small range, so old and fresh lists
+     * share some of them. A few have duplicate ids, a few no id and some of those no url.
+     */
+    private static List<Earthquake> randomList(Random random) {
+        int count = random.nextInt(30);
+        List<Earthquake> earthquakes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int key = random.nextInt(40);
+            if (key < 3) {
+                earthquakes.add(new Earthquake(null, 4.0, "Place", TIME - key, null,
+                        random.nextInt(2), false));
+            } else if (key < 6) {
+                earthquakes.add(new Earthquake(null, 4.0, "Place", TIME - key, "url" + key,
+                        random.nextInt(2), false));
+            } else {
+                earthquakes.add(earthquake("us" + key, random.nextInt(2)));
+            }
+        }
+        Collections.shuffle(earthquakes, random);
+        return earthquakes;
+    }
+
+    private static Earthquake earthquake(String id, long updated) {
+        return new Earthquake(id, 4.0, "Place", TIME, "url" + id, TIME + updated, false);
+    }
+
+    private static void assertSameEarthquakes(List<Earthquake> expected, List<Earthquake> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Earthquake earthquake = actual.get(i);
+            assertEquals(expected.get(i).getId(), earthquake.getId());
+            assertEquals(expected.get(i).getUrl(), earthquake.getUrl());
+            assertEquals(expected.get(i).getUpdated(), earthquake.getUpdated());
+            assertEquals(expected.get(i).getMilliseconds(), earthquake.getMilliseconds());
+        }
+    }
+}
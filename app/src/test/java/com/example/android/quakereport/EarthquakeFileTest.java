@@ -0,0 +1,134 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class EarthquakeFileTest {
+
+    private static final long TIME = 1488146452000L;
+    private static final String EVENT_PAGE = "https://earthquake.usgs.gov/earthquakes/eventpage/";
+    /** Offset of the string count in the header */
+    private static final int STRING_COUNT_OFFSET = 12;
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(mFolder.getRoot(), "quakes.bin");
+    }
+
+    @Test
+    public void readsWrittenEarthquakes() throws IOException {
+        List<Earthquake> earthquakes = Arrays.asList(
+                new Earthquake("us1", 5.1, "74km NW of Rumoi, Japan", TIME, EVENT_PAGE + "us1",
+                        TIME + 1000, false, 44.5, 141.2, 10.5),
+                new Earthquake("us2", 4.0, "Adak, Alaska", TIME - 60000, EVENT_PAGE + "other",
+                        TIME, false, 51.9, -176.6, 35.0),
+                new Earthquake(null, 3.2, "74km NW of Rumoi, Japan", TIME + 60000, null,
+                        TIME + 60000, false));
+
+        EarthquakeFile.write(mFile, earthquakes);
+        EarthquakeFile file = EarthquakeFile.open(mFile);
+
+        assertEquals(3, file.size());
+        for (int i = 0; i < earthquakes.size(); i++) {
+            Earthquake expected = earthquakes.get(i);
+            Earthquake earthquake = file.get(i);
+            assertEquals(expected.getId(), earthquake.getId());
+            assertEquals(expected.getUrl(), earthquake.getUrl());
+            assertEquals(expected.getLocation(), earthquake.getLocation());
+            assertEquals(expected.getMagnitude(), earthquake.getMagnitude(), 0);
+            assertEquals(expected.getMilliseconds(), earthquake.getMilliseconds());
+            assertEquals(expected.getUpdated(), earthquake.getUpdated());
+            assertEquals(expected.getLatitude(), earthquake.getLatitude(), 0);
+            assertEquals(expected.getDepth(), earthquake.getDepth(), 0);
+        }
+        // Time index goes from the oldest earthquake
+        assertEquals(1, file.getPositionByTime(0));
+        assertEquals(2, file.getPositionByTime(2));
+        assertEquals(1, file.findTime(TIME));
+        // Temporary file is renamed, nothing else is left
+        assertEquals(1, mFolder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void rejectsDamagedHeader() throws IOException {
+        EarthquakeFile.write(mFile, Arrays.asList(earthquake("us1"), earthquake("us2")));
+
+        writeInt(0, 0x12345678);
+        assertNotOpened();
+        EarthquakeFile.write(mFile, Arrays.asList(earthquake("us1"), earthquake("us2")));
+        writeInt(8, Integer.MAX_VALUE);
+        assertNotOpened();
+        writeInt(8, -1);
+        assertNotOpened();
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws IOException {
+        EarthquakeFile.write(mFile, Arrays.asList(earthquake("us1"), earthquake("us2")));
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 1);
+        } finally {
+            file.close();
+        }
+        assertNotOpened();
+    }
+
+    @Test
+    public void rejectsDamagedStringTable() throws IOException {
+        EarthquakeFile.write(mFile, Arrays.asList(earthquake("us1"), earthquake("us2")));
+
+        // String count one higher moves the offsets past the end of the pool
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        int stringCount;
+        try {
+            file.seek(STRING_COUNT_OFFSET);
+            stringCount = file.readInt();
+        } finally {
+            file.close();
+        }
+        writeInt(STRING_COUNT_OFFSET, stringCount + 1);
+        assertNotOpened();
+    }
+
+    private void assertNotOpened() {
+        try {
+            EarthquakeFile.open(mFile);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private void writeInt(long offset, int value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(offset);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private static Earthquake earthquake(String id) {
+        return new Earthquake(id, 4.0, "Place", TIME, EVENT_PAGE + id, TIME, false, 10.0, 20.0,
+                5.0);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class EarthquakeFormatterTest {
+
+    private static final long TIME = 1488146452000L;
+    private static final int[] COLORS = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+
+    @Test
+    public void splitsLocationAfterOf() {
+        EarthquakeFormatter formatter = new EarthquakeFormatter(COLORS);
+
+        assertEquals("74km NW of", formatter.getLocationOffset("74km NW of Rumoi, Japan"));
+        assertEquals("Rumoi, Japan", formatter.getPrimaryLocation("74km NW of Rumoi, Japan"));
+        assertEquals("Near the", formatter.getLocationOffset("Pacific-Antarctic Ridge"));
+        assertEquals("Pacific-Antarctic Ridge",
+                formatter.getPrimaryLocation("Pacific-Antarctic Ridge"));
+    }
+
+    @Test
+    public void remembersFormattedValues() {
+        EarthquakeFormatter formatter = new EarthquakeFormatter(COLORS);
+
+        assertEquals("6.2", formatter.formatMagnitude(6.2));
+        assertSame(formatter.formatMagnitude(6.2), formatter.formatMagnitude(6.2));
+        assertSame(formatter.formatDate(TIME), formatter.formatDate(TIME));
+        assertSame(formatter.formatTime(TIME), formatter.formatTime(TIME));
+        assertSame(formatter.getPrimaryLocation("10km N of Place"),
+                formatter.getPrimaryLocation("10km N of Place"));
+    }
+
+    /**
+     * Binding rows seen before must not allocate, getRow() is what
+     * {@link QuakeArrayAdapter#onBindViewHolder} takes texts of every row from
+     */
+    @Test
+    public void bindingKnownRowsAllocatesNothing() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        EarthquakeStore store = new EarthquakeStore();
+        for (int i = 0; i < 200; i++) {
+            store.add(new Earthquake("us" + i, 2 + i % 60 / 10.0, (i % 50) + "km N of Place "
+                    + i % 20, TIME - i * 60000L, null, TIME, false));
+        }
+        EarthquakeFormatter formatter = new EarthquakeFormatter(COLORS);
+
+        // First passes format rows and warm up the code, measuring allocates a little itself
+        long checksum = 0;
+        for (int pass = 0; pass < 1000; pass++) {
+            checksum += bindAll(store, formatter);
+        }
+        long overhead = threads.getThreadAllocatedBytes(thread);
+        overhead = threads.getThreadAllocatedBytes(thread) - overhead;
+
+        // JVM sometimes allocates on its own during a round, i.e. when compiled code changes
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 5 && allocated != 0; round++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int pass = 0; pass < 100; pass++) {
+                checksum += bindAll(store, formatter);
+            }
+            allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+        }
+
+        assertEquals(0, allocated);
+        assertTrue(checksum > 0);
+    }
+
+    private static long bindAll(EarthquakeStore store, EarthquakeFormatter formatter) {
+        long checksum = 0;
+        for (int position = 0; position < store.size(); position++) {
+            EarthquakeRow row = formatter.getRow(store, position);
+            checksum += row.getMagnitude().length() + row.getMagnitudeColor()
+                    + row.getLocationOffset().length() + row.getPrimaryLocation().length()
+                    + row.getDate().length() + row.getTime().length();
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.android.quakereport;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeSnapshotTest {
+
+    private static final long TIME = 1488146452000L;
+    private static final String KEY = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private EarthquakeSnapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        mSnapshot = new EarthquakeSnapshot(mFolder.getRoot());
+    }
+
+    @Test
+    public void readsWrittenSnapshot() throws IOException {
+        mSnapshot.write(new EarthquakeSnapshot.Content(KEY, true, GeoJson.parse(GeoJson.collection(
+                GeoJson.feature("us1", 5.1, TIME), GeoJson.feature("us2", 4.0, TIME - 60000)))));
+
+        EarthquakeSnapshot.Content content = mSnapshot.read();
+        assertEquals(KEY, content.getKey());
+        assertTrue(content.isLastPage());
+        assertEquals(2, content.getEarthquakes().size());
+        assertEquals("us2", content.getEarthquakes().get(1).getId());
+        assertEquals(TIME - 60000, content.getEarthquakes().get(1).getMilliseconds());
+    }
+
+    @Test
+    public void damagedCountIsMiss() throws IOException {
+        mSnapshot.write(new EarthquakeSnapshot.Content(KEY, false, GeoJson.parse(
+                GeoJson.collection(GeoJson.feature("us1", 5.1, TIME)))));
+        assertNotNull(mSnapshot.read());
+
+        // Magic, version, key and last page flag come before the count
+        long countOffset = 4 + 4 + 2 + KEY.length() + 1;
+        writeInt(countOffset, Integer.MAX_VALUE);
+        assertNull(mSnapshot.read());
+        writeInt(countOffset, -1);
+        assertNull(mSnapshot.read());
+    }
+
+    private void writeInt(long offset, int value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(mFolder.getRoot(), "snapshot"),
+                "rw");
+        try {
+            file.seek(offset);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+}
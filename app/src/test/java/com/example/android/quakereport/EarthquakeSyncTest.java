@@ -0,0 +1,54 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarthquakeSyncTest {
+
+    private static final long TIME = 1488146452000L;
+
+    @Test
+    public void parsedDeltaKeepsDeletedFlag() throws Exception {
+        List<Earthquake> delta = GeoJson.parse(GeoJson.collection(
+                GeoJson.feature("us1", 5.1, TIME, TIME + 1000, "deleted"),
+                GeoJson.feature("us2", 4.0, TIME, TIME + 1000, "reviewed")));
+
+        assertTrue(delta instanceof EarthquakeStore);
+        assertTrue(delta.get(0).isDeleted());
+        assertTrue(((EarthquakeStore) delta).isDeleted(0));
+        assertFalse(delta.get(1).isDeleted());
+    }
+
+    @Test
+    public void mergeRemovesEventsDeletedInDelta() throws Exception {
+        List<Earthquake> stored = GeoJson.parse(GeoJson.collection(
+                GeoJson.feature("us1", 5.1, TIME),
+                GeoJson.feature("us2", 4.0, TIME - 60000)));
+        List<Earthquake> delta = GeoJson.parse(GeoJson.collection(
+                GeoJson.feature("us1", 5.1, TIME, TIME + 1000, "deleted")));
+
+        EarthquakeSync.MergeResult result = EarthquakeSync.merge(stored, delta,
+                EarthquakeSync.ORDER_BY_TIME, 10);
+
+        assertEquals(1, result.getEarthquakes().size());
+        assertEquals("us2", result.getEarthquakes().get(0).getId());
+        assertFalse(result.isComplete());
+    }
+
+    @Test
+    public void storeKeepsDeletedFlagWhenRowsMove() {
+        EarthquakeStore store = new EarthquakeStore();
+        store.add(new Earthquake("us1", 5.1, "Place", TIME, null, TIME, true));
+        store.add(0, new Earthquake("us2", 4.0, "Place", TIME, null, TIME, false));
+
+        assertFalse(store.get(0).isDeleted());
+        assertTrue(store.get(1).isDeleted());
+        store.remove(0);
+        assertTrue(store.cursor().moveToPosition(0).isDeleted());
+    }
+}
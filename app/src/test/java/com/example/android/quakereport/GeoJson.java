@@ -0,0 +1,47 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds small USGS GeoJSON responses for tests
+ */
+final class GeoJson {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private GeoJson() {
+    }
+
+    /**
+     * Returns feature of an event, status "deleted" marks it as deleted in a delta
+     */
+    static String feature(String id, double magnitude, long time, long updated, String status) {
+        return String.format(Locale.US, "{\"type\":\"Feature\",\"properties\":{\"mag\":%.1f,"
+                        + "\"place\":\"10km N of Place %s\",\"time\":%d,\"updated\":%d,"
+                        + "\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/%s\","
+                        + "\"status\":\"%s\",\"type\":\"earthquake\"},"
+                        + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[-150.1,61.2,10.5]},"
+                        + "\"id\":\"%s\"}",
+                magnitude, id, time, updated, id, status, id);
+    }
+
+    static String feature(String id, double magnitude, long time) {
+        return feature(id, magnitude, time, time, "reviewed");
+    }
+
+    static String collection(String... features) {
+        StringBuilder builder = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < features.length; i++) {
+            builder.append(i > 0 ? "," : "").append(features[i]);
+        }
+        return builder.append("]}").toString();
+    }
+
+    static List<Earthquake> parse(String json) throws IOException {
+        return QueryUtils.extractEarthquakes(new ByteArrayInputStream(json.getBytes(UTF_8)));
+    }
+}
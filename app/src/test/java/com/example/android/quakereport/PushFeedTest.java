@@ -0,0 +1,181 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PushFeedTest {
+
+    private static final long TIME = 1488146452000L;
+    private static final long TIMEOUT = 5; /* seconds */
+
+    /**
+     * Runs deliveries on its own thread, which stands in for the main thread
+     */
+    private static class TestDispatcher implements PushFeed.Dispatcher {
+
+        // Members
+        private final ScheduledExecutorService mExecutor =
+                Executors.newSingleThreadScheduledExecutor();
+        private final List<Long> mDelays = new ArrayList<>();
+        private ScheduledFuture<?> mScheduled;
+
+        @Override
+        public synchronized void postDelayed(Runnable runnable, long delay) {
+            mDelays.add(delay);
+            mScheduled = mExecutor.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void removeCallbacks(Runnable runnable) {
+            if (mScheduled != null) {
+                mScheduled.cancel(false);
+            }
+        }
+
+        @Override
+        public long uptimeMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+        }
+
+        synchronized List<Long> getDelays() {
+            return new ArrayList<>(mDelays);
+        }
+    }
+
+    private final BlockingQueue<List<Earthquake>> mBatches = new LinkedBlockingQueue<>();
+    private final PushFeed.Listener mListener = new PushFeed.Listener() {
+        @Override
+        public void onEarthquakesPushed(List<Earthquake> earthquakes) {
+            mBatches.add(earthquakes);
+        }
+    };
+
+    private TestServer mServer;
+    private TestDispatcher mDispatcher;
+    private PushFeed mFeed;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new TestServer();
+        mDispatcher = new TestDispatcher();
+        mFeed = new PushFeed(mServer.getUrl("/events"), mListener, mDispatcher);
+    }
+
+    @After
+    public void tearDown() {
+        // Server drops open streams first, aborting a blocked read waits for it on the JVM
+        mServer.close();
+        mFeed.stop();
+        mDispatcher.mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void reconnectsWithLastEventId() throws InterruptedException {
+        final AtomicInteger connections = new AtomicInteger();
+        mServer.setHandler(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (connections.incrementAndGet() == 1) {
+                    // Server asks for quick reconnection and drops the connection
+                    send(exchange, "retry: 10\n\nid: 41\ndata: "
+                            + GeoJson.feature("us1", 5.1, TIME) + "\n\n", true);
+                } else {
+                    send(exchange, ": keep alive\nid: 42\ndata: "
+                            + GeoJson.feature("us2", 4.0, TIME + 60000) + "\n\n", false);
+                }
+            }
+        });
+        mFeed.start();
+
+        assertEquals("us1", takeBatch().get(0).getId());
+        assertEquals("us2", takeBatch().get(0).getId());
+        List<Headers> requests = mServer.getRequests();
+        assertEquals("text/event-stream", requests.get(0).getFirst("Accept"));
+        assertNull(requests.get(0).getFirst("Last-Event-ID"));
+        assertEquals("41", requests.get(1).getFirst("Last-Event-ID"));
+    }
+
+    @Test
+    public void batchesEventsAndCollapsesUpdates() throws InterruptedException {
+        final CountDownLatch firstDelivered = new CountDownLatch(1);
+        mServer.setHandler(new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream body = exchange.getResponseBody();
+                write(body, "data: " + GeoJson.feature("us1", 5.1, TIME) + "\n\n");
+                try {
+                    firstDelivered.await(TIMEOUT, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                // Burst within one batch interval, second update of us2 replaces the first
+                write(body, "data: " + GeoJson.feature("us2", 4.0, TIME + 1000) + "\n\n"
+                        + "event: message\r\ndata: " + GeoJson.feature("us3", 3.0, TIME + 2000)
+                        + "\r\n\r\n"
+                        + "data: " + GeoJson.feature("us2", 4.4, TIME + 1000) + "\n\n");
+            }
+        });
+        mFeed.start();
+
+        List<Earthquake> first = takeBatch();
+        firstDelivered.countDown();
+        List<Earthquake> second = takeBatch();
+
+        // First earthquake after a quiet period goes right away, the rest waits for the interval
+        assertEquals(1, first.size());
+        assertEquals(2, second.size());
+        assertEquals("us3", second.get(0).getId());
+        assertEquals("us2", second.get(1).getId());
+        assertEquals(4.4, second.get(1).getMagnitude(), 0.001);
+        List<Long> delays = mDispatcher.getDelays();
+        assertEquals(0L, (long) delays.get(0));
+        assertTrue(delays.get(1) > 0);
+    }
+
+    private List<Earthquake> takeBatch() throws InterruptedException {
+        List<Earthquake> batch = mBatches.poll(TIMEOUT, TimeUnit.SECONDS);
+        assertNotNull(batch);
+        return batch;
+    }
+
+    private static void send(HttpExchange exchange, String events, boolean close)
+            throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream body = exchange.getResponseBody();
+        write(body, events);
+        if (close) {
+            body.close();
+        }
+    }
+
+    private static void write(OutputStream body, String text) throws IOException {
+        body.write(text.getBytes(GeoJson.UTF_8));
+        body.flush();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.android.quakereport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class QueryUtilsTest {
+
+    private static final long TIME = 1488146452000L;
+    private static final String RESPONSE = GeoJson.collection(
+            GeoJson.feature("us1", 5.1, TIME), GeoJson.feature("us2", 4.0, TIME - 60000));
+
+    private TestServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        CircuitBreaker.resetAll();
+        mServer = new TestServer();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+        CircuitBreaker.resetAll();
+    }
+
+    @Test
+    public void retriesAfterWaitServerAskedFor() {
+        mServer.enqueue(new TestServer.Reply(503, "Busy").header("Retry-After", "0"))
+                .enqueue(new TestServer.Reply(200, RESPONSE));
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(mServer.getUrl("/query"),
+                null);
+
+        assertEquals(2, earthquakes.size());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void retriesWithJitterWithoutRetryAfter() {
+        mServer.enqueue(new TestServer.Reply(500, "Error"))
+                .enqueue(new TestServer.Reply(200, RESPONSE));
+
+        List<Earthquake> earthquakes = QueryUtils.fetchEarthquakeData(mServer.getUrl("/query"),
+                null);
+
+        assertEquals(2, earthquakes.size());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void givesUpAfterLastAttempt() {
+        mServer.enqueue(new TestServer.Reply(503, "Busy").header("Retry-After", "0"));
+
+        try {
+            QueryUtils.requestEarthquakeData(UsgsSource.getDefault(), mServer.getUrl("/query"),
+                    null, null);
+            fail();
+        } catch (IOException e) {
+            assertEquals(503, ((RetryPolicy.RetriableResponseException) e).getResponseCode());
+        }
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void givesUpWhenRetryAfterIsTooLong() {
+        mServer.enqueue(new TestServer.Reply(429, "Slow down").header("Retry-After", "3600"));
+
+        assertNull(QueryUtils.fetchEarthquakeData(mServer.getUrl("/query"), null));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void refusedRequestIsNotRetried() throws IOException {
+        mServer.enqueue(new TestServer.Reply(400, "Bad request"));
+
+        assertNull(QueryUtils.requestEarthquakeData(UsgsSource.getDefault(),
+                mServer.getUrl("/query"), null, null));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void openCircuitRefusesRequests() {
+        mServer.enqueue(new TestServer.Reply(503, "Busy").header("Retry-After", "0"));
+        String url = mServer.getUrl("/query");
+
+        // Default breaker opens after five failures in row, every fetch makes three attempts
+        assertNull(QueryUtils.fetchEarthquakeData(url, null));
+        assertNull(QueryUtils.fetchEarthquakeData(url, null));
+        assertEquals(CircuitBreaker.State.OPEN,
+                CircuitBreaker.forHost("127.0.0.1").getState());
+
+        int requests = mServer.getRequestCount();
+        try {
+            QueryUtils.requestEarthquakeData(UsgsSource.getDefault(), url, null, null);
+            fail();
+        } catch (IOException e) {
+            assertEquals(requests, mServer.getRequestCount());
+        }
+    }
+}
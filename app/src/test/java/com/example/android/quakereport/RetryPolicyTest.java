@@ -0,0 +1,60 @@
+package com.example.android.quakereport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private final RetryPolicy mPolicy = new RetryPolicy(5, 100, 1000, new Random(1));
+
+    @Test
+    public void delaysAreJitteredUpToGrowingLimit() {
+        IOException failure = new IOException("Connection reset");
+        for (int attempt = 1; attempt < 5; attempt++) {
+            long limit = Math.min(1000, 100L << (attempt - 1));
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (int i = 0; i < 1000; i++) {
+                long delay = mPolicy.getDelay(attempt, failure);
+                assertTrue(delay >= 0 && delay < limit);
+                min = Math.min(min, delay);
+                max = Math.max(max, delay);
+            }
+            // Full jitter spreads delays over the whole range
+            assertTrue(min < limit / 10);
+            assertTrue(max > limit * 9 / 10);
+        }
+    }
+
+    @Test
+    public void obeysRetryAfter() {
+        assertEquals(700, mPolicy.getDelay(1,
+                new RetryPolicy.RetriableResponseException(503, 700)));
+        assertEquals(0, mPolicy.getDelay(2, new RetryPolicy.RetriableResponseException(429, 0)));
+    }
+
+    @Test
+    public void givesUpWhenRetryAfterIsTooLong() {
+        assertEquals(-1, mPolicy.getDelay(1, new RetryPolicy.RetriableResponseException(503,
+                5000)));
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        assertTrue(mPolicy.getDelay(4, new IOException()) >= 0);
+        assertEquals(-1, mPolicy.getDelay(5, new IOException()));
+        assertEquals(-1, mPolicy.getDelay(5, new RetryPolicy.RetriableResponseException(503, 0)));
+    }
+
+    @Test
+    public void parsesRetryAfterSeconds() {
+        assertEquals(120000, RetryPolicy.parseRetryAfter(" 120 "));
+        assertEquals(-1, RetryPolicy.parseRetryAfter(null));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("Wed, 21 Oct 2015 07:28:00 GMT"));
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Local HTTP server standing in for USGS in tests. Answers with queued replies in order,
+ * the last one is repeated once the queue runs out. Headers of every request are kept.
+ */
+final class TestServer implements Closeable {
+
+    /**
+     * Canned response
+     */
+    static final class Reply {
+
+        // Members
+        private final int mCode;
+        private final byte[] mBody;
+        private final Map<String, String> mHeaders = new LinkedHashMap<>();
+
+        // Constructors
+        Reply(int code, String body) {
+            mCode = code;
+            mBody = body != null ? body.getBytes(GeoJson.UTF_8) : new byte[0];
+        }
+
+        Reply header(String name, String value) {
+            mHeaders.put(name, value);
+            return this;
+        }
+    }
+
+    // Members
+    private final HttpServer mServer;
+    private final LinkedList<Reply> mReplies = new LinkedList<>();
+    private final List<Headers> mRequests = new ArrayList<>();
+    private Reply mLastReply;
+    private HttpHandler mHandler;
+
+    // Constructors
+    TestServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                HttpHandler handler;
+                synchronized (TestServer.this) {
+                    mRequests.add(exchange.getRequestHeaders());
+                    handler = mHandler;
+                }
+                if (handler != null) {
+                    handler.handle(exchange);
+                } else {
+                    send(exchange, nextReply());
+                }
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    /**
+     * Returns url of path on this server
+     */
+    String getUrl(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    synchronized TestServer enqueue(Reply reply) {
+        mReplies.add(reply);
+        return this;
+    }
+
+    /**
+     * Lets handler answer every request instead of the queued replies, i.e. to stream
+     */
+    synchronized void setHandler(HttpHandler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Returns headers of requests made so far, in order
+     */
+    synchronized List<Headers> getRequests() {
+        return new ArrayList<>(mRequests);
+    }
+
+    synchronized int getRequestCount() {
+        return mRequests.size();
+    }
+
+    @Override
+    public void close() {
+        mServer.stop(0);
+    }
+
+    private synchronized Reply nextReply() {
+        if (!mReplies.isEmpty()) {
+            mLastReply = mReplies.removeFirst();
+        }
+        return mLastReply != null ? mLastReply : new Reply(404, null);
+    }
+
+    private static void send(HttpExchange exchange, Reply reply) throws IOException {
+        for (Map.Entry<String, String> header : reply.mHeaders.entrySet()) {
+            exchange.getResponseHeaders().add(header.getKey(), header.getValue());
+        }
+        boolean empty = reply.mBody.length == 0;
+        exchange.sendResponseHeaders(reply.mCode, empty ? -1 : reply.mBody.length);
+        OutputStream body = exchange.getResponseBody();
+        try {
+            if (!empty) {
+                body.write(reply.mBody);
+            }
+        } finally {
+            body.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging results of three sources into one list without duplicate events, as federated
+ * queries do. Other sources report most USGS events with slightly different time, position
+ * and magnitude, and some events of their own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DeduplicateBenchmark {
+
+    /** Share of USGS events other sources report too */
+    private static final double OVERLAP = 0.7;
+
+    /** Events of the three sources together */
+    @Param({"3000", "50000"})
+    public int events;
+
+    private List<List<Earthquake>> mSources;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<Earthquake> usgs = QueryUtils.extractEarthquakes(
+                new ByteArrayInputStream(Fixtures.load(events / 3)));
+        Random random = new Random(events);
+        mSources = Arrays.asList(usgs, perturb(usgs, "emsc", random),
+                perturb(usgs, "gfz", random));
+    }
+
+    private static List<Earthquake> perturb(List<Earthquake> usgs, String name, Random random) {
+        List<Earthquake> earthquakes = new ArrayList<>(usgs.size());
+        for (int i = 0; i < usgs.size(); i++) {
+            Earthquake earthquake = usgs.get(i);
+            boolean same = random.nextDouble() < OVERLAP;
+            // Events of their own are placed between USGS ones, far away
+            long time = earthquake.getMilliseconds() + (same ? random.nextInt(6000) - 3000
+                    : 15000 + random.nextInt(15000));
+            double latitude = same ? earthquake.getLatitude() + random.nextDouble() * 0.4 - 0.2
+                    : random.nextDouble() * 180 - 90;
+            double longitude = same ? earthquake.getLongitude() + random.nextDouble() * 0.4 - 0.2
+                    : random.nextDouble() * 360 - 180;
+            double magnitude = earthquake.getMagnitude() + random.nextDouble() * 0.6 - 0.3;
+            earthquakes.add(new Earthquake(name + ":" + i, magnitude, earthquake.getLocation(),
+                    time, null, 0, false, latitude, longitude, earthquake.getDepth()));
+        }
+        return new EarthquakeStore(earthquakes);
+    }
+
+    @Benchmark
+    public List<Earthquake> deduplicate() {
+        return new EarthquakeDeduplicator().merge(mSources);
+    }
+
+    /**
+     * Merge and sort, the whole work done after the sources arrived
+     */
+    @Benchmark
+    public List<Earthquake> deduplicateAndSort() {
+        List<Earthquake> earthquakes = new EarthquakeDeduplicator().merge(mSources);
+        EarthquakeSync.sort(earthquakes, EarthquakeSync.ORDER_BY_TIME);
+        return earthquakes;
+    }
+}
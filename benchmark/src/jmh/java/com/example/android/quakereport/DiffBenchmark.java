@@ -0,0 +1,80 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshing shown rows with a fresh result, as done when the first page is revalidated.
+ * Fresh result has one new earthquake on top and the oldest one dropped, the benchmarks
+ * switch between the two versions so every call has the same work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DiffBenchmark {
+
+    @Param({"10", "1000", "20000"})
+    public int features;
+
+    private List<Earthquake> mOld;
+    private List<Earthquake> mFresh;
+    private EarthquakeStore mStore;
+    private boolean mShowingFresh;
+
+    private final EarthquakeDiff.Callback mCallback = new EarthquakeDiff.Callback() {
+        @Override
+        public void onInserted(int position, int count) {
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        List<Earthquake> earthquakes = QueryUtils.extractEarthquakes(
+                new ByteArrayInputStream(Fixtures.load(features)));
+        mOld = new ArrayList<>(earthquakes.subList(1, earthquakes.size()));
+        mFresh = new ArrayList<>(earthquakes.subList(0, earthquakes.size() - 1));
+        mStore = new EarthquakeStore(mOld);
+    }
+
+    @Benchmark
+    public int diffOneNew() {
+        mShowingFresh = !mShowingFresh;
+        return EarthquakeDiff.apply(mStore, mShowingFresh ? mFresh : mOld, mCallback);
+    }
+
+    @Benchmark
+    public int diffUnchanged() {
+        return EarthquakeDiff.apply(mStore, mShowingFresh ? mFresh : mOld, mCallback);
+    }
+
+    /**
+     * What replacing rows cost before, clearing the store and adding everything again
+     */
+    @Benchmark
+    public int clearAndAddAll() {
+        mShowingFresh = !mShowingFresh;
+        mStore.clear();
+        mStore.addAll(mShowingFresh ? mFresh : mOld);
+        return mStore.size();
+    }
+}
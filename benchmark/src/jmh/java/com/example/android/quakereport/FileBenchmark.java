@@ -0,0 +1,141 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a stored result set from {@link EarthquakeFile}, compared with parsing the raw
+ * USGS GeoJSON and reading {@link EarthquakeCache}. Counters of parseGeoJson, readCache and
+ * open show how large the same result set is in each format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileBenchmark {
+
+    private static final String CACHE_URL = "https://earthquake.usgs.gov/fdsnws/event/1/query";
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Bytes read by one benchmark, divide by reads to get the size of the result set
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Size {
+
+        public long bytes;
+        public long reads;
+
+        void add(long length) {
+            bytes += length;
+            reads++;
+        }
+    }
+
+    @Param({"1000", "20000", "100000"})
+    public int features;
+
+    private byte[] mResponse;
+    private File mDirectory;
+    private File mFile;
+    private EarthquakeCache mCache;
+    private long mCacheLength;
+    private long mFileLength;
+    private long mNewest;
+
+    @Setup
+    public void setUp() throws IOException {
+        mResponse = Fixtures.load(features);
+        List<Earthquake> earthquakes = QueryUtils.extractEarthquakes(
+                new ByteArrayInputStream(mResponse));
+        mNewest = earthquakes.get(0).getMilliseconds();
+
+        mDirectory = File.createTempFile("quakes", "");
+        mDirectory.delete();
+        mFile = new File(mDirectory, "quakes.bin");
+        EarthquakeFile.write(mFile, earthquakes);
+        mFileLength = mFile.length();
+        mCache = new EarthquakeCache(new File(mDirectory, "cache"));
+        mCache.put(CACHE_URL, new EarthquakeCache.Entry(null, null, earthquakes));
+        for (File file : new File(mDirectory, "cache").listFiles()) {
+            mCacheLength += file.length();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] cacheFiles = new File(mDirectory, "cache").listFiles();
+        if (cacheFiles != null) {
+            for (File file : cacheFiles) {
+                file.delete();
+            }
+        }
+        new File(mDirectory, "cache").delete();
+        mFile.delete();
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public List<Earthquake> parseGeoJson(Size size) throws IOException {
+        size.add(mResponse.length);
+        return QueryUtils.extractEarthquakes(new ByteArrayInputStream(mResponse));
+    }
+
+    @Benchmark
+    public List<Earthquake> readCache(Size size) {
+        size.add(mCacheLength);
+        return mCache.get(CACHE_URL).getEarthquakes();
+    }
+
+    /**
+     * Mapping only, what showing the list needs before rows are bound
+     */
+    @Benchmark
+    public EarthquakeFile open(Size size) throws IOException {
+        size.add(mFileLength);
+        return EarthquakeFile.open(mFile);
+    }
+
+    /**
+     * Open and read what a list row shows of every earthquake
+     */
+    @Benchmark
+    public double openAndReadAll() throws IOException {
+        EarthquakeFile earthquakes = EarthquakeFile.open(mFile);
+        double sum = 0;
+        for (int i = 0; i < earthquakes.size(); i++) {
+            sum += earthquakes.getMagnitude(i) + earthquakes.getMilliseconds(i)
+                    + earthquakes.getLocation(i).length();
+        }
+        return sum;
+    }
+
+    /**
+     * Open and read earthquakes of the last day, found in the time index
+     */
+    @Benchmark
+    public int openAndReadLastDay() throws IOException {
+        EarthquakeFile earthquakes = EarthquakeFile.open(mFile);
+        int count = 0;
+        for (int rank = earthquakes.findTime(mNewest - DAY); rank < earthquakes.size(); rank++) {
+            if (earthquakes.get(earthquakes.getPositionByTime(rank)).getId() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.quakereport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * USGS GeoJSON responses used by benchmarks.
+ *
+ * Recorded responses are read from the directory in QUAKEREPORT_FIXTURES environment
+ * variable, named "usgs-<features>.geojson". Without it, responses with the same
+ * structure and every property USGS sends are generated from a fixed seed.
+ */
+final class Fixtures {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String FIXTURES_DIRECTORY = System.getenv("QUAKEREPORT_FIXTURES");
+
+    private static final String[] DIRECTIONS = {
+            "N", "NNE", "NE", "ENE", "E", "ESE", "SE", "SSE",
+            "S", "SSW", "SW", "WSW", "W", "WNW", "NW", "NNW"
+    };
+
+    private static final String[] PLACES = {
+            "Kokopo, Papua New Guinea", "Rumoi, Japan", "Ocotillo Wells, CA", "Anchorage, Alaska",
+            "Petrolia, CA", "Hawaiian Volcanoes Observatory, HI", "Ndoi Island, Fiji",
+            "Valparaiso, Chile", "Lata, Solomon Islands", "Sola, Vanuatu", "Hualien City, Taiwan",
+            "Kuril'sk, Russia", "Ierapetra, Greece", "Ashkasham, Afghanistan", "Bengkulu, Indonesia",
+            "Pinotepa de Don Luis, Mexico", "San Pedro de Atacama, Chile", "Adak, Alaska",
+            "Norcia, Italy", "Amatrice, Italy", "Ishinomaki, Japan", "Talkeetna, Alaska",
+            "Pahala, Hawaii", "Lone Pine, CA", "Ridgecrest, CA", "Blanco Fracture Zone",
+            "Mid-Atlantic Ridge", "South Sandwich Islands region", "Kermadec Islands region",
+            "Tonga", "Central East Pacific Rise", "Reykjanes Ridge"
+    };
+
+    private Fixtures() {
+    }
+
+    /**
+     * Returns response with given number of features, uncompressed
+     */
+    static byte[] load(int features) throws IOException {
+        if (FIXTURES_DIRECTORY != null) {
+            File file = new File(FIXTURES_DIRECTORY, "usgs-" + features + ".geojson");
+            if (file.exists()) {
+                return readFully(new FileInputStream(file));
+            }
+        }
+        return generate(features);
+    }
+
+    static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 4);
+        GZIPOutputStream gzip = new GZIPOutputStream(output);
+        gzip.write(bytes);
+        gzip.close();
+        return output.toByteArray();
+    }
+
+    /**
+     * Generates response in the format of USGS query endpoint, newest event first
+     */
+    static byte[] generate(int features) {
+        Random random = new Random(features);
+        StringBuilder builder = new StringBuilder(features * 1100);
+        builder.append("{\"type\":\"FeatureCollection\",\"metadata\":{\"generated\":1488150000000,")
+                .append("\"url\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?format=geojson\",")
+                .append("\"title\":\"USGS Earthquakes\",\"status\":200,\"api\":\"1.5.4\",")
+                .append("\"count\":").append(features).append("},\"features\":[");
+
+        long time = 1488146452000L;
+        for (int i = 0; i < features; i++) {
+            time -= 30000 + random.nextInt(600000);
+            String id = "us" + (20008000 + i) + (char) ('a' + random.nextInt(26));
+            double magnitude = Math.round((2.5 + random.nextDouble() * random.nextDouble() * 5) * 10) / 10.0;
+            String place = random.nextInt(10) == 0
+                    ? PLACES[random.nextInt(PLACES.length)]
+                    : (1 + random.nextInt(200)) + "km " + DIRECTIONS[random.nextInt(DIRECTIONS.length)]
+                    + " of " + PLACES[random.nextInt(PLACES.length)];
+
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"type\":\"Feature\",\"properties\":{")
+                    .append("\"mag\":").append(magnitude)
+                    .append(",\"place\":\"").append(place).append('"')
+                    .append(",\"time\":").append(time)
+                    .append(",\"updated\":").append(time + random.nextInt(86400000))
+                    .append(",\"tz\":").append(60 * (random.nextInt(25) - 12))
+                    .append(",\"url\":\"https://earthquake.usgs.gov/earthquakes/eventpage/").append(id).append('"')
+                    .append(",\"detail\":\"https://earthquake.usgs.gov/fdsnws/event/1/query?eventid=")
+                    .append(id).append("&format=geojson\"")
+                    .append(",\"felt\":").append(random.nextInt(4) == 0 ? String.valueOf(random.nextInt(500)) : "null")
+                    .append(",\"cdi\":null,\"mmi\":null,\"alert\":null,\"status\":\"reviewed\"")
+                    .append(",\"tsunami\":0,\"sig\":").append(random.nextInt(1000))
+                    .append(",\"net\":\"us\",\"code\":\"").append(id.substring(2)).append('"')
+                    .append(",\"ids\":\",").append(id).append(",\",\"sources\":\",us,\"")
+                    .append(",\"types\":\",geoserve,origin,phase-data,\"")
+                    .append(",\"nst\":null,\"dmin\":").append(String.format(Locale.US, "%.3f", random.nextDouble() * 10))
+                    .append(",\"rms\":").append(String.format(Locale.US, "%.2f", random.nextDouble()))
+                    .append(",\"gap\":").append(random.nextInt(300))
+                    .append(",\"magType\":\"mb\",\"type\":\"earthquake\"")
+                    .append(",\"title\":\"M ").append(magnitude).append(" - ").append(place).append("\"}")
+                    .append(",\"geometry\":{\"type\":\"Point\",\"coordinates\":[")
+                    .append(String.format(Locale.US, "%.4f,%.4f,%.2f", random.nextDouble() * 360 - 180,
+                            random.nextDouble() * 180 - 90, random.nextDouble() * 600))
+                    .append("]},\"id\":\"").append(id).append("\"}");
+        }
+        builder.append("],\"bbox\":[-180,-90,0,180,90,600]}");
+        return builder.toString().getBytes(UTF_8);
+    }
+
+    private static byte[] readFully(InputStream input) throws IOException {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+}
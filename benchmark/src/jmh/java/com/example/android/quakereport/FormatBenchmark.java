@@ -0,0 +1,115 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting done for every row when the list binds it: magnitude, color, location split,
+ * date and time
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FormatBenchmark {
+
+    /** Colors of magnitude circles, values don't matter for timing */
+    private static final int[] MAGNITUDE_COLORS = {
+            0xFF4A7BA7, 0xFF4A7BA7, 0xFF04B4B3, 0xFF10CAC9, 0xFFF5A623, 0xFFFF7D50,
+            0xFFFC6644, 0xFFE75F40, 0xFFE13A20, 0xFFD93218, 0xFFC03823
+    };
+
+    @Param({"10", "1000", "20000", "100000"})
+    public int features;
+
+    private EarthquakeStore mEarthquakes;
+    /** Copy of mEarthquakes with rows made, as the request hands it over */
+    private EarthquakeStore mFormatted;
+    private EarthquakeFormatter mFormatter;
+
+    @Setup
+    public void setUp() throws IOException {
+        mEarthquakes = (EarthquakeStore) QueryUtils.extractEarthquakes(
+                new ByteArrayInputStream(Fixtures.load(features)));
+        mFormatter = new EarthquakeFormatter(MAGNITUDE_COLORS);
+
+        // Let formatter remember every row once
+        for (int i = 0; i < mEarthquakes.size(); i++) {
+            mFormatter.formatMagnitude(mEarthquakes.getMagnitude(i));
+            mFormatter.getPrimaryLocation(mEarthquakes.getLocation(i));
+            mFormatter.formatDate(mEarthquakes.getMilliseconds(i));
+        }
+        mFormatted = mFormatter.formatRows(new EarthquakeStore(mEarthquakes));
+    }
+
+    /**
+     * Takes rows of every earthquake the way QuakeArrayAdapter binds them now, from a store
+     * with rows made in background
+     */
+    @Benchmark
+    public void bindFormattedRows(Blackhole blackhole) {
+        for (int i = 0; i < mFormatted.size(); i++) {
+            EarthquakeRow row = mFormatter.getRow(mFormatted, i);
+            blackhole.consume(row.getMagnitude());
+            blackhole.consume(row.getMagnitudeColor());
+            blackhole.consume(row.getLocationOffset());
+            blackhole.consume(row.getPrimaryLocation());
+            blackhole.consume(row.getDate());
+            blackhole.consume(row.getTime());
+        }
+    }
+
+    /**
+     * Binds every row with a formatter which has already seen them, as when scrolling back
+     */
+    @Benchmark
+    public void bindRowsWarm(Blackhole blackhole) {
+        bindAll(mFormatter, blackhole);
+    }
+
+    /**
+     * Binds every row with a new formatter, as on the first pass over fresh data
+     */
+    @Benchmark
+    public void bindRowsCold(Blackhole blackhole) {
+        bindAll(new EarthquakeFormatter(MAGNITUDE_COLORS), blackhole);
+    }
+
+    /**
+     * Makes rows of every earthquake with a new formatter, as the request does in background
+     * after parsing. Binding such row only assigns its texts.
+     */
+    @Benchmark
+    public EarthquakeStore formatRows() {
+        return new EarthquakeFormatter(MAGNITUDE_COLORS).formatRows(mEarthquakes);
+    }
+
+    /**
+     * Same calls QuakeArrayAdapter made for a row before rows were formatted in background
+     */
+    private void bindAll(EarthquakeFormatter formatter, Blackhole blackhole) {
+        for (int i = 0; i < mEarthquakes.size(); i++) {
+            double magnitude = mEarthquakes.getMagnitude(i);
+            blackhole.consume(formatter.formatMagnitude(magnitude));
+            blackhole.consume(formatter.getMagnitudeColor(magnitude));
+
+            String location = mEarthquakes.getLocation(i);
+            blackhole.consume(formatter.getLocationOffset(location));
+            blackhole.consume(formatter.getPrimaryLocation(location));
+
+            long milliseconds = mEarthquakes.getMilliseconds(i);
+            blackhole.consume(formatter.formatDate(milliseconds));
+            blackhole.consume(formatter.formatTime(milliseconds));
+        }
+    }
+}
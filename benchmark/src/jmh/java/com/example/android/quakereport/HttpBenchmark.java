@@ -0,0 +1,232 @@
+package com.example.android.quakereport;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One GET of a USGS response from a local server, the way QueryUtils made requests before
+ * {@link HttpClient} (new connection every time, no compression, disconnect at the end)
+ * compared with {@link HttpClient}. Bodies are read to the end but not parsed, see
+ * ParseBenchmark for that.
+ *
+ * The server compresses responses for clients which accept gzip, like USGS does, and
+ * "/redirect" answers with 302 to "/query". Counters of every iteration show how many
+ * requests were made, how many response bytes the server sent for them and how many
+ * connections it accepted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HttpBenchmark {
+
+    /**
+     * Traffic of one iteration, divide by requests to get it per request
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Traffic {
+
+        /** Bytes of responses the server sent, status lines and headers included */
+        public long wireBytes;
+        /** Connections the server accepted */
+        public long connections;
+        public long requests;
+
+        private long mStartBytes;
+        private long mStartConnections;
+
+        @Setup(Level.Iteration)
+        public void setUp(HttpBenchmark benchmark) {
+            wireBytes = 0;
+            connections = 0;
+            requests = 0;
+            mStartBytes = benchmark.mWireBytes.get();
+            mStartConnections = benchmark.mConnections.get();
+        }
+
+        void record(HttpBenchmark benchmark) {
+            // Server counts a response before sending it, so it's counted once it was read
+            wireBytes = benchmark.mWireBytes.get() - mStartBytes;
+            connections = benchmark.mConnections.get() - mStartConnections;
+            requests++;
+        }
+    }
+
+    @Param({"1000", "20000"})
+    public int features;
+
+    @Param({"/query", "/redirect"})
+    public String path;
+
+    private final AtomicLong mWireBytes = new AtomicLong();
+    private final AtomicLong mConnections = new AtomicLong();
+    private final Set<InetSocketAddress> mClients =
+            Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+
+    private byte[] mResponse;
+    private byte[] mGzipResponse;
+    private HttpServer mServer;
+    private ExecutorService mServerExecutor;
+    private URL mUrl;
+    private HttpClient mClient;
+    private final byte[] mBuffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws IOException {
+        mResponse = Fixtures.load(features);
+        mGzipResponse = Fixtures.gzip(mResponse);
+
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/query", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String encoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                boolean gzip = encoding != null && encoding.contains("gzip");
+                byte[] body = gzip ? mGzipResponse : mResponse;
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                if (gzip) {
+                    exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                }
+                send(exchange, 200, body);
+            }
+        });
+        mServer.createContext("/redirect", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Location", "/query");
+                send(exchange, 302, null);
+            }
+        });
+        mServerExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mServerExecutor);
+        mServer.start();
+
+        mUrl = new URL("http://127.0.0.1:" + mServer.getAddress().getPort() + path);
+        mClient = new HttpClient(15000, 10000, 5);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.stop(0);
+        mServerExecutor.shutdownNow();
+    }
+
+    /**
+     * Baseline: request as QueryUtils.makeHttpRequest made it before HttpClient
+     */
+    @Benchmark
+    public long legacyConnection(Traffic traffic) throws IOException {
+        HttpURLConnection urlConnection = null;
+        InputStream inputStream = null;
+        long length;
+        try {
+            urlConnection = (HttpURLConnection) mUrl.openConnection();
+            urlConnection.setReadTimeout(10000 /* milliseconds */);
+            urlConnection.setConnectTimeout(15000 /* milliseconds */);
+            urlConnection.setRequestMethod("GET");
+            urlConnection.connect();
+            if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Response code " + urlConnection.getResponseCode());
+            }
+            inputStream = urlConnection.getInputStream();
+            length = drain(inputStream);
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        }
+        traffic.record(this);
+        return length;
+    }
+
+    @Benchmark
+    public long httpClient(Traffic traffic) throws IOException {
+        HttpClient.Response response = mClient.get(mUrl);
+        long length;
+        try {
+            if (response.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Response code " + response.getResponseCode());
+            }
+            length = drain(response.getBody());
+        } finally {
+            response.close();
+        }
+        traffic.record(this);
+        return length;
+    }
+
+    private long drain(InputStream input) throws IOException {
+        long length = 0;
+        int count;
+        while ((count = input.read(mBuffer)) != -1) {
+            length += count;
+        }
+        return length;
+    }
+
+    private void send(HttpExchange exchange, int code, byte[] body) throws IOException {
+        if (mClients.add(exchange.getRemoteAddress())) {
+            mConnections.incrementAndGet();
+        }
+        int length = body != null ? body.length : 0;
+        mWireBytes.addAndGet(headerSize(exchange, code, length) + length);
+        exchange.sendResponseHeaders(code, body != null ? length : -1);
+        OutputStream output = exchange.getResponseBody();
+        try {
+            if (body != null) {
+                output.write(body);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Returns size of status line and headers, with Date and Content-length the server adds
+     */
+    private static long headerSize(HttpExchange exchange, int code, int length) {
+        long size = ("HTTP/1.1 " + code + " " + (code == 200 ? "OK" : "Found") + "\r\n").length()
+                + "Date: Mon, 27 Feb 2017 22:00:52 GMT\r\n".length()
+                + ("Content-length: " + length + "\r\n").length()
+                + "\r\n".length();
+        for (Map.Entry<String, List<String>> header : exchange.getResponseHeaders().entrySet()) {
+            for (String value : header.getValue()) {
+                size += (header.getKey() + ": " + value + "\r\n").length();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.android.quakereport;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parsing of USGS responses into {@link EarthquakeStore}, the work done in the loader once
+ * the response starts arriving. Run with "-prof gc" (set in build.gradle) to compare bytes
+ * allocated per parse with the org.json path the app used before. liveHeap benchmarks
+ * compare heap the two paths hold at the end of a parse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+    /**
+     * Heap used after full collection at the end of parses over heap used before them, summed
+     * over parses. Divide by parses to get it for one. Collectors report used heap to about
+     * a megabyte, so it is noise for small responses.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Heap {
+
+        public long liveBytes;
+        public long parses;
+
+        private long mBefore;
+        private Object[] mHeld;
+
+        void start() {
+            mBefore = usedAfterGc();
+        }
+
+        /**
+         * Measures with objects of the parse reachable, the compiler may not see them used
+         */
+        void stop(Object... held) {
+            mHeld = held;
+            liveBytes += usedAfterGc() - mBefore;
+            parses++;
+            mHeld = null;
+        }
+
+        private static long usedAfterGc() {
+            Runtime runtime = Runtime.getRuntime();
+            long used = Long.MAX_VALUE;
+            // Objects finalized during one collection are freed by the next one
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+            }
+            return used;
+        }
+    }
+
+    @Param({"10", "1000", "10000", "20000", "100000"})
+    public int features;
+
+    private byte[] mResponse;
+    private byte[] mGzipResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        mResponse = Fixtures.load(features);
+        mGzipResponse = Fixtures.gzip(mResponse);
+    }
+
+    @Benchmark
+    public List<Earthquake> extractEarthquakes() throws IOException {
+        return QueryUtils.extractEarthquakes(new ByteArrayInputStream(mResponse));
+    }
+
+    /**
+     * Same as extractEarthquakes, then decodes properties of every earthquake as opening each
+     * of them would. Difference to extractEarthquakes is what lazy decoding saves.
+     */
+    @Benchmark
+    public int extractEarthquakesWithDetails() throws IOException {
+        List<Earthquake> earthquakes = QueryUtils.extractEarthquakes(
+                new ByteArrayInputStream(mResponse));
+        int alerts = 0;
+        for (Earthquake earthquake : earthquakes) {
+            if (earthquake.getDetails().getAlert() != null) {
+                alerts++;
+            }
+        }
+        return alerts;
+    }
+
+    /**
+     * Same as extractEarthquakes, with gzip decoding as responses arrive from HttpClient
+     */
+    @Benchmark
+    public List<Earthquake> extractEarthquakesGzip() throws IOException {
+        return QueryUtils.extractEarthquakes(
+                new GZIPInputStream(new ByteArrayInputStream(mGzipResponse)));
+    }
+
+    /**
+     * Baseline: whole response read into a String, then a JSONObject tree, as the app did
+     * before {@link EarthquakeStreamParser}
+     */
+    @Benchmark
+    public List<Earthquake> extractEarthquakesOrgJson() throws IOException, JSONException {
+        String json = readFromInputStream(new ByteArrayInputStream(mResponse));
+        return toEarthquakes(new JSONObject(json));
+    }
+
+    /**
+     * Heap held when extractEarthquakes returns, the parsed earthquakes. Time is mostly the
+     * full collections, only the counters matter.
+     */
+    @Benchmark
+    public List<Earthquake> liveHeap(Heap heap) throws IOException {
+        heap.start();
+        List<Earthquake> earthquakes = QueryUtils.extractEarthquakes(
+                new ByteArrayInputStream(mResponse));
+        heap.stop(earthquakes);
+        return earthquakes;
+    }
+
+    /**
+     * Heap held at the end of the org.json parse, the response String and JSONObject tree
+     * are reachable until the earthquakes are made from them. Same as liveHeap otherwise.
+     */
+    @Benchmark
+    public List<Earthquake> liveHeapOrgJson(Heap heap) throws IOException, JSONException {
+        heap.start();
+        String json = readFromInputStream(new ByteArrayInputStream(mResponse));
+        JSONObject root = new JSONObject(json);
+        List<Earthquake> earthquakes = toEarthquakes(root);
+        heap.stop(json, root, earthquakes);
+        return earthquakes;
+    }
+
+    private static List<Earthquake> toEarthquakes(JSONObject root) throws JSONException {
+        List<Earthquake> earthquakes = new ArrayList<>();
+        JSONArray features = root.getJSONArray("features");
+        for (int i = 0; i < features.length(); i++) {
+            JSONObject properties = features.getJSONObject(i).getJSONObject("properties");
+            earthquakes.add(new Earthquake(properties.getDouble("mag"),
+                    properties.getString("place"), properties.getLong("time"),
+                    properties.getString("url")));
+        }
+        return earthquakes;
+    }
+
+    private static String readFromInputStream(InputStream inputStream) throws IOException {
+        StringBuilder output = new StringBuilder();
+        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream,
+                Charset.forName("UTF-8")));
+        String line = bufferedReader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = bufferedReader.readLine();
+        }
+        return output.toString();
+    }
+}
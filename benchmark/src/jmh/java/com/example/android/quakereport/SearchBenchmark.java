@@ -0,0 +1,64 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search of locations as the user types, with {@link LocationIndex} over a store, and
+ * indexing of a store as its rows arrive
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchBenchmark {
+
+    @Param({"1000", "20000", "100000"})
+    public int features;
+
+    private EarthquakeStore mEarthquakes;
+    private LocationIndex mIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        mEarthquakes = new EarthquakeStore(QueryUtils.extractEarthquakes(
+                new ByteArrayInputStream(Fixtures.load(features))));
+        mIndex = index();
+    }
+
+    @Benchmark
+    public LocationIndex index() {
+        LocationIndex index = new LocationIndex();
+        for (int i = 0; i < mEarthquakes.size(); i++) {
+            index.add(mEarthquakes.getLocation(i));
+        }
+        return index;
+    }
+
+    @Benchmark
+    public int[] searchWord() {
+        return mIndex.search(mEarthquakes, "Alaska");
+    }
+
+    /**
+     * First letter typed, matches the most words
+     */
+    @Benchmark
+    public int[] searchShortPrefix() {
+        return mIndex.search(mEarthquakes, "a");
+    }
+
+    @Benchmark
+    public int[] searchTwoWords() {
+        return mIndex.search(mEarthquakes, "san ped");
+    }
+}
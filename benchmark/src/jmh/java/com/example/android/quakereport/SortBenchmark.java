@@ -0,0 +1,59 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting by magnitude and time, as done when incremental and multi-region results are merged.
+ * Every benchmark sorts a fresh shuffled copy, copy alone is measured separately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SortBenchmark {
+
+    @Param({"10", "1000", "20000", "100000"})
+    public int features;
+
+    private List<Earthquake> mEarthquakes;
+
+    @Setup
+    public void setUp() throws IOException {
+        mEarthquakes = new ArrayList<>(QueryUtils.extractEarthquakes(
+                new ByteArrayInputStream(Fixtures.load(features))));
+        Collections.shuffle(mEarthquakes, new Random(features));
+    }
+
+    @Benchmark
+    public List<Earthquake> copyOnly() {
+        return new ArrayList<>(mEarthquakes);
+    }
+
+    @Benchmark
+    public List<Earthquake> sortByMagnitude() {
+        List<Earthquake> earthquakes = new ArrayList<>(mEarthquakes);
+        EarthquakeSync.sort(earthquakes, EarthquakeSync.ORDER_BY_MAGNITUDE);
+        return earthquakes;
+    }
+
+    @Benchmark
+    public List<Earthquake> sortByTime() {
+        List<Earthquake> earthquakes = new ArrayList<>(mEarthquakes);
+        EarthquakeSync.sort(earthquakes, EarthquakeSync.ORDER_BY_TIME);
+        return earthquakes;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.android.quakereport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summarizing rows by magnitude, day and region as the list header does, on one thread and
+ * split between processors. Fixture times end on Feb 26 2017, the window ends there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StatsBenchmark {
+
+    private static final long FIXTURE_END = 1488146452000L;
+
+    @Param({"1000", "20000", "100000"})
+    public int features;
+
+    @Param({"", "35,45,-125,-110;61.2,-149.9,500"})
+    public String regions;
+
+    private EarthquakeStore mEarthquakes;
+    private EarthquakeStats mStats;
+
+    @Setup
+    public void setUp() throws IOException {
+        mEarthquakes = (EarthquakeStore) QueryUtils.extractEarthquakes(
+                new ByteArrayInputStream(Fixtures.load(features)));
+        List<MultiRegionQuery.Region> parsed = MultiRegionQuery.Region.parseList(regions);
+        mStats = new EarthquakeStats(FIXTURE_END, 3650, parsed);
+    }
+
+    @Benchmark
+    public EarthquakeStats.Summary sequential() {
+        EarthquakeStats.Summary summary = mStats.newSummary();
+        mStats.add(summary, mEarthquakes, 0, mEarthquakes.size());
+        return summary;
+    }
+
+    /**
+     * Same work, large stores are split between threads
+     */
+    @Benchmark
+    public EarthquakeStats.Summary aggregate() {
+        return mStats.aggregate(mEarthquakes, 0, mEarthquakes.size());
+    }
+}
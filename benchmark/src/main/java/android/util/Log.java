@@ -0,0 +1,26 @@
+package android.util;
+
+/**
+ * No-op replacement of Android's Log, so app classes can run in benchmarks on a plain JVM
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int d(String tag, String message) {
+        return 0;
+    }
+
+    public static int i(String tag, String message) {
+        return 0;
+    }
+
+    public static int e(String tag, String message) {
+        return 0;
+    }
+
+    public static int e(String tag, String message, Throwable throwable) {
+        return 0;
+    }
+}